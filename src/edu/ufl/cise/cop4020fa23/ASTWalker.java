@@ -0,0 +1,215 @@
+package edu.ufl.cise.cop4020fa23;
+
+import java.util.List;
+
+import edu.ufl.cise.cop4020fa23.ast.*;
+import edu.ufl.cise.cop4020fa23.exceptions.PLCCompilerException;
+
+/**
+ * Visitor that walks every node of a type checked AST and returns null.  Analysis passes extend it
+ * and override only the nodes they care about, calling super to keep walking the children.
+ */
+abstract class ASTWalker implements ASTVisitor {
+
+    protected void walk(AST node, Object arg) throws PLCCompilerException {
+        if (node != null) {
+            node.visit(this, arg);
+        }
+    }
+
+    @Override
+    public Object visitProgram(Program program, Object arg) throws PLCCompilerException {
+        for (NameDef param : program.getParams()) {
+            walk(param, arg);
+        }
+        walk(program.getBlock(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitBlock(Block block, Object arg) throws PLCCompilerException {
+        for (Block.BlockElem elem : block.getElems()) {
+            walk(elem, arg);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitBlockStatement(StatementBlock statementBlock, Object arg) throws PLCCompilerException {
+        walk(statementBlock.getBlock(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitDeclaration(Declaration declaration, Object arg) throws PLCCompilerException {
+        walk(declaration.getInitializer(), arg);
+        walk(declaration.getNameDef(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitNameDef(NameDef nameDef, Object arg) throws PLCCompilerException {
+        walk(nameDef.getDimension(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitDimension(Dimension dimension, Object arg) throws PLCCompilerException {
+        walk(dimension.getWidth(), arg);
+        walk(dimension.getHeight(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitAssignmentStatement(AssignmentStatement assignmentStatement, Object arg) throws PLCCompilerException {
+        walk(assignmentStatement.getlValue(), arg);
+        walk(assignmentStatement.getE(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitLValue(LValue lValue, Object arg) throws PLCCompilerException {
+        walk(lValue.getPixelSelector(), arg);
+        walk(lValue.getChannelSelector(), arg);
+        walk(lValue.getRegion(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitRegion(Region region, Object arg) throws PLCCompilerException {
+        walk(region.getX(), arg);
+        walk(region.getY(), arg);
+        walk(region.getWidth(), arg);
+        walk(region.getHeight(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitWriteStatement(WriteStatement writeStatement, Object arg) throws PLCCompilerException {
+        walk(writeStatement.getExpr(), arg);
+        walk(writeStatement.getDestination(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitReturnStatement(ReturnStatement returnStatement, Object arg) throws PLCCompilerException {
+        walk(returnStatement.getE(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitDoStatement(DoStatement doStatement, Object arg) throws PLCCompilerException {
+        for (GuardedBlock guardedBlock : doStatement.getGuardedBlocks()) {
+            walk(guardedBlock, arg);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitIfStatement(IfStatement ifStatement, Object arg) throws PLCCompilerException {
+        for (GuardedBlock guardedBlock : ifStatement.getGuardedBlocks()) {
+            walk(guardedBlock, arg);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitGuardedBlock(GuardedBlock guardedBlock, Object arg) throws PLCCompilerException {
+        walk(guardedBlock.getGuard(), arg);
+        walk(guardedBlock.getBlock(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitBinaryExpr(BinaryExpr binaryExpr, Object arg) throws PLCCompilerException {
+        walk(binaryExpr.getLeftExpr(), arg);
+        walk(binaryExpr.getRightExpr(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitUnaryExpr(UnaryExpr unaryExpr, Object arg) throws PLCCompilerException {
+        walk(unaryExpr.getExpr(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitPostfixExpr(PostfixExpr postfixExpr, Object arg) throws PLCCompilerException {
+        walk(postfixExpr.primary(), arg);
+        walk(postfixExpr.pixel(), arg);
+        walk(postfixExpr.channel(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitConditionalExpr(ConditionalExpr conditionalExpr, Object arg) throws PLCCompilerException {
+        walk(conditionalExpr.getGuardExpr(), arg);
+        walk(conditionalExpr.getTrueExpr(), arg);
+        walk(conditionalExpr.getFalseExpr(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitExpandedPixelExpr(ExpandedPixelExpr expandedPixelExpr, Object arg) throws PLCCompilerException {
+        walk(expandedPixelExpr.getRed(), arg);
+        walk(expandedPixelExpr.getGreen(), arg);
+        walk(expandedPixelExpr.getBlue(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitConvolveExpr(ConvolveExpr convolveExpr, Object arg) throws PLCCompilerException {
+        walk(convolveExpr.getImage(), arg);
+        for (List<Expr> row : convolveExpr.getKernel()) {
+            for (Expr weight : row) {
+                walk(weight, arg);
+            }
+        }
+        walk(convolveExpr.getDivisor(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitReduceExpr(ReduceExpr reduceExpr, Object arg) throws PLCCompilerException {
+        walk(reduceExpr.getImage(), arg);
+        walk(reduceExpr.getValue(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitPixelSelector(PixelSelector pixelSelector, Object arg) throws PLCCompilerException {
+        walk(pixelSelector.xExpr(), arg);
+        walk(pixelSelector.yExpr(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitChannelSelector(ChannelSelector channelSelector, Object arg) throws PLCCompilerException {
+        return null;
+    }
+
+    @Override
+    public Object visitIdentExpr(IdentExpr identExpr, Object arg) throws PLCCompilerException {
+        return null;
+    }
+
+    @Override
+    public Object visitStringLitExpr(StringLitExpr stringLitExpr, Object arg) throws PLCCompilerException {
+        return null;
+    }
+
+    @Override
+    public Object visitNumLitExpr(NumLitExpr numLitExpr, Object arg) throws PLCCompilerException {
+        return null;
+    }
+
+    @Override
+    public Object visitBooleanLitExpr(BooleanLitExpr booleanLitExpr, Object arg) throws PLCCompilerException {
+        return null;
+    }
+
+    @Override
+    public Object visitConstExpr(ConstExpr constExpr, Object arg) throws PLCCompilerException {
+        return null;
+    }
+}
@@ -0,0 +1,63 @@
+package edu.ufl.cise.cop4020fa23;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Precedence table for the binary operators of the expression grammar.
+ *
+ * The levels mirror the original recursive descent rules, from loosest to tightest:
+ *
+ *   LogicalOrExpr        |  ||
+ *   LogicalAndExpr       &  &&
+ *   ComparisonExpr       <  >  ==  <=  >=
+ *   PowExpr              **                  (right associative)
+ *   AdditiveExpr         +  -
+ *   MultiplicativeExpr   *  /  %
+ *
+ * Used by Parser and ExpressionParser to drive precedence climbing, so a primary
+ * expression no longer has to descend through one method per level.
+ */
+final class BinaryOperators {
+
+	/** Returned for tokens that are not binary operators; lower than every real level. */
+	static final int NOT_BINARY = 0;
+
+	static final int LOWEST = 1;
+
+	private static final Map<Kind, Integer> PRECEDENCE = new EnumMap<>(Kind.class);
+
+	static {
+		PRECEDENCE.put(Kind.BITOR, 1);
+		PRECEDENCE.put(Kind.OR, 1);
+		PRECEDENCE.put(Kind.BITAND, 2);
+		PRECEDENCE.put(Kind.AND, 2);
+		PRECEDENCE.put(Kind.LT, 3);
+		PRECEDENCE.put(Kind.GT, 3);
+		PRECEDENCE.put(Kind.EQ, 3);
+		PRECEDENCE.put(Kind.LE, 3);
+		PRECEDENCE.put(Kind.GE, 3);
+		PRECEDENCE.put(Kind.EXP, 4);
+		PRECEDENCE.put(Kind.PLUS, 5);
+		PRECEDENCE.put(Kind.MINUS, 5);
+		PRECEDENCE.put(Kind.TIMES, 6);
+		PRECEDENCE.put(Kind.DIV, 6);
+		PRECEDENCE.put(Kind.MOD, 6);
+	}
+
+	private BinaryOperators() {
+	}
+
+	static int precedence(Kind kind) {
+		return PRECEDENCE.getOrDefault(kind, NOT_BINARY);
+	}
+
+	static boolean isRightAssociative(Kind kind) {
+		return kind == Kind.EXP;
+	}
+
+	// UnaryExpr ::=  ( ! | - | length | width) UnaryExpr  |  UnaryExprPostfix
+	static boolean isUnary(Kind kind) {
+		return kind == Kind.BANG || kind == Kind.MINUS || kind == Kind.RES_width || kind == Kind.RES_height;
+	}
+}
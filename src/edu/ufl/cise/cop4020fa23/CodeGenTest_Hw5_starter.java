@@ -1,10 +1,24 @@
 package edu.ufl.cise.cop4020fa23;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+import javax.imageio.ImageIO;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
@@ -13,7 +27,11 @@ import edu.ufl.cise.cop4020fa23.DynamicJavaCompileAndExecute.PLCLangExec;
 import edu.ufl.cise.cop4020fa23.runtime.ConsoleIO;
 import edu.ufl.cise.cop4020fa23.runtime.FileURLIO;
 import edu.ufl.cise.cop4020fa23.runtime.ImageOps;
+import edu.ufl.cise.cop4020fa23.runtime.ImagePool;
+import edu.ufl.cise.cop4020fa23.runtime.PLCRuntimeException;
 import edu.ufl.cise.cop4020fa23.runtime.PixelOps;
+import edu.ufl.cise.cop4020fa23.runtime.PlcImage;
+import edu.ufl.cise.cop4020fa23.runtime.StreamedImage;
 
 class CodeGenTest_Hw5_starter {
 
@@ -87,6 +105,23 @@ class CodeGenTest_Hw5_starter {
 			}
 	}
 
+	// an image whose pixels all differ, with channel values that do not overflow when doubled
+	BufferedImage makeTestImage(int w, int h) {
+		BufferedImage image = ImageOps.makeImage(w, h);
+		for (int y = 0; y < h; y++)
+			for (int x = 0; x < w; x++) {
+				image.setRGB(x, y, PixelOps.pack(x % 128, y % 128, (x + y) % 128));
+			}
+		return image;
+	}
+
+	// a file in the temporary directory that is deleted when the tests finish
+	String tempFile(String suffix) throws IOException {
+		Path path = Files.createTempFile("plc", suffix);
+		path.toFile().deleteOnExit();
+		return path.toString();
+	}
+
 	@Test
 	void hw5_0() throws Exception {
 		String source = """
@@ -954,4 +989,1105 @@ class CodeGenTest_Hw5_starter {
 		show(result);
 	}
 
+
+	@Test
+	void hw5_34() throws Exception {
+		// an image in the raw format is read back exactly
+		String source = """
+				image f(string s) <:
+				  image i = s;
+				  ^i;
+				:>
+				""";
+		BufferedImage expected = makeTestImage(40, 30);
+		String file = tempFile(FileURLIO.RAW_EXTENSION);
+		FileURLIO.writeRawImage(ImageOps.toPlcImage(expected), file);
+		BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source, file);
+		compareImages(expected, result);
+	}
+
+	@Test
+	void hw5_35() throws Exception {
+		// a sized read of a raw image is resized like any other image
+		String source = """
+				image f(string s) <:
+				  image[20,15] i = s;
+				  ^i;
+				:>
+				""";
+		BufferedImage image = makeTestImage(40, 30);
+		String file = tempFile(FileURLIO.RAW_EXTENSION);
+		FileURLIO.writeRawImage(ImageOps.toPlcImage(image), file);
+		BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source, file);
+		compareImages(ImageOps.copyAndResize(image, 20, 15), result);
+	}
+
+	@Test
+	void hw5_36() throws Exception {
+		// changing a mapped raw image does not change the file
+		BufferedImage image = makeTestImage(40, 30);
+		String file = tempFile(FileURLIO.RAW_EXTENSION);
+		FileURLIO.writeRawImage(ImageOps.toPlcImage(image), file);
+		PlcImage mapped = FileURLIO.readRawImage(file);
+		assertEquals(40, mapped.getWidth());
+		assertEquals(30, mapped.getHeight());
+		assertEquals(image.getRGB(3, 4), mapped.getRGB(3, 4));
+		mapped.setRGB(3, 4, Color.white.getRGB());
+		compareImages(image, ImageOps.toBufferedImage(FileURLIO.readRawImage(file)));
+	}
+
+	@Test
+	void hw5_37() throws Exception {
+		// a file that is not in the raw format is rejected
+		String file = tempFile(FileURLIO.RAW_EXTENSION);
+		Files.write(Paths.get(file), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17 });
+		assertThrows(PLCRuntimeException.class, () -> FileURLIO.readRawImage(file));
+	}
+
+	@Test
+	void hw5_38() throws Exception {
+		// an image written to a png file is read back unchanged
+		String source = """
+				void f(image i, string s) <:
+				  write i -> s;
+				:>
+				""";
+		BufferedImage image = makeTestImage(40, 30);
+		String file = tempFile(".png");
+		PLCLangExec.runCode(packageName, source, image, file);
+		FileURLIO.awaitWrites();
+		compareImages(image, FileURLIO.readImage(file));
+	}
+
+	@Test
+	void hw5_39() throws Exception {
+		// a write is not affected by later changes to the image
+		String source = """
+				void f(string s, string t) <:
+				  image[40,30] im;
+				  im[x,y] = [x, y, 0];
+				  write im -> s;
+				  im[x,y] = [0, y, x];
+				  write im -> t;
+				:>
+				""";
+		String first = tempFile(".png");
+		String second = tempFile(FileURLIO.RAW_EXTENSION);
+		PLCLangExec.runCode(packageName, source, first, second);
+		FileURLIO.awaitWrites();
+		BufferedImage expectedFirst = ImageOps.makeImage(40, 30);
+		BufferedImage expectedSecond = ImageOps.makeImage(40, 30);
+		for (int y = 0; y < 30; y++)
+			for (int x = 0; x < 40; x++) {
+				expectedFirst.setRGB(x, y, PixelOps.pack(x, y, 0));
+				expectedSecond.setRGB(x, y, PixelOps.pack(0, y, x));
+			}
+		compareImages(expectedFirst, FileURLIO.readImage(first));
+		compareImages(expectedSecond, FileURLIO.readImage(second));
+	}
+
+	@Test
+	void hw5_40() throws Exception {
+		// nearest neighbour resizing to twice the size repeats each pixel in a 2x2 block
+		BufferedImage image = makeTestImage(3, 2);
+		BufferedImage result = ImageOps.toBufferedImage(ImageOps.copyAndResizeNearest(ImageOps.toPlcImage(image), 6, 4));
+		BufferedImage expected = ImageOps.makeImage(6, 4);
+		for (int y = 0; y < 4; y++)
+			for (int x = 0; x < 6; x++) {
+				expected.setRGB(x, y, image.getRGB(x / 2, y / 2));
+			}
+		compareImages(expected, result);
+	}
+
+	@Test
+	void hw5_41() throws Exception {
+		// nearest neighbour resizing to half the size samples the pixel at each center, and the
+		// result has exactly the requested size
+		BufferedImage image = makeTestImage(8, 6);
+		BufferedImage result = ImageOps.toBufferedImage(ImageOps.copyAndResizeNearest(ImageOps.toPlcImage(image), 4, 3));
+		BufferedImage expected = ImageOps.makeImage(4, 3);
+		for (int y = 0; y < 3; y++)
+			for (int x = 0; x < 4; x++) {
+				expected.setRGB(x, y, image.getRGB(2 * x + 1, 2 * y + 1));
+			}
+		compareImages(expected, result);
+		PlcImage odd = ImageOps.copyAndResize(ImageOps.toPlcImage(makeTestImage(33, 17)), 50, 9);
+		assertEquals(50, odd.getWidth());
+		assertEquals(9, odd.getHeight());
+	}
+
+	@Test
+	void hw5_42() throws Exception {
+		// bilinear resizing keeps an image of one color, and an image resized to its own size
+		BufferedImage image = makeTestImage(20, 10);
+		compareImages(image, ImageOps.toBufferedImage(ImageOps.copyAndResizeBilinear(ImageOps.toPlcImage(image), 20, 10)));
+		PlcImage plain = new PlcImage(7, 5);
+		plain.fill(PixelOps.pack(10, 200, 30));
+		PlcImage result = ImageOps.copyAndResizeBilinear(plain, 23, 11);
+		for (int y = 0; y < 11; y++)
+			for (int x = 0; x < 23; x++) {
+				assertEquals(plain.getRGB(0, 0), result.getRGB(x, y));
+			}
+	}
+
+	@Test
+	void hw5_43() throws Exception {
+		// a sized declaration resizes its initializer
+		String source = """
+				image f(image i) <:
+				  image[6,4] j = i;
+				  ^j;
+				:>
+				""";
+		BufferedImage image = makeTestImage(3, 2);
+		BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source, image);
+		compareImages(ImageOps.copyAndResize(image, 6, 4), result);
+		assertEquals(image.getRGB(2, 1), result.getRGB(5, 3));
+	}
+
+	@Test
+	void hw5_44() throws Exception {
+		// a released frame is handed out again, black
+		PlcImage image = ImagePool.acquire(200, 100);
+		assertEquals(PixelOps.pack(0, 0, 0), image.getRGB(7, 8));
+		image.setRGB(7, 8, Color.white.getRGB());
+		ImagePool.release(image);
+		PlcImage again = ImagePool.acquire(200, 100);
+		assertSame(image, again);
+		for (int y = 0; y < 100; y++)
+			for (int x = 0; x < 200; x++) {
+				assertEquals(PixelOps.pack(0, 0, 0), again.getRGB(x, y));
+			}
+		ImagePool.release(again);
+	}
+
+	@Test
+	void hw5_45() throws Exception {
+		// small frames and frames the pool did not create are not pooled
+		PlcImage small = ImagePool.acquire(10, 10);
+		ImagePool.release(small);
+		assertNotSame(small, ImagePool.acquire(10, 10));
+		PlcImage other = new PlcImage(200, 100);
+		ImagePool.release(other);
+		assertNotSame(other, ImagePool.acquire(200, 100));
+	}
+
+	@Test
+	void hw5_46() throws Exception {
+		// a do loop over image operations, whose frames come from the pool, computes every image
+		String source = """
+				image f(image a) <:
+				  image b = a;
+				  int k = 0;
+				  do k < 4 -> <: b = b + a; k = k + 1; :> od;
+				  ^b;
+				:>
+				""";
+		BufferedImage image = makeTestImage(200, 100);
+		BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source, image);
+		BufferedImage expected = ImageOps.makeImage(200, 100);
+		for (int y = 0; y < 100; y++)
+			for (int x = 0; x < 200; x++) {
+				int p = image.getRGB(x, y);
+				expected.setRGB(x, y, PixelOps.pack(5 * PixelOps.red(p), 5 * PixelOps.green(p), 5 * PixelOps.blue(p)));
+			}
+		compareImages(expected, result);
+	}
+
+	// each channel of pixel (x,y) is the sum of the weights times the channel of the pixels around
+	// it, black outside the image, divided by the divisor and clamped to [0, 255]
+	BufferedImage convolveReference(BufferedImage image, int[][] kernel, int divisor) {
+		int w = image.getWidth();
+		int h = image.getHeight();
+		BufferedImage result = ImageOps.makeImage(w, h);
+		for (int y = 0; y < h; y++)
+			for (int x = 0; x < w; x++) {
+				int red = 0, green = 0, blue = 0;
+				for (int j = 0; j < kernel.length; j++)
+					for (int i = 0; i < kernel[j].length; i++) {
+						int sx = x + i - kernel[j].length / 2;
+						int sy = y + j - kernel.length / 2;
+						if (sx >= 0 && sx < w && sy >= 0 && sy < h) {
+							int p = image.getRGB(sx, sy);
+							red += kernel[j][i] * PixelOps.red(p);
+							green += kernel[j][i] * PixelOps.green(p);
+							blue += kernel[j][i] * PixelOps.blue(p);
+						}
+					}
+				result.setRGB(x, y, PixelOps.pack(red / divisor, green / divisor, blue / divisor));
+			}
+		return result;
+	}
+
+	@Test
+	void hw5_47() throws Exception {
+		// a box blur, divided by the sum of the weights when there is no divisor
+		String source = """
+				image f(image i) <:
+				  ^convolve(i, [[1,1,1],[1,1,1],[1,1,1]]);
+				:>
+				""";
+		BufferedImage image = makeTestImage(20, 10);
+		BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source, image);
+		compareImages(convolveReference(image, new int[][] { { 1, 1, 1 }, { 1, 1, 1 }, { 1, 1, 1 } }, 9), result);
+	}
+
+	@Test
+	void hw5_48() throws Exception {
+		// a sharpen kernel with negative weights, whose sums are clamped
+		String source = """
+				image f(image i) <:
+				  ^convolve(i, [[0,-1,0],[-1,5,-1],[0,-1,0]]);
+				:>
+				""";
+		BufferedImage image = makeTestImage(20, 10);
+		BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source, image);
+		compareImages(convolveReference(image, new int[][] { { 0, -1, 0 }, { -1, 5, -1 }, { 0, -1, 0 } }, 1), result);
+	}
+
+	@Test
+	void hw5_49() throws Exception {
+		// a Gaussian blur with a divisor, assigned back to the image it reads
+		String source = """
+				image f(image i) <:
+				  i = convolve(i, [[1,2,1],[2,4,2],[1,2,1]], 16);
+				  ^i;
+				:>
+				""";
+		BufferedImage image = makeTestImage(150, 120);
+		BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source, image);
+		compareImages(convolveReference(image, new int[][] { { 1, 2, 1 }, { 2, 4, 2 }, { 1, 2, 1 } }, 16), result);
+	}
+
+	@Test
+	void hw5_50() throws Exception {
+		// sum, min and max over every channel, on an image large enough to be reduced in parallel
+		BufferedImage image = makeTestImage(300, 250);
+		long sum = 0;
+		int min = 255;
+		int max = 0;
+		for (int y = 0; y < 250; y++)
+			for (int x = 0; x < 300; x++) {
+				int p = image.getRGB(x, y);
+				for (int channel : new int[] { PixelOps.red(p), PixelOps.green(p), PixelOps.blue(p) }) {
+					sum += channel;
+					min = Math.min(min, channel);
+					max = Math.max(max, channel);
+				}
+			}
+		assertEquals((int) sum, (int) PLCLangExec.runCode(packageName, "int f(image i) <: ^reduce(sum, i); :>", image));
+		assertEquals(min, (int) PLCLangExec.runCode(packageName, "int f(image i) <: ^reduce(min, i); :>", image));
+		assertEquals(max, (int) PLCLangExec.runCode(packageName, "int f(image i) <: ^reduce(max, i); :>", image));
+	}
+
+	@Test
+	void hw5_51() throws Exception {
+		// a reduction of a channel extraction reduces only that channel
+		String source = """
+				int f(image i) <:
+				  int low = reduce(min, i:blue);
+				  int high = reduce(max, i:blue);
+				  ^reduce(sum, i:green) + low * 1000000 + high * 10000000;
+				:>
+				""";
+		BufferedImage image = makeTestImage(40, 30);
+		int green = 0;
+		int low = 255;
+		int high = 0;
+		for (int y = 0; y < 30; y++)
+			for (int x = 0; x < 40; x++) {
+				int p = image.getRGB(x, y);
+				green += PixelOps.green(p);
+				low = Math.min(low, PixelOps.blue(p));
+				high = Math.max(high, PixelOps.blue(p));
+			}
+		int result = (int) PLCLangExec.runCode(packageName, source, image);
+		assertEquals(green + low * 1000000 + high * 10000000, result);
+	}
+
+	@Test
+	void hw5_52() throws Exception {
+		// count counts pixels, and histogram counts channel values
+		String source = """
+				int f(image i, pixel p, int v) <:
+				  ^reduce(count, i, p) * 100000 + reduce(histogram, i, v);
+				:>
+				""";
+		BufferedImage image = makeTestImage(40, 30);
+		int pixel = image.getRGB(5, 5);
+		int pixels = 0;
+		int values = 0;
+		for (int y = 0; y < 30; y++)
+			for (int x = 0; x < 40; x++) {
+				int p = image.getRGB(x, y);
+				if (p == pixel) {
+					pixels++;
+				}
+				for (int channel : new int[] { PixelOps.red(p), PixelOps.green(p), PixelOps.blue(p) }) {
+					if (channel == 7) {
+						values++;
+					}
+				}
+			}
+		int result = (int) PLCLangExec.runCode(packageName, source, image, pixel, 7);
+		assertEquals(pixels * 100000 + values, result);
+	}
+
+	@Test
+	void hw5_53() throws Exception {
+		// only the pixels of the region are assigned
+		String source = """
+				image f(image i) <:
+				  i[x,y] within [3, 2, 10, 5] = [255, x, y];
+				  ^i;
+				:>
+				""";
+		BufferedImage image = makeTestImage(20, 10);
+		BufferedImage expected = makeTestImage(20, 10);
+		for (int y = 2; y < 7; y++)
+			for (int x = 3; x < 13; x++) {
+				expected.setRGB(x, y, PixelOps.pack(255, x, y));
+			}
+		BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source, image);
+		compareImages(expected, result);
+	}
+
+	@Test
+	void hw5_54() throws Exception {
+		// a region partly or wholly outside the image is clipped to it
+		String source = """
+				image f(image i, int x0, int y0) <:
+				  i[x,y] within [x0, y0, 8, 8] = [0, 0, 255];
+				  i[x,y] within [100, 0, 8, 8] = [0, 255, 0];
+				  ^i;
+				:>
+				""";
+		BufferedImage image = makeTestImage(20, 10);
+		BufferedImage expected = makeTestImage(20, 10);
+		for (int y = 0; y < 5; y++)
+			for (int x = 15; x < 20; x++) {
+				expected.setRGB(x, y, PixelOps.pack(0, 0, 255));
+			}
+		BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source, image, 15, -3);
+		compareImages(expected, result);
+	}
+
+	@Test
+	void hw5_55() throws Exception {
+		// a frame is only handed out again for the same width and height
+		PlcImage image = ImagePool.acquire(200, 100);
+		ImagePool.release(image);
+		PlcImage transposed = ImagePool.acquire(100, 200);
+		assertNotSame(image, transposed);
+		assertEquals(100, transposed.getWidth());
+		assertEquals(200, transposed.getHeight());
+		assertSame(image, ImagePool.acquire(200, 100));
+		ImagePool.release(transposed);
+		ImagePool.release(image);
+	}
+
+	@Test
+	void hw5_56() throws Exception {
+		// no release is generated after a nested block that returns, which would not compile
+		String source = """
+				image f(int w) <:
+				  image[w,w] j;
+				  j[x,y] = [x,y,0];
+				  <: ^ j; :>
+				:>
+				""";
+		BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source, 300);
+		assertEquals(300, result.getWidth());
+		assertEquals(PixelOps.pack(7, 9, 0), result.getRGB(7, 9));
+	}
+
+	@Test
+	void hw5_57() throws Exception {
+		// nor after a do loop on true, which only ends by returning
+		String source = """
+				image f(int w) <:
+				  image[w,w] j;
+				  j[x,y] = [x,y,0];
+				  do TRUE -> <: <: ^ j; :> :> od;
+				:>
+				""";
+		BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source, 300);
+		assertEquals(PixelOps.pack(7, 9, 0), result.getRGB(7, 9));
+		// an if statement can always complete normally, so its frame is still released after it
+		source = """
+				image f(int w) <:
+				  image[w,w] j;
+				  j[x,y] = [x,y,0];
+				  if w > 0 -> <: ^ j; :> [] w <= 0 -> <: ^ j; :> fi;
+				  image[w,w] k;
+				  ^k;
+				:>
+				""";
+		result = (BufferedImage) PLCLangExec.runCode(packageName, source, 300);
+		assertEquals(PixelOps.pack(7, 9, 0), result.getRGB(7, 9));
+	}
+
+	@Test
+	void hw5_58() throws Exception {
+		// the right operand of && is not evaluated when the left one is false, so adding images of
+		// different sizes there does not fail
+		String source = """
+				boolean f(int w) <:
+				  image[w,w] a;
+				  image[w + 1,w] c;
+				  boolean r = (w > 100) && ((a + c) == a);
+				  ^r;
+				:>
+				""";
+		assertEquals(false, PLCLangExec.runCode(packageName, source, 10));
+		source = """
+				boolean f(int w) <:
+				  image[w,w] a;
+				  image[w + 1,w] c;
+				  boolean r = (w < 100) || ((a + c) == a);
+				  ^r;
+				:>
+				""";
+		assertEquals(true, PLCLangExec.runCode(packageName, source, 10));
+	}
+
+	@Test
+	void hw5_59() throws Exception {
+		// an assignment that reads a streamed image is visited row by row, not in tiles, even when
+		// its target is large enough for tiles and it also reads across the rows of another image
+		String file = tempFile(".png");
+		FileURLIO.writeImage(ImageOps.toPlcImage(makeTestImage(3000, 3000)), file);
+		FileURLIO.awaitWrites();
+		String source = """
+				image f(string s) <:
+				  image i = s;
+				  image[3000,3000] t;
+				  t[x,y] = [x % 256, y % 256, 0];
+				  image[3000,3000] j;
+				  j[x,y] = i[x,y] / 2 + t[y,x] / 2;
+				  ^j;
+				:>
+				""";
+		assertFalse(ComponentFactory.compile(source, packageName).contains("$tile"));
+		// the same assignment on an image decoded all at once is tiled
+		assertTrue(ComponentFactory.compile(source.replace("image i = s;", "image[3000,3000] i = s;"), packageName)
+				.contains("$tile"));
+		BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source, file);
+		int[][] points = { { 0, 0 }, { 2999, 0 }, { 5, 1700 }, { 1234, 2999 }, { 2999, 2999 } };
+		for (int[] point : points) {
+			int x = point[0];
+			int y = point[1];
+			assertEquals(PixelOps.pack((x % 128) / 2 + (y % 256) / 2, (y % 128) / 2 + (x % 256) / 2, ((x + y) % 128) / 2),
+					result.getRGB(x, y));
+		}
+	}
+
+	// number of times part occurs in code
+	int occurrences(String code, String part) {
+		return code.split(java.util.regex.Pattern.quote(part), -1).length - 1;
+	}
+
+	@Test
+	void hw5_60() throws Exception {
+		// reads started at program entry give the images the declarations would have read
+		String a = tempFile(".png");
+		String b = tempFile(".png");
+		BufferedImage imageA = makeTestImage(40, 30);
+		BufferedImage imageB = ImageOps.makeImage(40, 30);
+		for (int y = 0; y < 30; y++)
+			for (int x = 0; x < 40; x++) {
+				imageB.setRGB(x, y, PixelOps.pack(100, 2 * x, 3 * y));
+			}
+		FileURLIO.writeImage(ImageOps.toPlcImage(imageA), a);
+		FileURLIO.writeImage(ImageOps.toPlcImage(imageB), b);
+		FileURLIO.awaitWrites();
+		String source = """
+				image f(string a, string b) <:
+				  image i = a;
+				  image j = b;
+				  image[20,15] k = a;
+				  image[20,15] r = i + j;
+				  ^ r + k;
+				:>
+				""";
+		assertEquals(3, occurrences(ComponentFactory.compile(source, packageName), "FileURLIO.readImageAsync("));
+		BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source, a, b);
+		BufferedImage sum = ImageOps.makeImage(40, 30);
+		for (int y = 0; y < 30; y++)
+			for (int x = 0; x < 40; x++) {
+				int p = imageA.getRGB(x, y);
+				int q = imageB.getRGB(x, y);
+				sum.setRGB(x, y, PixelOps.pack(Math.min(255, PixelOps.red(p) + PixelOps.red(q)),
+						Math.min(255, PixelOps.green(p) + PixelOps.green(q)),
+						Math.min(255, PixelOps.blue(p) + PixelOps.blue(q))));
+			}
+		BufferedImage r = ImageOps.copyAndResize(sum, 20, 15);
+		BufferedImage k = ImageOps.copyAndResize(imageA, 20, 15);
+		BufferedImage expected = ImageOps.makeImage(20, 15);
+		for (int y = 0; y < 15; y++)
+			for (int x = 0; x < 20; x++) {
+				int p = r.getRGB(x, y);
+				int q = k.getRGB(x, y);
+				expected.setRGB(x, y, PixelOps.pack(Math.min(255, PixelOps.red(p) + PixelOps.red(q)),
+						Math.min(255, PixelOps.green(p) + PixelOps.green(q)),
+						Math.min(255, PixelOps.blue(p) + PixelOps.blue(q))));
+			}
+		compareImages(expected, result);
+	}
+
+	@Test
+	void hw5_61() throws Exception {
+		// a read after a statement that may return is not started at entry, since the declaration
+		// might never be reached
+		String source = """
+				image f(string a, string b, string c, boolean early) <:
+				  image i = a;
+				  image j = b;
+				  if early -> <: ^ i; :> fi;
+				  image k = c;
+				  image r = i + j;
+				  ^ r + k;
+				:>
+				""";
+		String javaCode = ComponentFactory.compile(source, packageName);
+		assertEquals(2, occurrences(javaCode, "FileURLIO.readImageAsync("));
+		String a = tempFile(".png");
+		BufferedImage image = makeTestImage(40, 30);
+		FileURLIO.writeImage(ImageOps.toPlcImage(image), a);
+		FileURLIO.awaitWrites();
+		BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source, a, a, "missing.png", true);
+		compareImages(image, result);
+		// with the return first, no read is reached unconditionally and none is started at entry
+		javaCode = ComponentFactory.compile(source.replace("  image i = a;\n  image j = b;\n  if early -> <: ^ i; :> fi;\n",
+				"  if early -> <: image[1,1] e; ^ e; :> fi;\n  image i = a;\n  image j = b;\n"), packageName);
+		assertEquals(0, occurrences(javaCode, "FileURLIO.readImageAsync("));
+	}
+
+	@Test
+	void hw5_62() throws Exception {
+		// apply waits for the images the program writes, so the files are complete when it returns
+		String source = """
+				int f(string s, string t) <:
+				  image[2000,1500] im;
+				  im[x,y] = [x % 256, y % 256, 0];
+				  write im -> s;
+				  im[x,y] = [0, y % 256, x % 256];
+				  write im -> t;
+				  ^ 1;
+				:>
+				""";
+		assertTrue(ComponentFactory.compile(source, packageName).contains("FileURLIO.awaitWrites();"));
+		String first = tempFile(".png");
+		String second = tempFile(".png");
+		assertEquals(1, PLCLangExec.runCode(packageName, source, first, second));
+		BufferedImage firstImage = ImageIO.read(new File(first));
+		BufferedImage secondImage = ImageIO.read(new File(second));
+		for (int y = 0; y < 1500; y += 7)
+			for (int x = 0; x < 2000; x += 7) {
+				assertEquals(PixelOps.pack(x % 256, y % 256, 0), firstImage.getRGB(x, y));
+				assertEquals(PixelOps.pack(0, y % 256, x % 256), secondImage.getRGB(x, y));
+			}
+		// a program that writes no files does not wait for the writes of other programs
+		assertFalse(ComponentFactory.compile("int f() <: ^ 1; :>", packageName).contains("awaitWrites"));
+	}
+
+	@Test
+	void hw5_63() throws Exception {
+		// a write that fails is reported by apply
+		String source = """
+				void f(string s) <:
+				  image[40,30] im;
+				  write im -> s;
+				:>
+				""";
+		String file = Paths.get(tempFile(".png")).resolveSibling("missing-directory").resolve("x.png").toString();
+		Exception e = assertThrows(Exception.class, () -> PLCLangExec.runCode(packageName, source, file));
+		Throwable cause = e;
+		while (cause != null && !(cause instanceof PLCRuntimeException)) {
+			cause = cause.getCause();
+		}
+		assertTrue(cause instanceof PLCRuntimeException, e.toString());
+	}
+
+	// an image of the given type whose pixels vary along both axes
+	BufferedImage makeTypedImage(int w, int h, int type) {
+		BufferedImage image = new BufferedImage(w, h, type);
+		for (int y = 0; y < h; y++)
+			for (int x = 0; x < w; x++) {
+				image.setRGB(x, y, ((x * 7 + y) % 256) << 24 | (x % 256) << 16 | (y % 256) << 8 | (x + y) % 256);
+			}
+		return image;
+	}
+
+	// decoding the file a band of rows at a time gives the pixels ImageIO.read gives
+	void assertBandsMatch(String file) throws IOException {
+		BufferedImage expected = ImageIO.read(new File(file));
+		try (StreamedImage streamed = FileURLIO.openStreamedImage(file)) {
+			assertEquals(expected.getWidth(), streamed.getWidth());
+			assertEquals(expected.getHeight(), streamed.getHeight());
+			for (int y = 0; y < expected.getHeight(); y++)
+				for (int x = 0; x < expected.getWidth(); x++) {
+					if (expected.getRGB(x, y) != streamed.getRGB(x, y)) {
+						assertEquals(Integer.toHexString(expected.getRGB(x, y)), Integer.toHexString(streamed.getRGB(x, y)),
+								file + " pixel at [" + x + "," + y + "]");
+					}
+				}
+		}
+	}
+
+	@Test
+	void hw5_64() throws Exception {
+		// PNG images of each kind the writer produces are decoded in bands as they are decoded whole;
+		// 701 x 997 pixels makes three bands, the last one partly filled
+		int[] types = { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_BYTE_GRAY,
+				BufferedImage.TYPE_USHORT_GRAY, BufferedImage.TYPE_BYTE_INDEXED, BufferedImage.TYPE_BYTE_BINARY };
+		for (int type : types) {
+			String file = tempFile(".png");
+			ImageIO.write(makeTypedImage(701, 997, type), "png", new File(file));
+			assertBandsMatch(file);
+		}
+	}
+
+	@Test
+	void hw5_65() throws Exception {
+		// so are color and grayscale JPEG images
+		int[] types = { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY };
+		for (int type : types) {
+			String file = tempFile(".jpg");
+			ImageIO.write(makeTypedImage(701, 997, type), "jpg", new File(file));
+			assertBandsMatch(file);
+		}
+	}
+
+	@Test
+	void hw5_66() throws Exception {
+		// a sized read, subsampled in the decoder or not, gives the whole image resized by copyAndResize
+		int[][] sizes = { { 150, 100 }, { 100, 50 }, { 30, 25 }, { 1, 1 }, { 299, 200 }, { 97, 61 }, { 600, 400 } };
+		for (String format : new String[] { "png", "jpg" }) {
+			String file = tempFile("." + format);
+			ImageIO.write(makeTypedImage(300, 200, BufferedImage.TYPE_INT_RGB), format, new File(file));
+			BufferedImage whole = FileURLIO.readImage(file);
+			for (int[] size : sizes) {
+				BufferedImage expected = ImageOps.copyAndResize(whole, size[0], size[1]);
+				compareImages(expected, FileURLIO.readImage(file, size[0], size[1]));
+				compareImages(expected, ImageOps.toBufferedImage(FileURLIO.readPlcImage(file, size[0], size[1])));
+			}
+		}
+	}
+
+	@Test
+	void hw5_67() throws Exception {
+		// a sized declaration from a file reads the image at that size
+		String source = """
+				image f(string s) <:
+				  image[75,50] i = s;
+				  ^i;
+				:>
+				""";
+		String file = tempFile(".png");
+		BufferedImage image = makeTestImage(300, 200);
+		ImageIO.write(image, "png", new File(file));
+		BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source, file);
+		compareImages(ImageOps.copyAndResize(image, 75, 50), result);
+	}
+
+	@Test
+	void hw5_68() throws Exception {
+		// a statement that reads the target of the one before it anywhere but at the pixel being
+		// assigned is not fused with it, since it would read pixels not yet computed
+		String[][] reads = { { "199 - x", "y" }, { "x", "99 - y" }, { "x + 1", "y" }, { "x - 1", "y" }, { "y", "x" } };
+		for (String[] read : reads) {
+			String source = String.format("""
+					image f() <:
+					  image[200,100] a;
+					  image[200,100] b;
+					  a[x,y] = [x %% 256, y, 7];
+					  b[x,y] = a[%s, %s];
+					  ^b;
+					:>
+					""", read[0], read[1]);
+			// the transpose is generated as an intrinsic instead of a loop
+			String javaCode = ComponentFactory.compile(source, packageName);
+			assertEquals(2, occurrences(javaCode, "for (int y") + occurrences(javaCode, "ImageOps.transposePixels("), source);
+			BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source);
+			for (int y = 0; y < 100; y++)
+				for (int x = 0; x < 200; x++) {
+					int[] from = switch (read[0] + "," + read[1]) {
+						case "199 - x,y" -> new int[] { 199 - x, y };
+						case "x,99 - y" -> new int[] { x, 99 - y };
+						case "x + 1,y" -> new int[] { x + 1, y };
+						case "x - 1,y" -> new int[] { x - 1, y };
+						default -> new int[] { y, x };
+					};
+					boolean inside = from[0] >= 0 && from[0] < 200 && from[1] >= 0 && from[1] < 100;
+					int expected = inside ? PixelOps.pack(from[0] % 256, from[1], 7) : PixelOps.pack(0, 0, 0);
+					assertEquals(expected, result.getRGB(x, y), source + " at [" + x + "," + y + "]");
+				}
+		}
+		// read at the pixel being assigned, the two are fused
+		String fused = """
+				image f() <:
+				  image[200,100] a;
+				  image[200,100] b;
+				  a[x,y] = [x % 256, y, 7];
+				  b[x,y] = a[x, y] + a[x, y];
+				  ^b;
+				:>
+				""";
+		assertEquals(1, occurrences(ComponentFactory.compile(fused, packageName), "for (int y"));
+		BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, fused);
+		assertEquals(PixelOps.pack(255, 198, 14), result.getRGB(150, 99));
+	}
+
+	@Test
+	void hw5_69() throws Exception {
+		// images only used inside a fused loop are kept in locals of the loop, and give the values
+		// the separate loops would
+		String source = """
+				image f() <:
+				  image[200,100] a;
+				  image[200,100] t;
+				  image[200,100] b;
+				  a[x,y] = [x % 256, y, 7];
+				  t[x,y] = a[x,y] / 2;
+				  b[x,y] = t[x,y] + t[x,y] + a[x,y];
+				  ^b;
+				:>
+				""";
+		String javaCode = ComponentFactory.compile(source, packageName);
+		assertEquals(1, occurrences(javaCode, "ImagePool.acquire("));
+		assertEquals(1, occurrences(javaCode, "for (int y"));
+		BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source);
+		for (int y = 0; y < 100; y++)
+			for (int x = 0; x < 200; x++) {
+				int red = x % 256;
+				assertEquals(PixelOps.pack(Math.min(255, red / 2 * 2 + red), Math.min(255, y / 2 * 2 + y), 3 * 2 + 7),
+						result.getRGB(x, y));
+			}
+		// an image read after the loop keeps its frame
+		String kept = source.replace("  ^b;", "  b[0,0] = [t[3,4]:red, t[3,4]:green, 0];\n  ^b;");
+		javaCode = ComponentFactory.compile(kept, packageName);
+		assertEquals(2, occurrences(javaCode, "ImagePool.acquire("));
+		result = (BufferedImage) PLCLangExec.runCode(packageName, kept);
+		assertEquals(PixelOps.pack(1, 2, 0), result.getRGB(0, 0));
+		assertEquals(PixelOps.pack(Math.min(255, 150 / 2 * 2 + 150), Math.min(255, 99 / 2 * 2 + 99), 13), result.getRGB(150, 99));
+	}
+
+	@Test
+	void hw5_70() throws Exception {
+		// a stencil split into an unchecked interior and checked border strips reads black outside
+		// the source image on every side, whatever the offsets and the sizes of the two images;
+		// each case is {source width, height, target width, height, dx1, dy1, dx2, dy2}
+		int[][] cases = { { 50, 40, 50, 40, -1, -2, 3, 1 }, { 50, 40, 50, 40, 0, 0, 1, 0 },
+				{ 50, 40, 50, 40, -2, -2, -1, -1 }, { 50, 40, 50, 40, 60, 0, 0, -45 },
+				{ 50, 40, 30, 20, -1, 1, 25, 22 }, { 50, 40, 70, 60, 1, -1, -1, 1 }, { 3, 2, 5, 4, -1, 0, 1, 1 } };
+		for (int[] c : cases) {
+			String source = String.format("""
+					image f() <:
+					  image[%d,%d] a;
+					  image[%d,%d] b;
+					  a[x,y] = [x, y, x + y];
+					  b[x,y] = a[x + %d, y + %d] / 2 + a[x + %d, y + %d] / 2;
+					  ^b;
+					:>
+					""", c[0], c[1], c[2], c[3], c[4], c[5], c[6], c[7]);
+			if (c == cases[0]) {
+				assertTrue(ComponentFactory.compile(source, packageName).contains("x$from"));
+			}
+			BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source);
+			for (int y = 0; y < c[3]; y++)
+				for (int x = 0; x < c[2]; x++) {
+					int red = 0, green = 0, blue = 0;
+					for (int k = 4; k < 8; k += 2) {
+						int sx = x + c[k];
+						int sy = y + c[k + 1];
+						if (sx >= 0 && sx < c[0] && sy >= 0 && sy < c[1]) {
+							red += sx / 2;
+							green += sy / 2;
+							blue += (sx + sy) / 2;
+						}
+					}
+					assertEquals(PixelOps.pack(red, green, blue), result.getRGB(x, y), source + " at [" + x + "," + y + "]");
+				}
+		}
+	}
+
+	@Test
+	void hw5_71() throws Exception {
+		// copies, transposes and channel extractions generated as intrinsics read black outside a
+		// source of another size, whether the sizes are known when compiling or not
+		String[] assignments = { "j[x,y] = s[x,y];", "j[x,y] = (s:green)[x,y];", "j[x,y] = s[y,x];",
+				"j[x,y] = [s[x,y]:red, 0, s[x,y]:blue];" };
+		int[][] sizes = { { 50, 10 }, { 10, 50 }, { 30, 20 }, { 20, 30 }, { 1, 1 } };
+		BufferedImage image = makeTestImage(30, 20);
+		for (int a = 0; a < assignments.length; a++) {
+			for (int[] size : sizes) {
+				String unknown = """
+						image f(image s, int w, int h) <:
+						  image[w,h] j;
+						  j[x,y] = [9, 9, 9];
+						  %s
+						  ^j;
+						:>
+						""".formatted(assignments[a]);
+				String known = """
+						image f(image i) <:
+						  image[30,20] s = i;
+						  image[%d,%d] j;
+						  j[x,y] = [9, 9, 9];
+						  %s
+						  ^j;
+						:>
+						""".formatted(size[0], size[1], assignments[a]);
+				BufferedImage[] results = { (BufferedImage) PLCLangExec.runCode(packageName, unknown, image, size[0], size[1]),
+						(BufferedImage) PLCLangExec.runCode(packageName, known, image) };
+				for (BufferedImage result : results) {
+					assertEquals(size[0], result.getWidth());
+					assertEquals(size[1], result.getHeight());
+					for (int y = 0; y < size[1]; y++)
+						for (int x = 0; x < size[0]; x++) {
+							int sx = a == 2 ? y : x;
+							int sy = a == 2 ? x : y;
+							int p = sx < 30 && sy < 20 ? image.getRGB(sx, sy) : PixelOps.pack(0, 0, 0);
+							int expected = switch (a) {
+								case 1 -> PixelOps.pack(0, PixelOps.green(p), 0);
+								case 3 -> PixelOps.pack(PixelOps.red(p), 0, PixelOps.blue(p));
+								default -> p;
+							};
+							assertEquals(expected, result.getRGB(x, y), assignments[a] + " " + size[0] + "x" + size[1]);
+						}
+				}
+			}
+		}
+	}
+
+	@Test
+	void hw5_72() throws Exception {
+		// dead image statements that may fail are kept, and ones that cannot are removed
+		String read = """
+				int f(string s) <:
+				  image unused = s;
+				  ^ 1;
+				:>
+				""";
+		Exception e = assertThrows(Exception.class, () -> PLCLangExec.runCode(packageName, read, "missing-file.png"));
+		Throwable cause = e;
+		while (cause != null && !(cause instanceof PLCRuntimeException)) {
+			cause = cause.getCause();
+		}
+		assertTrue(cause instanceof PLCRuntimeException, e.toString());
+		// adding images whose sizes are not known to be equal
+		String sum = """
+				int f(image a, image b) <:
+				  image unused = a + b;
+				  ^ 1;
+				:>
+				""";
+		assertThrows(Exception.class, () -> PLCLangExec.runCode(packageName, sum, makeTestImage(4, 3), makeTestImage(3, 4)));
+		assertEquals(1, PLCLangExec.runCode(packageName, sum, makeTestImage(4, 3), makeTestImage(4, 3)));
+		// images of constant sizes computed from nothing that can fail
+		String computed = """
+				int f() <:
+				  image[300,200] unused;
+				  unused[x,y] = [x, y, 0];
+				  image[300,200] other = unused / 2;
+				  ^ 1;
+				:>
+				""";
+		String javaCode = ComponentFactory.compile(computed, packageName);
+		assertFalse(javaCode.contains("unused"), javaCode);
+		assertFalse(javaCode.contains("ImagePool.acquire"), javaCode);
+		assertEquals(1, PLCLangExec.runCode(packageName, computed));
+	}
+
+	@Test
+	void hw5_73() throws Exception {
+		// image expressions give the same images whether the sizes of their operands are known when
+		// compiling or not
+		String[] bodies = { "^ a + b;", "^ a * 3 - b / 2;", "image g = b; g = a:green; ^ g;", "^ ? c -> a , b / 2;",
+				"image t = a - b; ^ t * 2;", "image[40,30] r; r = a / 3 + b; ^ r;",
+				"image[40,30] r; r[x,y] = a[x,y] + b[width a - x - 1, height a - y - 1]; ^ r;",
+				"image[20,10] r = a + b; ^ r;", "image[20,10] r; r = a:red; ^ r;" };
+		BufferedImage a = makeTestImage(40, 30);
+		BufferedImage b = makeTestImage(40, 30);
+		b.setRGB(7, 5, PixelOps.pack(200, 100, 50));
+		for (String body : bodies) {
+			String unknown = """
+					image f(image a, image b, boolean c) <:
+					  %s
+					:>
+					""".formatted(body);
+			String known = """
+					image f(image i, image k, boolean c) <:
+					  image[40,30] a = i;
+					  image[40,30] b = k;
+					  %s
+					:>
+					""".formatted(body);
+			for (boolean c : new boolean[] { true, false }) {
+				BufferedImage expected = (BufferedImage) PLCLangExec.runCode(packageName, unknown, a, b, c);
+				BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, known, a, b, c);
+				compareImages(expected, result);
+			}
+		}
+		// known sizes that differ are still reported when the program runs
+		String mismatch = """
+				image f() <:
+				  image[40,30] a;
+				  image[30,40] b;
+				  ^ a + b;
+				:>
+				""";
+		assertThrows(Exception.class, () -> PLCLangExec.runCode(packageName, mismatch));
+		String folded = """
+				int f() <:
+				  image[40,30] a;
+				  image t = a + a;
+				  ^ width t * 100 + height (t:blue);
+				:>
+				""";
+		assertEquals(4030, PLCLangExec.runCode(packageName, folded));
+		assertTrue(ComponentFactory.compile(folded, packageName).contains("((40 * 100) + 30)"));
+	}
+
+	@Test
+	void hw5_74() throws Exception {
+		// the PlcImage versions of the image operations give the same pixels as the BufferedImage ones
+		BufferedImage left = makeTestImage(37, 23);
+		BufferedImage right = makeTestImage(37, 23);
+		for (int y = 0; y < 23; y++)
+			for (int x = 0; x < 37; x++) {
+				left.setRGB(x, y, PixelOps.pack(x + 100, y + 1, x * y % 255 + 1));
+				right.setRGB(x, y, PixelOps.pack((x * 11) % 255 + 1, (y * 7) % 255 + 1, (x + y) % 3 + 1));
+			}
+		PlcImage plcLeft = ImageOps.toPlcImage(left);
+		PlcImage plcRight = ImageOps.toPlcImage(right);
+		int pixel = PixelOps.pack(3, 1, 200);
+		for (ImageOps.OP op : ImageOps.OP.values()) {
+			compareImages(ImageOps.binaryImageImageOp(op, left, right),
+					ImageOps.toBufferedImage(ImageOps.binaryImageImageOp(op, plcLeft, plcRight)));
+			compareImages(ImageOps.binaryImagePixelOp(op, left, pixel),
+					ImageOps.toBufferedImage(ImageOps.binaryImagePixelOp(op, plcLeft, pixel)));
+			compareImages(ImageOps.binaryImageScalarOp(op, left, 3),
+					ImageOps.toBufferedImage(ImageOps.binaryImageScalarOp(op, plcLeft, 3)));
+		}
+		compareImages(ImageOps.extractRed(left), ImageOps.toBufferedImage(ImageOps.extractRed(plcLeft)));
+		compareImages(ImageOps.extractGrn(left), ImageOps.toBufferedImage(ImageOps.extractGrn(plcLeft)));
+		compareImages(ImageOps.extractBlu(left), ImageOps.toBufferedImage(ImageOps.extractBlu(plcLeft)));
+		compareImages(ImageOps.copyAndResize(left, 50, 9), ImageOps.toBufferedImage(ImageOps.copyAndResize(plcLeft, 50, 9)));
+		assertThrows(PLCRuntimeException.class,
+				() -> ImageOps.binaryImageImageOp(ImageOps.OP.PLUS, plcLeft, ImageOps.toPlcImage(makeTestImage(23, 37))));
+	}
+
+	@Test
+	void hw5_75() throws Exception {
+		// converting keeps the alpha of images that have it, and an image without it stays opaque
+		BufferedImage argb = new BufferedImage(5, 4, BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < 4; y++)
+			for (int x = 0; x < 5; x++)
+				argb.setRGB(x, y, (x * 50) << 24 | PixelOps.pack(x, y, x + y) & 0xffffff);
+		PlcImage withAlpha = ImageOps.toPlcImage(argb);
+		assertTrue(withAlpha.hasAlpha());
+		BufferedImage back = ImageOps.toBufferedImage(withAlpha);
+		assertEquals(BufferedImage.TYPE_INT_ARGB, back.getType());
+		for (int y = 0; y < 4; y++)
+			for (int x = 0; x < 5; x++) {
+				assertEquals(argb.getRGB(x, y), withAlpha.getRGB(x, y));
+				assertEquals(argb.getRGB(x, y), back.getRGB(x, y));
+			}
+		PlcImage opaque = new PlcImage(5, 4);
+		assertFalse(opaque.hasAlpha());
+		opaque.setRGB(1, 2, 0x00123456);
+		assertEquals(0xff123456, opaque.getRGB(1, 2));
+		assertEquals(0xff000000, opaque.getRGB(0, 0));
+		assertEquals(0xff123456, opaque.getPixel(2 * 5 + 1));
+		assertEquals(BufferedImage.TYPE_INT_RGB, ImageOps.toBufferedImage(opaque).getType());
+		// an image passed to a program and returned unchanged keeps its pixels
+		String source = """
+				image f(image i) <:
+				  ^ i;
+				:>
+				""";
+		BufferedImage image = makeTestImage(8, 6);
+		compareImages(image, (BufferedImage) PLCLangExec.runCode(packageName, source, image));
+	}
+
+	@Test
+	void hw5_76() throws Exception {
+		// a program that streams its input image, a band of rows at a time, gives the same image as
+		// one that decodes the whole input first
+		BufferedImage image = makeTestImage(700, 1000);
+		String png = tempFile(".png");
+		ImageIO.write(image, "png", new File(png));
+		String raw = tempFile(".plcraw");
+		FileURLIO.writeRawImage(ImageOps.toPlcImage(image), raw);
+		String[] assignments = { "j[x,y] = i[x,y] / 2;", "j[x,y] = [i[x,y]:blue, i[x,y]:red, x + height i - y];",
+				"j[x,y] = ? i[x,y]:green > 64 -> i[x,y] , [0, 0, 255];" };
+		for (String assignment : assignments) {
+			String streamed = """
+					image f(string s) <:
+					  image i = s;
+					  image[width i, height i] j;
+					  %s
+					  ^j;
+					:>
+					""".formatted(assignment);
+			// assigning the input to itself makes it an ordinary image
+			String whole = streamed.replace("image i = s;", "image i = s; i = i;");
+			assertTrue(ComponentFactory.compile(streamed, packageName).contains("FileURLIO.openStreamedImage("));
+			assertFalse(ComponentFactory.compile(whole, packageName).contains("FileURLIO.openStreamedImage("));
+			BufferedImage expected = (BufferedImage) PLCLangExec.runCode(packageName, whole, png);
+			compareImages(expected, (BufferedImage) PLCLangExec.runCode(packageName, streamed, png));
+			compareImages(expected, (BufferedImage) PLCLangExec.runCode(packageName, streamed, raw));
+		}
+	}
+
+	@Test
+	void hw5_77() throws Exception {
+		// channel extractions that are consumed directly are read through a mask instead of being
+		// copied, and give the same pixels as the extracted images
+		BufferedImage image = makeTestImage(31, 17);
+		Map<String, IntUnaryOperator> bodies = new LinkedHashMap<>();
+		bodies.put("image[w,h] j; j[x,y] = (i:red)[x,y]; ^ j;", p -> PixelOps.pack(PixelOps.red(p), 0, 0));
+		bodies.put("image[w,h] j; j[x,y] = ((i:red):green)[x,y]; ^ j;", p -> PixelOps.pack(0, 0, 0));
+		bodies.put("^ (i:green) + (i:blue);", p -> PixelOps.pack(0, PixelOps.green(p), PixelOps.blue(p)));
+		bodies.put("^ (i:red) * 3;", p -> PixelOps.pack(3 * PixelOps.red(p), 0, 0));
+		bodies.put("^ i - (i:blue);", p -> PixelOps.pack(PixelOps.red(p), PixelOps.green(p), 0));
+		bodies.put("image[31,17] k = i; image[31,17] j; j = k:blue; ^ j;", p -> PixelOps.pack(0, 0, PixelOps.blue(p)));
+		bodies.put("image[w + (width (i:red)) - w, h] j; j = (i:green) / 2; ^ j;",
+				p -> PixelOps.pack(0, PixelOps.green(p) / 2, 0));
+		for (Map.Entry<String, IntUnaryOperator> body : bodies.entrySet()) {
+			String source = """
+					image f(image i, int w, int h) <:
+					  %s
+					:>
+					""".formatted(body.getKey());
+			String code = ComponentFactory.compile(source, packageName);
+			assertFalse(code.contains("ImageOps.extractRed(") || code.contains("ImageOps.extractGrn(")
+					|| code.contains("ImageOps.extractBlu("), code);
+			BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, source, image, 31, 17);
+			for (int y = 0; y < 17; y++)
+				for (int x = 0; x < 31; x++)
+					assertEquals(body.getValue().applyAsInt(image.getRGB(x, y)), result.getRGB(x, y), body.getKey());
+		}
+		// a masked read keeps an image streamable
+		String file = tempFile(".png");
+		ImageIO.write(image, "png", new File(file));
+		String streamed = """
+				image f(string s) <:
+				  image i = s;
+				  image[width i, height i] j;
+				  j[x,y] = (i:green)[x,y] + i[x,y];
+				  ^ j;
+				:>
+				""";
+		assertTrue(ComponentFactory.compile(streamed, packageName).contains("FileURLIO.openStreamedImage("));
+		BufferedImage result = (BufferedImage) PLCLangExec.runCode(packageName, streamed, file);
+		for (int y = 0; y < 17; y++)
+			for (int x = 0; x < 31; x++) {
+				int p = image.getRGB(x, y);
+				assertEquals(PixelOps.pack(PixelOps.red(p), 2 * PixelOps.green(p), PixelOps.blue(p)), result.getRGB(x, y));
+			}
+	}
+
 }
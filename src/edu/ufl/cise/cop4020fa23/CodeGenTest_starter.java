@@ -6,6 +6,10 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
@@ -16,8 +20,10 @@ import edu.ufl.cise.cop4020fa23.DynamicJavaCompileAndExecute.PLCLangExec;
 import edu.ufl.cise.cop4020fa23.ast.AST;
 import edu.ufl.cise.cop4020fa23.ast.Program;
 import edu.ufl.cise.cop4020fa23.ast.ASTVisitor;
+import edu.ufl.cise.cop4020fa23.exceptions.CompileAllException;
 import edu.ufl.cise.cop4020fa23.exceptions.LexicalException;
 import edu.ufl.cise.cop4020fa23.exceptions.PLCCompilerException;
+import edu.ufl.cise.cop4020fa23.exceptions.SyntaxException;
 import edu.ufl.cise.cop4020fa23.exceptions.TypeCheckException;
 import edu.ufl.cise.cop4020fa23.runtime.ConsoleIO;
 //import edu.ufl.cise.cop4020fa23.runtime.FileURLIO;
@@ -567,4 +573,211 @@ class CodeGenTest_starter {
 		assertEquals(15, (int)result);
 	}
 
+
+	@Test
+	void cg32() throws Exception {
+		// compileAll returns the code of each program in the order of the sources
+		List<String> sources = List.of(
+				"int one() <: ^1; :>",
+				"""
+				int twice(int x)
+				<:
+				  int y = x * 2;
+				  ^y;
+				:>
+				""",
+				"string hello() <: ^\"hello\"; :>");
+		List<String> javaCode = ComponentFactory.compileAll(sources, packageName);
+		assertEquals(3, javaCode.size());
+		Object[] params = {21};
+		byte[] byteCode = DynamicCompiler.compile(packageName + ".twice", javaCode.get(1));
+		Object result = DynamicClassLoader.loadClassAndRunMethod(byteCode, packageName + ".twice", "apply", params);
+		assertEquals(42, (int) result);
+		byteCode = DynamicCompiler.compile(packageName + ".hello", javaCode.get(2));
+		result = DynamicClassLoader.loadClassAndRunMethod(byteCode, packageName + ".hello", "apply", null);
+		assertEquals("hello", result);
+		assertEquals(ComponentFactory.compile(sources.get(0), packageName), javaCode.get(0));
+	}
+
+	@Test
+	void cg33() throws Exception {
+		// every failing source is reported in the order of the sources, however many errors it has
+		List<String> sources = List.of(
+				"int ok() <: ^1; :>",
+				"int bad() <: int a = ; ^1 + ; :>",
+				"int ok2() <: ^2; :>",
+				"int wrong() <: ^\"string\"; :>");
+		CompileAllException e = assertThrows(CompileAllException.class,
+				() -> ComponentFactory.compileAll(sources, packageName));
+		List<PLCCompilerException> failures = e.getFailures();
+		assertEquals(4, failures.size());
+		assertNull(failures.get(0));
+		assertInstanceOf(SyntaxException.class, failures.get(1));
+		assertEquals(2, ((SyntaxException) failures.get(1)).getErrors().size());
+		assertNull(failures.get(2));
+		assertInstanceOf(TypeCheckException.class, failures.get(3));
+		assertSame(failures.get(1), e.getCause());
+		assertEquals(ComponentFactory.compile(sources.get(2), packageName), e.getResults().get(2));
+		assertNull(e.getResults().get(1));
+	}
+
+	@Test
+	void cg34() throws Exception {
+		// a repeated division guarded by ?, && or || is not moved out of the guard
+		String conditional = """
+				int f(int k) <:
+				  int r = ? k == 0 -> 0 , 100 / k + 100 / k;
+				  ^r;
+				:>
+				""";
+		assertEquals(0, (int) PLCLangExec.runCode(packageName, conditional, 0));
+		assertEquals(40, (int) PLCLangExec.runCode(packageName, conditional, 5));
+		String and = """
+				boolean f(int k) <:
+				  boolean r = k > 0 && 100 / k + 100 / k > 3;
+				  ^r;
+				:>
+				""";
+		assertEquals(false, PLCLangExec.runCode(packageName, and, 0));
+		assertEquals(true, PLCLangExec.runCode(packageName, and, 10));
+		assertEquals(false, PLCLangExec.runCode(packageName, and, 100));
+		String or = """
+				boolean f(int k) <:
+				  boolean r = k == 0 || 100 / k + 100 / k > 3;
+				  ^r;
+				:>
+				""";
+		assertEquals(true, PLCLangExec.runCode(packageName, or, 0));
+		assertEquals(false, PLCLangExec.runCode(packageName, or, 100));
+	}
+
+	@Test
+	void cg35() throws Exception {
+		// a value computed outside the branches is shared with its occurrences inside them
+		String source = """
+				int f(int k) <:
+				  int r = 100 / (k + 1) + (? k > 0 -> 100 / (k + 1) , 1);
+				  ^r;
+				:>
+				""";
+		assertTrue(ComponentFactory.compile(source, packageName).contains("shared$"));
+		assertEquals(40, (int) PLCLangExec.runCode(packageName, source, 4));
+		assertEquals(101, (int) PLCLangExec.runCode(packageName, source, 0));
+		// one only inside both branches is computed in each
+		source = """
+				int f(int k) <:
+				  int r = ? k > 0 -> 100 / (k + 1) , 100 / (k + 1) + 1;
+				  ^r;
+				:>
+				""";
+		assertFalse(ComponentFactory.compile(source, packageName).contains("shared$"));
+		assertEquals(20, (int) PLCLangExec.runCode(packageName, source, 4));
+		assertEquals(101, (int) PLCLangExec.runCode(packageName, source, 0));
+	}
+
+	@Test
+	void cg36() throws Exception {
+		// a dead division that may fail is kept, so the program fails where it did; one by a nonzero
+		// constant is removed
+		String source = """
+				int f(int z) <:
+				  int unusedQuotient = 100 / z;
+				  int unusedRemainder = 100 % 7;
+				  ^ 1;
+				:>
+				""";
+		String javaCode = ComponentFactory.compile(source, packageName);
+		assertTrue(javaCode.contains("unusedQuotient"));
+		assertFalse(javaCode.contains("unusedRemainder"));
+		assertEquals(1, (int) PLCLangExec.runCode(packageName, source, 5));
+		Exception e = assertThrows(Exception.class, () -> PLCLangExec.runCode(packageName, source, 0));
+		Throwable cause = e;
+		while (cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		assertInstanceOf(ArithmeticException.class, cause);
+	}
+
+	@Test
+	void cg37() throws Exception {
+		// division and remainder by constants, reduced to shifts and multiplies, round toward zero
+		// like Java's for negative dividends too, whether the dividend is a variable or not
+		Map<String, IntUnaryOperator> expressions = new LinkedHashMap<>();
+		expressions.put("a / 2", a -> a / 2);
+		expressions.put("a % 2", a -> a % 2);
+		expressions.put("a / 8", a -> a / 8);
+		expressions.put("a % 8", a -> a % 8);
+		expressions.put("a / 3", a -> a / 3);
+		expressions.put("a % 3", a -> a % 3);
+		expressions.put("a / 7", a -> a / 7);
+		expressions.put("a % 7", a -> a % 7);
+		expressions.put("a / 10", a -> a / 10);
+		expressions.put("a % 10", a -> a % 10);
+		expressions.put("a / 1024", a -> a / 1024);
+		expressions.put("a % 1024", a -> a % 1024);
+		expressions.put("a / 1", a -> a);
+		expressions.put("a % 1", a -> 0);
+		expressions.put("(a - 1) / 4", a -> (a - 1) / 4);
+		expressions.put("(a - 1) % 4", a -> (a - 1) % 4);
+		expressions.put("(a * 3) / 5", a -> (a * 3) / 5);
+		expressions.put("(a * 3) % 5", a -> (a * 3) % 5);
+		int[] values = { Integer.MIN_VALUE, Integer.MIN_VALUE + 1, -1000001, -100, -9, -8, -7, -5, -4, -3, -2, -1,
+				0, 1, 2, 3, 7, 8, 9, 100, 1000001, Integer.MAX_VALUE };
+		for (Map.Entry<String, IntUnaryOperator> expression : expressions.entrySet()) {
+			String source = "int f(int a) <: ^ " + expression.getKey() + "; :>";
+			byte[] byteCode = DynamicCompiler.compile(packageName + ".f", ComponentFactory.compile(source, packageName));
+			for (int a : values) {
+				Object result = DynamicClassLoader.loadClassAndRunMethod(byteCode, packageName + ".f", "apply", new Object[] { a });
+				assertEquals(expression.getValue().applyAsInt(a), (int) result, expression.getKey() + " for a = " + a);
+			}
+		}
+	}
+
+	@Test
+	void cg38() throws Exception {
+		// exponentiation, unrolled or not, gives (int) Math.pow, also for zero and negative exponents
+		// and for results that do not fit an int
+		Map<String, IntUnaryOperator> expressions = new LinkedHashMap<>();
+		expressions.put("a ** 0", a -> (int) Math.pow(a, 0));
+		expressions.put("a ** 1", a -> (int) Math.pow(a, 1));
+		expressions.put("a ** 2", a -> (int) Math.pow(a, 2));
+		expressions.put("a ** 3", a -> (int) Math.pow(a, 3));
+		expressions.put("a ** 4", a -> (int) Math.pow(a, 4));
+		expressions.put("a ** 5", a -> (int) Math.pow(a, 5));
+		expressions.put("a ** -1", a -> (int) Math.pow(a, -1));
+		expressions.put("a ** -2", a -> (int) Math.pow(a, -2));
+		expressions.put("(a - 1) ** 0", a -> (int) Math.pow(a - 1, 0));
+		expressions.put("(a - 1) ** 2", a -> (int) Math.pow(a - 1, 2));
+		expressions.put("2 ** a", a -> (int) Math.pow(2, a));
+		expressions.put("(0 - 2) ** a", a -> (int) Math.pow(-2, a));
+		expressions.put("0 ** a", a -> (int) Math.pow(0, a));
+		expressions.put("1 ** a", a -> (int) Math.pow(1, a));
+		expressions.put("(0 - 1) ** a", a -> (int) Math.pow(-1, a));
+		int[] values = { Integer.MIN_VALUE, -46341, -1291, -31, -3, -2, -1, 0, 1, 2, 3, 7, 30, 31, 40, 215, 216, 1290,
+				46340, Integer.MAX_VALUE };
+		for (Map.Entry<String, IntUnaryOperator> expression : expressions.entrySet()) {
+			String source = "int f(int a) <: ^ " + expression.getKey() + "; :>";
+			byte[] byteCode = DynamicCompiler.compile(packageName + ".f", ComponentFactory.compile(source, packageName));
+			for (int a : values) {
+				Object result = DynamicClassLoader.loadClassAndRunMethod(byteCode, packageName + ".f", "apply", new Object[] { a });
+				assertEquals(expression.getValue().applyAsInt(a), (int) result, expression.getKey() + " for a = " + a);
+			}
+		}
+	}
+
+	@Test
+	void cg39() throws Exception {
+		// shadowed variables get their own Java locals, which Java would not let nested blocks share
+		String source = """
+				int f() <:
+				  int a = 1;
+				  <: int a = 10; a = a + 1; <: int a = 20; a = a * 3; :>; a = a * 2; :>;
+				  <: a = a + 100; int a = 5; a = a * 2; :>;
+				  <: int a = 7; :>;
+				  ^ a;
+				:>
+				""";
+		assertEquals(101, (int) PLCLangExec.runCode(packageName, source));
+	}
+
 }
@@ -1,8 +1,13 @@
 package edu.ufl.cise.cop4020fa23;
 
 import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 
 import edu.ufl.cise.cop4020fa23.ast.*;
@@ -23,9 +28,55 @@ import edu.ufl.cise.cop4020fa23.Kind;
 
 public class CodeGeneratorVisitor implements ASTVisitor {
 
+    // side of the square tiles of a pixel assignment that reads across rows; a tile of the target and
+    // the rows it reads from a source image together fit in a 32KB data cache
+    private static final int TILE_SIZE = 64;
+
     // helper vars
-    private Map<String, Integer> variableCounts = new HashMap<>();
-    private SymbolTable symbolTable = new SymbolTable();
+    private final CompilationContext context;
+    private final Map<String, Integer> variableCounts;
+    private final SymbolTable symbolTable;
+    // image shapes known at compile time, computed at the start of visitProgram
+    private ShapeInferenceVisitor shapes = new ShapeInferenceVisitor();
+    // images decoded a band at a time, computed at the start of visitProgram
+    private StreamableImageAnalysis streams = new StreamableImageAnalysis();
+    // loop order of pixel assignments, computed at the start of visitProgram
+    private PixelLoopOrder loopOrder = new PixelLoopOrder(shapes, streams);
+    // runs of pixel assignments generated as one loop, computed at the start of visitProgram
+    private PixelLoopFusion fusion = new PixelLoopFusion(shapes, loopOrder);
+    // pixel assignments generated as a call of a runtime intrinsic, computed at the start of visitProgram
+    private PixelIdioms idioms = new PixelIdioms(streams, fusion);
+    // image declarations whose read was started at program entry, and the PendingImage holding it
+    private final Map<NameDef, String> pendingReads = new IdentityHashMap<>();
+    // pixel reads known to be in bounds while the interior of a split pixel loop is generated, else null
+    private Set<PostfixExpr> uncheckedReads;
+    // fields of the generated class holding the kernels of convolve expressions, and their names
+    private StringBuilder kernelFields = new StringBuilder();
+    private final Map<ConvolveExpr, String> kernelNames = new IdentityHashMap<>();
+    // image temporaries of the statement being generated, declared before it and released after
+    // it; null where subexpressions must stay in place, such as in loops and conditionals
+    private StringBuilder tempDeclarations;
+    private List<String> tempNames;
+    private int tempCount;
+    // true once a write statement with a destination file has been generated
+    private boolean writesFiles;
+    // subexpressions of the statement being generated that occur more than once, each replaced by
+    // the local holding its value
+    private final Map<Expr, String> sharedValues = new IdentityHashMap<>();
+    // pixel reads im[x,y] and im[x,y]:color of the statement whose pixel, read more than once, is a local
+    private final Map<PostfixExpr, String> sharedReads = new IdentityHashMap<>();
+    private int sharedCount;
+
+
+    public CodeGeneratorVisitor() {
+        this(new CompilationContext());
+    }
+
+    CodeGeneratorVisitor(CompilationContext context) {
+        this.context = context;
+        this.variableCounts = context.variableCounts;
+        this.symbolTable = context.symbolTable;
+    }
 
 
     /* ================================= MOKSH  ================================= */
@@ -40,16 +91,43 @@ public class CodeGeneratorVisitor implements ASTVisitor {
         Type returnType = program.getType();
         String javaReturnType = getJavaType(returnType);
 
+        shapes = new ShapeInferenceVisitor();
+        program.visit(shapes, null);
+        streams = new StreamableImageAnalysis();
+        program.visit(streams, null);
+        loopOrder = new PixelLoopOrder(shapes, streams);
+        program.visit(loopOrder, null);
+        fusion = new PixelLoopFusion(shapes, loopOrder);
+        program.visit(fusion, null);
+        idioms = new PixelIdioms(streams, fusion);
+        program.visit(idioms, null);
+        tempDeclarations = null;
+        tempNames = null;
+        tempCount = 0;
+        writesFiles = false;
+        sharedCount = 0;
+        kernelFields = new StringBuilder();
+        kernelNames.clear();
+
         String packageName = "edu.ufl.cise.cop4020fa23";
         code.append(String.format("package %s;\n", packageName));
         code.append("import edu.ufl.cise.cop4020fa23.runtime.ConsoleIO;\n");
         code.append("import edu.ufl.cise.cop4020fa23.runtime.PixelOps;\n");
         code.append("import edu.ufl.cise.cop4020fa23.runtime.ImageOps;\n");
-        code.append("import java.awt.image.BufferedImage;\n");
+        code.append("import edu.ufl.cise.cop4020fa23.runtime.PlcImage;\n");
+        code.append("import edu.ufl.cise.cop4020fa23.runtime.StreamedImage;\n");
+        code.append("import edu.ufl.cise.cop4020fa23.runtime.PendingImage;\n");
+        code.append("import edu.ufl.cise.cop4020fa23.runtime.ImagePool;\n");
+        code.append("import edu.ufl.cise.cop4020fa23.runtime.ConvolutionKernel;\n");
         code.append("import edu.ufl.cise.cop4020fa23.runtime.FileURLIO;\n");
 
         StringBuilder params = new StringBuilder();
+        // images cross the boundary of apply as BufferedImage and are PlcImage inside
+        StringBuilder boundaryParams = new StringBuilder();
+        StringBuilder boundaryArgs = new StringBuilder();
+        boolean imageBoundary = returnType == Type.IMAGE;
         Map<String, String> paramMap = new HashMap<>();
+        symbolTable.enterScope();
         for (NameDef param : program.getParams()) {
             String originalName = param.getName();
             String paramName = isReservedKeyword(originalName) ? "param_" + originalName : originalName;
@@ -57,13 +135,58 @@ public class CodeGeneratorVisitor implements ASTVisitor {
             String paramCode = String.format("%s %s", paramType, paramName);
             if (params.length() > 0) params.append(", ");
             params.append(paramCode);
+            if (boundaryParams.length() > 0) {
+                boundaryParams.append(", ");
+                boundaryArgs.append(", ");
+            }
+            if (param.getType() == Type.IMAGE) {
+                imageBoundary = true;
+                boundaryParams.append("java.awt.image.BufferedImage ").append(paramName);
+                boundaryArgs.append("ImageOps.toPlcImage(").append(paramName).append(")");
+            } else {
+                boundaryParams.append(paramCode);
+                boundaryArgs.append(paramName);
+            }
 
             paramMap.put(originalName, paramName);
+            param.setJavaName(paramName);
+            try {
+                symbolTable.insert(param);
+            } catch (TypeCheckException e) {
+                System.err.println("Type check exception: " + e.getMessage());
+            }
         }
-        String blockCode = (String) program.getBlock().visit(this, paramMap);
+        String hoistedReads = hoistImageReads(program, paramMap);
+        String blockCode = hoistedReads + program.getBlock().visit(this, paramMap);
+        symbolTable.leaveScope();
 
         code.append(String.format("public class %s {\n", className));
-        code.append(String.format("    public static %s apply(%s) {\n", javaReturnType, params));
+        code.append(kernelFields);
+        if (imageBoundary || writesFiles) {
+            String call = String.format("run(%s)", boundaryArgs);
+            String callStatement;
+            if (returnType == Type.IMAGE) {
+                code.append(String.format("    public static java.awt.image.BufferedImage apply(%s) {\n", boundaryParams));
+                callStatement = String.format("return ImageOps.toBufferedImage(%s);\n", call);
+            } else if (returnType == Type.VOID) {
+                code.append(String.format("    public static void apply(%s) {\n", boundaryParams));
+                callStatement = String.format("%s;\n", call);
+            } else {
+                code.append(String.format("    public static %s apply(%s) {\n", javaReturnType, boundaryParams));
+                callStatement = String.format("return %s;\n", call);
+            }
+            if (writesFiles) {
+                // images are written on background threads, so wait for the files to be complete
+                code.append("        try {\n            ").append(callStatement)
+                        .append("        } finally {\n            FileURLIO.awaitWrites();\n        }\n");
+            } else {
+                code.append("        ").append(callStatement);
+            }
+            code.append("    }\n");
+            code.append(String.format("    private static %s run(%s) {\n", javaReturnType, params));
+        } else {
+            code.append(String.format("    public static %s apply(%s) {\n", javaReturnType, params));
+        }
         code.append(blockCode);
         code.append("    }\n");
         code.append("}\n");
@@ -73,13 +196,42 @@ public class CodeGeneratorVisitor implements ASTVisitor {
 
 
 
+    // starts the reads of images loaded by the program at entry, so they are decoded concurrently;
+    // the declarations then wait for their image.  Worth it only with more than one image to read.
+    private String hoistImageReads(Program program, Object arg) throws PLCCompilerException {
+        pendingReads.clear();
+        HoistableImageReads hoistable = new HoistableImageReads();
+        program.visit(hoistable, null);
+        List<Declaration> declarations = hoistable.getDeclarations().stream()
+                .filter(declaration -> !streams.isStreamed(declaration.getNameDef()))
+                .toList();
+        if (declarations.size() < 2) {
+            return "";
+        }
+        StringBuilder code = new StringBuilder();
+        for (Declaration declaration : declarations) {
+            // $ cannot occur in a PLC name, so this does not clash with a program variable
+            String pendingName = "pending$" + pendingReads.size();
+            String sourceCode = (String) declaration.getInitializer().visit(this, arg);
+            ShapeInferenceVisitor.Shape shape = shapes.shapeOf(declaration.getNameDef());
+            if (declaration.getNameDef().getDimension() != null && shape != null) {
+                // the size is known at entry, so the image can be decoded at that size
+                sourceCode += ", " + shape.width() + ", " + shape.height();
+            }
+            code.append(String.format("PendingImage %s = FileURLIO.readImageAsync(%s);\n", pendingName, sourceCode));
+            pendingReads.put(declaration.getNameDef(), pendingName);
+        }
+        return code.toString();
+    }
+
+
     private String getJavaType(Type type) {
         return switch (type) {
             case BOOLEAN -> "boolean";
             case INT -> "int";
             case STRING -> "String";
             case PIXEL -> "int";
-            case IMAGE -> "java.awt.image.BufferedImage";
+            case IMAGE -> "PlcImage";
             default -> type.toString().toLowerCase();
         };
     }
@@ -108,10 +260,35 @@ public class CodeGeneratorVisitor implements ASTVisitor {
     public Object visitBlock(Block block, Object arg) throws PLCCompilerException {
         StringBuilder code = new StringBuilder();
         code.append("{\n");
-        for (Block.BlockElem blockElem : block.getElems()) {
-            String blockElemCode = (String) blockElem.visit(this, arg);
+        symbolTable.enterScope();
+        // image frames go back to the pool after the last use of their variable
+        Map<Integer, List<NameDef>> deadAfter = new ImageLiveness().deadAfter(block);
+        List<Block.BlockElem> elems = block.getElems();
+        // streamed images declared in the block, closed in a finally when the block is left
+        List<String> streamed = new ArrayList<>();
+        for (int i = 0; i < elems.size(); ) {
+            int runLength = fusion.runLength(elems.get(i));
+            String blockElemCode = runLength > 1 ? fusedPixelAssignments(elems.subList(i, i + runLength), arg)
+                    : (String) elems.get(i).visit(this, arg);
             code.append(blockElemCode);
+            for (int end = i + runLength; i < end; i++) {
+                if (elems.get(i) instanceof Declaration declaration && streams.isStreamed(declaration.getNameDef())) {
+                    streamed.add(declaration.getNameDef().getJavaName());
+                    code.append("try {\n");
+                }
+                for (NameDef dead : deadAfter.getOrDefault(i, List.of())) {
+                    if (streams.isStreamed(dead)) {
+                        code.append(dead.getJavaName()).append(".close();\n");
+                    } else if (!fusion.isScalarized(dead)) {
+                        code.append("ImagePool.release(").append(dead.getJavaName()).append(");\n");
+                    }
+                }
+            }
+        }
+        for (int i = streamed.size() - 1; i >= 0; i--) {
+            code.append("} finally {\n").append(streamed.get(i)).append(".close();\n}\n");
         }
+        symbolTable.leaveScope();
         code.append("}\n");
         return code.toString();
     }
@@ -156,38 +333,173 @@ public class CodeGeneratorVisitor implements ASTVisitor {
         NameDef nameDef = declaration.getNameDef();
         String originalName = nameDef.getName();
         String scopedName = originalName;
-        if (symbolTable.isDefinedInCurrentScope(originalName)) {
+        // Java does not allow a local to shadow another local or a parameter, so rename
+        // any declaration that hides a name still visible from an enclosing scope
+        if (symbolTable.lookup(originalName) != null) {
             scopedName = generateUniqueName(originalName);
-        } else {
-            try {
-                symbolTable.insert(nameDef);
-            } catch (TypeCheckException e) {
-                System.err.println("Type check exception: " + e.getMessage());
-            }
+        }
+        try {
+            symbolTable.insert(nameDef);
+        } catch (TypeCheckException e) {
+            System.err.println("Type check exception: " + e.getMessage());
+        }
+        nameDef.setJavaName(scopedName);
+        Expr initializer = declaration.getInitializer();
+        if (streams.isStreamed(nameDef)) {
+            String sourceCode = (String) initializer.visit(this, arg);
+            return String.format("StreamedImage %s = FileURLIO.openStreamedImage(%s);\n", scopedName, sourceCode);
+        }
+        if (fusion.isScalarized(nameDef)) {
+            // only its pixel is used, in the loop of its run
+            return "";
         }
         String nameDefCode = String.format("%s %s", getJavaType(nameDef.getType()), scopedName);
         code.append(nameDefCode);
-        Expr initializer = declaration.getInitializer();
+
+        beginTemps();
+        if (nameDef.getType() == Type.IMAGE) {
+            code.append(imageInitializer(nameDef, initializer, arg));
+        } else if (initializer != null) {
+            String exprCode = sharedCode(initializer, tempDeclarations, arg);
+            code.append(" = ").append(exprCode);
+        }
+        code.append(";\n");
+        return endTemps(code.toString());
+    }
+
+
+    private void beginTemps() {
+        tempDeclarations = new StringBuilder();
+        tempNames = new ArrayList<>();
+    }
+
+
+    // statementCode preceded by the temporaries it uses and followed by their release
+    private String endTemps(String statementCode) {
+        StringBuilder code = new StringBuilder(tempDeclarations).append(statementCode);
+        for (String tempName : tempNames) {
+            code.append("ImagePool.release(").append(tempName).append(");\n");
+        }
+        tempDeclarations = null;
+        tempNames = null;
+        return code.toString();
+    }
+
+
+    // code for an operand; an image computed by the operand is moved into a temporary of the
+    // statement, so its frame goes back to the pool once the statement has used it
+    private String operandCode(Expr expr, Object arg) throws PLCCompilerException {
+        String code = (String) expr.visit(this, arg);
+        if (tempDeclarations == null || expr.getType() != Type.IMAGE || !isFreshImage(expr)) {
+            return code;
+        }
+        // $ cannot occur in a PLC name, so this does not clash with a program variable
+        String tempName = "temp$" + tempCount++;
+        tempDeclarations.append(String.format("PlcImage %s = %s;\n", tempName, code));
+        tempNames.add(tempName);
+        return tempName;
+    }
+
+
+    // code for expr, using locals for the subexpressions found by CommonSubexpressions; the locals
+    // are declared in declarations, which must come right before the code.  $ cannot occur in a PLC
+    // name, so they do not clash with program variables
+    private String sharedCode(Expr expr, StringBuilder declarations, Object arg) throws PLCCompilerException {
+        List<Expr> shared = new ArrayList<>();
+        try {
+            for (CommonSubexpressions.Value value : new CommonSubexpressions().find(expr)) {
+                Expr first = value.occurrences().get(0);
+                String valueCode = value.pixelRead() ? pixelRead((PostfixExpr) first, arg) : (String) first.visit(this, arg);
+                String name = "shared$" + sharedCount++;
+                declarations.append(String.format("%s %s = %s;\n",
+                        value.pixelRead() ? "int" : getJavaType(first.getType()), name, valueCode));
+                for (Expr occurrence : value.occurrences()) {
+                    if (value.pixelRead()) {
+                        sharedReads.put((PostfixExpr) occurrence, name);
+                    } else {
+                        sharedValues.put(occurrence, name);
+                    }
+                    shared.add(occurrence);
+                }
+            }
+            return (String) expr.visit(this, arg);
+        } finally {
+            // the same expression may be generated again, as in the two bodies of split loops
+            sharedValues.keySet().removeAll(shared);
+            sharedReads.keySet().removeAll(shared);
+        }
+    }
+
+
+    // initializer of an image declaration; sized images are allocated here even without one
+    private String imageInitializer(NameDef nameDef, Expr initializer, Object arg) throws PLCCompilerException {
         Dimension dimension = nameDef.getDimension();
+        ShapeInferenceVisitor.Shape shape = shapes.shapeOf(nameDef);
+        // an image initializer that has to be resized is a temporary, released once it is copied
+        boolean resized = dimension != null && initializer != null && initializer.getType() == Type.IMAGE
+                && !(shape != null && shape.equals(shapes.shapeOf(initializer)));
+        String pendingName = pendingReads.get(nameDef);
+        // a read started at program entry stands for the initializer, which is then not generated
+        String exprCode = initializer == null || pendingName != null ? null
+                : resized ? operandCode(initializer, arg) : (String) initializer.visit(this, arg);
+        if (dimension == null) {
+            if (initializer == null) {
+                return "";
+            }
+            if (pendingName != null) {
+                return " = " + pendingName + ".get()";
+            }
+            if (initializer.getType() == Type.STRING) {
+                return " = FileURLIO.readPlcImage(" + exprCode + ")";
+            }
+            return " = " + (isFreshImage(initializer) ? exprCode : "ImageOps.cloneImage(" + exprCode + ")");
+        }
 
-        if (initializer != null) {
-            String exprCode = (String) initializer.visit(this, arg);
-            if (nameDef.getType() == Type.IMAGE) {
-                if (dimension != null) {
-                    code.append(" = ImageOps.copyAndResize(").append(exprCode)
-                            .append(", ").append(dimension.getWidth().visit(this, arg))
-                            .append(", ").append(dimension.getHeight().visit(this, arg)).append(")");
-                } else if (initializer.getType() == Type.STRING) {
-                    code.append(" = FileURLIO.readImage(").append(exprCode).append(")");
-                } else {
-                    code.append(" = ").append(exprCode);
+        String width = shape != null ? Integer.toString(shape.width()) : (String) dimension.getWidth().visit(this, arg);
+        String height = shape != null ? Integer.toString(shape.height()) : (String) dimension.getHeight().visit(this, arg);
+        if (initializer == null) {
+            return " = ImagePool.acquire(" + width + ", " + height + ")";
+        }
+        if (pendingName != null) {
+            return " = " + pendingName + ".get(" + width + ", " + height + ")";
+        }
+        return switch (initializer.getType()) {
+            case STRING -> " = FileURLIO.readPlcImage(" + exprCode + ", " + width + ", " + height + ")";
+            case PIXEL -> " = ImageOps.setAllPixels(ImagePool.acquire(" + width + ", " + height + "), " + exprCode + ")";
+            default -> {
+                // no resize needed when the initializer is already the declared size
+                if (!resized) {
+                    yield " = " + (isFreshImage(initializer) ? exprCode : "ImageOps.cloneImage(" + exprCode + ")");
                 }
-            } else {
-                code.append(" = ").append(exprCode);
+                yield " = ImageOps.copyAndResize(" + exprCode + ", " + width + ", " + height + ")";
             }
+        };
+    }
+
+
+    // true if evaluating expr allocates a new image, so the result does not need to be copied
+    private boolean isFreshImage(Expr expr) {
+        if (expr instanceof BinaryExpr) {
+            return expr.getType() == Type.IMAGE;
         }
-        code.append(";");
-        return code.toString();
+        if (expr instanceof PostfixExpr) {
+            PostfixExpr postfixExpr = (PostfixExpr) expr;
+            return postfixExpr.pixel() == null && postfixExpr.channel() != null;
+        }
+        if (expr instanceof ConvolveExpr) {
+            return true;
+        }
+        if (expr instanceof ConditionalExpr) {
+            ConditionalExpr conditionalExpr = (ConditionalExpr) expr;
+            return isFreshImage(conditionalExpr.getTrueExpr()) && isFreshImage(conditionalExpr.getFalseExpr());
+        }
+        return false;
+    }
+
+
+    // an int assigned to a pixel sets all three channels
+    private String greyPixel(String intCode) {
+        return "PixelOps.pack(" + intCode + ", " + intCode + ", " + intCode + ")";
     }
 
 
@@ -268,32 +580,337 @@ public class CodeGeneratorVisitor implements ASTVisitor {
         Expr expr = assignmentStatement.getE();
 
         String lValueCode = (String) lValue.visit(this, arg);
-        Type lValueType = lValue.getType();
+        Type varType = lValue.getNameDef() != null ? lValue.getVarType() : lValue.getType();
+
+        if (varType == Type.IMAGE && idioms.idiomOf(assignmentStatement) != null) {
+            return idiomCall(idioms.idiomOf(assignmentStatement), lValueCode, expr, arg);
+        } else if (varType == Type.IMAGE && lValue.getPixelSelector() != null) {
+            // the right side is evaluated for every pixel, so no temporaries are moved out of the loops
+            return pixelAssignment(lValue, lValueCode, expr,
+                    loopOrder.isRowOrder(assignmentStatement), loopOrder.isTiled(assignmentStatement), arg);
+        } else if (varType == Type.IMAGE && lValue.getChannelSelector() != null) {
+            throw new PLCCompilerException("Assignment to a channel of a whole image is not supported: " + lValue.getName());
+        }
 
-        if (lValueType == Type.IMAGE) {
-            if (expr instanceof BinaryExpr && ((BinaryExpr) expr).getLeftExpr().getType() == Type.IMAGE) {
-                String exprCode = (String) expr.visit(this, arg);
-                sb.append(exprCode);
+        beginTemps();
+        if (varType == Type.IMAGE) {
+            sb.append(imageAssignment(lValue, lValueCode, expr, arg));
+        } else {
+            String exprCode = sharedCode(expr, tempDeclarations, arg);
+            if (varType == Type.PIXEL && lValue.getChannelSelector() != null) {
+                sb.append(String.format("%s = %s;\n", lValueCode,
+                        setChannel(lValue.getChannelSelector(), lValueCode, exprCode)));
+            } else if (varType == Type.PIXEL && expr.getType() == Type.INT) {
+                sb.append(String.format("%s = %s;\n", lValueCode, greyPixel(exprCode)));
             } else {
-                String exprCode = (String) expr.visit(this, arg);
                 sb.append(String.format("%s = %s;\n", lValueCode, exprCode));
             }
         }
+        return endTemps(sb.toString());
+    }
 
-        else {
+
+    // whole image assignment; the target keeps its size, so values are copied into it
+    private String imageAssignment(LValue lValue, String imageName, Expr expr, Object arg) throws PLCCompilerException {
+        ShapeInferenceVisitor.Shape shape = shapes.shapeOf(lValue.getNameDef());
+        boolean direct = shape != null && shape.equals(shapes.shapeOf(expr))
+                && (expr instanceof BinaryExpr && ((BinaryExpr) expr).getLeftExpr().getType() == Type.IMAGE
+                || channelSource(expr) != null || expr instanceof ConvolveExpr);
+        // a computed image that is copied into the target is a temporary
+        String exprCode = direct ? null : operandCode(expr, arg);
+        if (expr.getType() == Type.PIXEL) {
+            return String.format("ImageOps.setAllPixels(%s, %s);\n", imageName, exprCode);
+        }
+        if (expr.getType() == Type.STRING) {
+            String source = shape == null ? "FileURLIO.readPlcImage(" + exprCode + ")"
+                    : "FileURLIO.readPlcImage(" + exprCode + ", " + shape.width() + ", " + shape.height() + ")";
+            return String.format("ImageOps.copyInto(%s, %s);\n", source, imageName);
+        }
+        if (shape == null || !shape.equals(shapes.shapeOf(expr))) {
+            return String.format("ImageOps.copyInto(%s, %s);\n", exprCode, imageName);
+        }
+        // same shape: write an image operation or channel extraction straight into the target
+        // instead of a temporary
+        if (direct && expr instanceof BinaryExpr) {
+            return imageOperation((BinaryExpr) expr, imageName, arg) + ";\n";
+        }
+        if (direct && expr instanceof ConvolveExpr) {
+            return convolution((ConvolveExpr) expr, imageName, arg) + ";\n";
+        }
+        if (direct) {
+            return String.format("ImageOps.extractChannel(%s, %s, %s);\n",
+                    operandCode(channelSource(expr), arg), channelMask(expr), imageName);
+        }
+        return String.format("ImageOps.copyIntoSameSize(%s, %s);\n", exprCode, imageName);
+    }
+
+
+    // a pixel assignment recognized by PixelIdioms, as a call of the intrinsic that computes it
+    private String idiomCall(PixelIdioms.Idiom idiom, String imageName, Expr expr, Object arg) throws PLCCompilerException {
+        if (idiom.operation() == PixelIdioms.Operation.FILL) {
+            // the value is the same at every pixel, so it is computed once
             String exprCode = (String) expr.visit(this, arg);
-            sb.append(String.format("%s = %s;\n", lValueCode, exprCode));
+            return String.format("ImageOps.setAllPixels(%s, %s);\n", imageName,
+                    expr.getType() == Type.INT ? greyPixel(exprCode) : exprCode);
+        }
+        Expr source = idiom.source();
+        List<String> masks = new ArrayList<>();
+        if (channelSource(source) != null) {
+            masks.add("(" + channelMask(source) + ")");
+            source = channelSource(source);
+        }
+        if (idiom.channels() != null) {
+            List<String> channels = new ArrayList<>();
+            for (Kind color : idiom.channels()) {
+                channels.add(switch (color) {
+                    case RES_red -> "PixelOps.SELECT_RED";
+                    case RES_green -> "PixelOps.SELECT_GREEN";
+                    default -> "PixelOps.SELECT_BLUE";
+                });
+            }
+            masks.add("(" + String.join(" | ", channels) + ")");
+        }
+        String mask = masks.isEmpty() ? "ImageOps.ALL_CHANNELS" : String.join(" & ", masks);
+        String method = idiom.operation() == PixelIdioms.Operation.COPY ? "copyPixels" : "transposePixels";
+        return String.format("ImageOps.%s(%s, %s, %s);\n", method, source.visit(this, arg), mask, imageName);
+    }
+
+
+    // im[x,y] = e, where each coordinate that is an implicitly declared variable ranges over the image,
+    // or over the part of it inside the lvalue's region; rowOrder puts the y loop outside, so that pixels are written in the order they are stored and a
+    // streamed image on the right is read top to bottom, and tiled visits TILE_SIZE square tiles
+    private String pixelAssignment(LValue lValue, String imageName, Expr expr, boolean rowOrder,
+                                   boolean tiled, Object arg) throws PLCCompilerException {
+        PixelSelector pixelSelector = lValue.getPixelSelector();
+        String xCode = (String) pixelSelector.xExpr().visit(this, arg);
+        String yCode = (String) pixelSelector.yExpr().visit(this, arg);
+        String xLoop = loopVariable(pixelSelector.xExpr());
+        String yLoop = loopVariable(pixelSelector.yExpr());
+        if (yLoop != null && yLoop.equals(xLoop)) {
+            yLoop = null;
         }
 
+        // values used more than once by the right side are computed once per pixel
+        StringBuilder shared = new StringBuilder();
+        String exprCode = sharedCode(expr, shared, arg);
+        String pixelCode = pixelValue(lValue, imageName, xCode, yCode, expr, exprCode);
+
+        ShapeInferenceVisitor.Shape shape = shapes.shapeOf(lValue.getNameDef());
+        String width = shape != null ? Integer.toString(shape.width()) : imageName + ".getWidth()";
+        String height = shape != null ? Integer.toString(shape.height()) : imageName + ".getHeight()";
+
+        Region region = lValue.getRegion();
+        if (rowOrder && !tiled && xLoop != null && yLoop != null && shape != null && region == null) {
+            NeighborhoodReads reads = new NeighborhoodReads(shapes, xLoop, yLoop);
+            reads.add(expr);
+            int[] interior = reads.interior(shape.width(), shape.height());
+            if (interior != null) {
+                String checkedBody = shared + String.format("%s.setRGB(%s, %s, %s);\n", imageName, xCode, yCode, pixelCode);
+                StringBuilder uncheckedShared = new StringBuilder();
+                String uncheckedExprCode = uncheckedCode(expr, reads, uncheckedShared, arg);
+                String uncheckedBody = uncheckedShared + String.format("%s.setRGB(%s, %s, %s);\n", imageName, xCode, yCode,
+                        pixelValue(lValue, imageName, xCode, yCode, expr, uncheckedExprCode));
+                return splitLoops(xLoop, yLoop, shape, interior, checkedBody, uncheckedBody);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        String xStart = "0";
+        String yStart = "0";
+        String xStop = width;
+        String yStop = height;
+        if (region != null) {
+            // the region clipped to the image, computed once before the loops; $ cannot occur in a PLC
+            // name, so these do not clash with program variables
+            xStart = xLoop + "$start";
+            yStart = yLoop + "$start";
+            xStop = xLoop + "$stop";
+            yStop = yLoop + "$stop";
+            sb.append("{\n");
+            sb.append(String.format("int %s = %s;\n", xStart, region.getX().visit(this, arg)));
+            sb.append(String.format("int %s = %s;\n", yStart, region.getY().visit(this, arg)));
+            sb.append(String.format("int %s = (int) Math.min((long) %s + %s, %s);\n", xStop, xStart, region.getWidth().visit(this, arg), width));
+            sb.append(String.format("int %s = (int) Math.min((long) %s + %s, %s);\n", yStop, yStart, region.getHeight().visit(this, arg), height));
+            sb.append(String.format("%1$s = Math.max(%1$s, 0);\n%2$s = Math.max(%2$s, 0);\n", xStart, yStart));
+        }
+        String xFor = xLoop == null ? "" : String.format("for (int %1$s = %2$s; %1$s < %3$s; %1$s++) {\n", xLoop, xStart, xStop);
+        String yFor = yLoop == null ? "" : String.format("for (int %1$s = %2$s; %1$s < %3$s; %1$s++) {\n", yLoop, yStart, yStop);
+        if (tiled && xLoop != null && yLoop != null) {
+            // $ cannot occur in a PLC name, so the tile variables do not clash with program variables
+            sb.append(tileLoop(yLoop + "$tile", yStart, yStop)).append(tileLoop(xLoop + "$tile", xStart, xStop));
+            xFor = String.format("for (int %1$s = %1$s$tile, %1$s$end = Math.min(%1$s$tile + %2$d, %3$s); %1$s < %1$s$end; %1$s++) {\n",
+                    xLoop, TILE_SIZE, xStop);
+            yFor = String.format("for (int %1$s = %1$s$tile, %1$s$end = Math.min(%1$s$tile + %2$d, %3$s); %1$s < %1$s$end; %1$s++) {\n",
+                    yLoop, TILE_SIZE, yStop);
+        }
+        sb.append(rowOrder ? yFor : xFor).append(rowOrder ? xFor : yFor).append(shared);
+        if (xLoop != null && yLoop != null) {
+            // both coordinates are loop variables, so they stay in bounds
+            sb.append(String.format("%s.setRGB(%s, %s, %s);\n", imageName, xCode, yCode, pixelCode));
+        } else {
+            sb.append(String.format("ImageOps.setRGB(%s, %s, %s, %s);\n", imageName, xCode, yCode, pixelCode));
+        }
+        if (yLoop != null) {
+            sb.append("}\n");
+        }
+        if (xLoop != null) {
+            sb.append("}\n");
+        }
+        if (tiled && xLoop != null && yLoop != null) {
+            sb.append("}\n}\n");
+        }
+        if (region != null) {
+            sb.append("}\n");
+        }
         return sb.toString();
     }
 
 
+    // the pixel written by im[x,y] = e or im[x,y]:color = e
+    private String pixelValue(LValue lValue, String imageName, String xCode, String yCode, Expr expr, String exprCode)
+            throws PLCCompilerException {
+        if (lValue.getChannelSelector() != null) {
+            String oldPixel = String.format("ImageOps.getRGB(%s, %s, %s)", imageName, xCode, yCode);
+            return setChannel(lValue.getChannelSelector(), oldPixel, exprCode);
+        }
+        return expr.getType() == Type.INT ? greyPixel(exprCode) : exprCode;
+    }
+
+
+    // a run of pixel assignments found by PixelLoopFusion, as one loop over the pixels in row order;
+    // the pixel of a scalarized image is a local of the loop body, with the alpha its frame would add
+    private String fusedPixelAssignments(List<Block.BlockElem> run, Object arg) throws PLCCompilerException {
+        PixelSelector pixelSelector = ((AssignmentStatement) run.get(0)).getlValue().getPixelSelector();
+        String xLoop = loopVariable(pixelSelector.xExpr());
+        String yLoop = loopVariable(pixelSelector.yExpr());
+        ShapeInferenceVisitor.Shape shape = shapes.shapeOf(((AssignmentStatement) run.get(0)).getlValue().getNameDef());
+        NeighborhoodReads reads = new NeighborhoodReads(shapes, xLoop, yLoop);
+        for (Block.BlockElem elem : run) {
+            reads.add(((AssignmentStatement) elem).getE());
+        }
+        int[] interior = reads.interior(shape.width(), shape.height());
+        String body = fusedBody(run, xLoop, yLoop, arg);
+        if (interior != null) {
+            uncheckedReads = reads.getReads();
+            try {
+                return splitLoops(xLoop, yLoop, shape, interior, body, fusedBody(run, xLoop, yLoop, arg));
+            } finally {
+                uncheckedReads = null;
+            }
+        }
+        return String.format("for (int %s = 0; %s < %d; %s++) {\n", yLoop, yLoop, shape.height(), yLoop)
+                + String.format("for (int %s = 0; %s < %d; %s++) {\n", xLoop, xLoop, shape.width(), xLoop)
+                + body + "}\n}\n";
+    }
+
+
+    private String fusedBody(List<Block.BlockElem> run, String xLoop, String yLoop, Object arg) throws PLCCompilerException {
+        StringBuilder sb = new StringBuilder();
+        Set<NameDef> declared = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Block.BlockElem elem : run) {
+            AssignmentStatement statement = (AssignmentStatement) elem;
+            LValue lValue = statement.getlValue();
+            String imageName = (String) lValue.visit(this, arg);
+            // computed after the statements before it in the run, which may write the pixels it reads
+            String exprCode = sharedCode(statement.getE(), sb, arg);
+            String pixelCode = pixelValue(lValue, imageName, xLoop, yLoop, statement.getE(), exprCode);
+            if (fusion.isScalarized(lValue.getNameDef())) {
+                sb.append(declared.add(lValue.getNameDef()) ? "int " : "").append(pixelScalar(lValue.getNameDef()))
+                        .append(" = ").append(pixelCode).append(" | PixelOps.SELECT_ALPHA;\n");
+            } else {
+                sb.append(String.format("%s.setRGB(%s, %s, %s);\n", imageName, xLoop, yLoop, pixelCode));
+            }
+        }
+        return sb.toString();
+    }
+
+
+    // code for expr in the interior of a split loop, where the reads found are in bounds
+    private String uncheckedCode(Expr expr, NeighborhoodReads reads, StringBuilder declarations, Object arg)
+            throws PLCCompilerException {
+        uncheckedReads = reads.getReads();
+        try {
+            return sharedCode(expr, declarations, arg);
+        } finally {
+            uncheckedReads = null;
+        }
+    }
+
+
+    // row order loops over an image of the given shape that run uncheckedBody in interior, {x0, x1, y0,
+    // y1} as computed by NeighborhoodReads, and checkedBody in the border strips around it; each row
+    // runs its interior columns, then the columns on either side of them.  If the interior is the whole
+    // image, as when every read is at offset 0, there is no border and only uncheckedBody is generated
+    private String splitLoops(String xLoop, String yLoop, ShapeInferenceVisitor.Shape shape, int[] interior,
+                              String checkedBody, String uncheckedBody) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("for (int %s = 0; %s < %d; %s++) {\n", yLoop, yLoop, shape.height(), yLoop));
+        if (interior[0] == 0 && interior[1] == shape.width() && interior[2] == 0 && interior[3] == shape.height()) {
+            sb.append(String.format("for (int %1$s = 0; %1$s < %2$d; %1$s++) {\n%3$s}\n", xLoop, shape.width(), uncheckedBody));
+            return sb.append("}\n").toString();
+        }
+        // $ cannot occur in a PLC name, so these do not clash with program variables
+        String from = xLoop + "$from";
+        String to = xLoop + "$to";
+        String interiorRow = String.format("%s >= %d && %s < %d", yLoop, interior[2], yLoop, interior[3]);
+        sb.append(String.format("int %s = %s ? %d : %d;\n", from, interiorRow, interior[0], shape.width()));
+        sb.append(String.format("int %s = %s ? %d : %d;\n", to, interiorRow, interior[1], shape.width()));
+        sb.append(String.format("for (int %1$s = %2$s; %1$s < %3$s; %1$s++) {\n%4$s}\n", xLoop, from, to, uncheckedBody));
+        sb.append(String.format("for (int %1$s = %2$s == 0 ? %3$s : 0; %1$s < %4$d; %1$s = %1$s + 1 == %2$s ? %3$s : %1$s + 1) {\n%5$s}\n",
+                xLoop, from, to, shape.width(), checkedBody));
+        return sb.append("}\n").toString();
+    }
+
+
+    // $ cannot occur in a PLC name, so this does not clash with a program variable
+    private String pixelScalar(NameDef nameDef) {
+        return nameDef.getJavaName() + "$pixel";
+    }
+
+
+    private String tileLoop(String tileName, String from, String to) {
+        return String.format("for (int %1$s = %2$s; %1$s < %3$s; %1$s += %4$d) {\n", tileName, from, to, TILE_SIZE);
+    }
+
+
+    // name of the implicit loop variable used as a pixel coordinate, or null if expr is not one
+    private String loopVariable(Expr expr) {
+        if (expr instanceof IdentExpr && ((IdentExpr) expr).getNameDef() instanceof SyntheticNameDef) {
+            return ((IdentExpr) expr).getName();
+        }
+        return null;
+    }
+
+
+    private String setChannel(ChannelSelector channelSelector, String pixelCode, String valueCode) throws PLCCompilerException {
+        String setter = switch (channelSelector.color()) {
+            case RES_red -> "setRed";
+            case RES_green -> "setGreen";
+            case RES_blue -> "setBlue";
+            default -> throw new PLCCompilerException("Unsupported channel selector: " + channelSelector.color());
+        };
+        return String.format("PixelOps.%s(%s, %s)", setter, pixelCode, valueCode);
+    }
+
 
 
 
+
+    // Java name of a use whose declaration was resolved by the type checker, or null if it was not
+    private String resolvedJavaName(NameDef nameDef) {
+        if (nameDef == null || nameDef instanceof SyntheticNameDef) {
+            return null;
+        }
+        return nameDef.getJavaName();
+    }
+
+
     @Override
     public Object visitIdentExpr(IdentExpr identExpr, Object arg) throws PLCCompilerException {
+        String javaName = resolvedJavaName(identExpr.getNameDef());
+        if (javaName != null) {
+            return javaName;
+        }
         if (arg instanceof Map) {
             Map<String, String> paramMap = (Map<String, String>) arg;
             String originalName = identExpr.getName();
@@ -325,29 +942,164 @@ public class CodeGeneratorVisitor implements ASTVisitor {
 
     @Override
     public Object visitConditionalExpr(ConditionalExpr conditionalExpr, Object arg) throws PLCCompilerException {
+        if (sharedValues.containsKey(conditionalExpr)) {
+            return sharedValues.get(conditionalExpr);
+        }
         StringBuilder sb = new StringBuilder();
+        // only one branch is evaluated, so nothing is moved out of the branches into temporaries
+        StringBuilder outerTempDeclarations = tempDeclarations;
+        tempDeclarations = null;
         Object guardExprCode = conditionalExpr.getGuardExpr().visit(this, arg);
         sb.append("(").append(guardExprCode).append(" ? ");
         Object trueExprCode = conditionalExpr.getTrueExpr().visit(this, arg);
         sb.append(trueExprCode).append(" : ");
         Object falseExprCode = conditionalExpr.getFalseExpr().visit(this, arg);
         sb.append(falseExprCode).append(")");
+        tempDeclarations = outerTempDeclarations;
         return sb.toString();
     }
 
 
 
-    private int uniqueVarCounter = 0;
+    // runtime call for image op image/pixel/int; the result is written into dest when it is not null.
+    // An image operand that is a channel extraction is passed with its channel mask instead of
+    // being computed.
+    private String imageOperation(BinaryExpr binaryExpr, String dest, Object arg) throws PLCCompilerException {
+        String method = switch (binaryExpr.getRightExpr().getType()) {
+            case IMAGE -> "binaryImageImageOp";
+            case PIXEL -> "binaryImagePixelOp";
+            case INT -> "binaryImageScalarOp";
+            default -> throw new PLCCompilerException("Unsupported operand for image operation: " + binaryExpr.getRightExpr().getType());
+        };
+        Expr left = binaryExpr.getLeftExpr();
+        Expr right = binaryExpr.getRightExpr();
+        String leftMask = channelSource(left) == null ? null : channelMask(left);
+        String rightMask = channelSource(right) == null ? null : channelMask(right);
+        boolean masked = leftMask != null || rightMask != null;
+        String leftCode = operandCode(leftMask == null ? left : channelSource(left), arg);
+        String rightCode = operandCode(rightMask == null ? right : channelSource(right), arg);
+        StringBuilder sb = new StringBuilder();
+        sb.append("ImageOps.").append(method).append("(ImageOps.OP.").append(binaryExpr.getOpKind().name())
+                .append(", ").append(leftCode);
+        if (masked) {
+            sb.append(", ").append(leftMask == null ? "ImageOps.ALL_CHANNELS" : leftMask);
+        }
+        sb.append(", ").append(rightCode);
+        if (masked && right.getType() == Type.IMAGE) {
+            sb.append(", ").append(rightMask == null ? "ImageOps.ALL_CHANNELS" : rightMask);
+        }
+        if (dest != null) {
+            sb.append(", ").append(dest);
+        }
+        return sb.append(")").toString();
+    }
+
+
+    // runtime call for convolve(im, kernel, divisor); the result is written into dest when it is not
+    // null.  The kernel is a field of the generated class, so it is analysed once.
+    private String convolution(ConvolveExpr convolveExpr, String dest, Object arg) throws PLCCompilerException {
+        String imageCode = operandCode(convolveExpr.getImage(), arg);
+        String kernelName = kernelNames.get(convolveExpr);
+        if (kernelName == null) {
+            // $ cannot occur in a PLC name, so this does not clash with a program variable
+            kernelName = "kernel$" + kernelNames.size();
+            List<String> rows = new ArrayList<>();
+            for (List<Expr> row : convolveExpr.getKernel()) {
+                rows.add(row.stream().map(weight -> ShapeInferenceVisitor.constantValue(weight).toString())
+                        .collect(Collectors.joining(", ", "{", "}")));
+            }
+            kernelFields.append(String.format("    private static final ConvolutionKernel %s = new ConvolutionKernel(new int[][] {%s});\n",
+                    kernelName, String.join(", ", rows)));
+            kernelNames.put(convolveExpr, kernelName);
+        }
+        String divisorCode = convolveExpr.getDivisor() == null ? kernelName + ".getDefaultDivisor()"
+                : (String) convolveExpr.getDivisor().visit(this, arg);
+        if (dest == null) {
+            return String.format("ImageOps.convolve(%s, %s, %s)", imageCode, kernelName, divisorCode);
+        }
+        return String.format("ImageOps.convolve(%s, %s, %s, %s)", imageCode, kernelName, divisorCode, dest);
+    }
+
+
+    @Override
+    public Object visitConvolveExpr(ConvolveExpr convolveExpr, Object arg) throws PLCCompilerException {
+        return convolution(convolveExpr, null, arg);
+    }
+
+
+    // reduce(r, im) and reduce(r, im, value); a channel extraction is reduced through its mask
+    @Override
+    public Object visitReduceExpr(ReduceExpr reduceExpr, Object arg) throws PLCCompilerException {
+        if (sharedValues.containsKey(reduceExpr)) {
+            return sharedValues.get(reduceExpr);
+        }
+        Expr image = reduceExpr.getImage();
+        String mask = channelSource(image) == null ? "ImageOps.ALL_CHANNELS" : channelMask(image);
+        String imageCode = operandCode(channelSource(image) == null ? image : channelSource(image), arg);
+        String method = reduceExpr.getReduction().name().toLowerCase();
+        if (reduceExpr.getValue() == null) {
+            return String.format("ImageOps.%s(%s, %s)", method, imageCode, mask);
+        }
+        return String.format("ImageOps.%s(%s, %s, %s)", method, imageCode, mask,
+                (String) reduceExpr.getValue().visit(this, arg));
+    }
+
+
+    // the image a channel extraction such as (im:red) is taken from, looking through nested
+    // extractions, or null if expr is not a channel extraction of an image
+    private Expr channelSource(Expr expr) {
+        Expr source = null;
+        while (expr instanceof PostfixExpr && ((PostfixExpr) expr).pixel() == null
+                && ((PostfixExpr) expr).channel() != null && ((PostfixExpr) expr).primary().getType() == Type.IMAGE) {
+            source = expr = ((PostfixExpr) expr).primary();
+        }
+        return source;
+    }
+
+
+    // mask of the channels a channel extraction keeps
+    private String channelMask(Expr expr) throws PLCCompilerException {
+        List<String> masks = new ArrayList<>();
+        while (channelSource(expr) != null) {
+            Kind color = ((PostfixExpr) expr).channel().color();
+            masks.add(switch (color) {
+                case RES_red -> "PixelOps.SELECT_RED";
+                case RES_green -> "PixelOps.SELECT_GREEN";
+                case RES_blue -> "PixelOps.SELECT_BLUE";
+                default -> throw new PLCCompilerException("Unsupported channel selector: " + color);
+            });
+            expr = ((PostfixExpr) expr).primary();
+        }
+        return String.join(" & ", masks);
+    }
 
 
     @Override
     public Object visitBinaryExpr(BinaryExpr binaryExpr, Object arg) throws PLCCompilerException {
+        if (sharedValues.containsKey(binaryExpr)) {
+            return sharedValues.get(binaryExpr);
+        }
         StringBuilder sb = new StringBuilder();
-        Object leftExprCode = binaryExpr.getLeftExpr().visit(this, arg);
         Type leftExprType = binaryExpr.getLeftExpr().getType();
-        Object rightExprCode = binaryExpr.getRightExpr().visit(this, arg);
         Type rightExprType = binaryExpr.getRightExpr().getType();
         Kind opKind = binaryExpr.getOpKind();
+        if (leftExprType == Type.IMAGE && rightExprType != Type.BOOLEAN
+                && !(rightExprType == Type.IMAGE && opKind == Kind.EQ)) {
+            // visits its own operands
+            return imageOperation(binaryExpr, null, arg);
+        }
+        Object leftExprCode = operandCode(binaryExpr.getLeftExpr(), arg);
+        Object rightExprCode;
+        if (opKind == Kind.AND || opKind == Kind.OR) {
+            // the right operand is only evaluated when the left one does not decide the result, so
+            // nothing is moved out of it into temporaries
+            StringBuilder outerTempDeclarations = tempDeclarations;
+            tempDeclarations = null;
+            rightExprCode = binaryExpr.getRightExpr().visit(this, arg);
+            tempDeclarations = outerTempDeclarations;
+        } else {
+            rightExprCode = operandCode(binaryExpr.getRightExpr(), arg);
+        }
 
 //        if (leftExprType == Type.IMAGE && rightExprType == Type.IMAGE) {
 //            String tempImageVar = "tempImage" + uniqueVarCounter++;
@@ -357,21 +1109,25 @@ public class CodeGeneratorVisitor implements ASTVisitor {
 //                    .append("\nImageOps.copyInto(").append(tempImageVar).append(", ").append(leftExprCode).append(");");
 //        }
 
-        if (leftExprType == Type.IMAGE && rightExprType == Type.IMAGE) {
-            String tempImageVar = "tempImage" + uniqueVarCounter++;
-            sb.append("BufferedImage ").append(tempImageVar).append(" = ImageOps.binaryImageImageOp(ImageOps.OP.")
-                    .append(opKind.name()).append(", ")
-                    .append(leftExprCode).append(", ").append(rightExprCode).append(");")
-                    .append("\nImageOps.copyInto(").append(tempImageVar).append(", ").append(leftExprCode).append(");");
+        // division and remainder by a constant, as shifts or multiplies and shifts, or null
+        String reducedDivision = null;
+        if ((opKind == Kind.DIV || opKind == Kind.MOD) && leftExprType == Type.INT && rightExprType == Type.INT) {
+            reducedDivision = StrengthReduction.divide(binaryExpr.getLeftExpr(), (String) leftExprCode,
+                    binaryExpr.getRightExpr(), opKind == Kind.MOD);
+        } else if (opKind == Kind.DIV && leftExprType == Type.PIXEL && rightExprType == Type.INT) {
+            reducedDivision = StrengthReduction.dividePixel((String) leftExprCode, binaryExpr.getRightExpr());
         }
-        else if (leftExprType == Type.IMAGE && rightExprType == Type.INT && opKind == Kind.TIMES) {
-            sb.append(leftExprCode).append(" = ImageOps.binaryImageScalarOp(ImageOps.OP.")
-                    .append(opKind.name()).append(", ")
-                    .append(leftExprCode).append(", ").append(rightExprCode).append(");");
+
+        if (reducedDivision != null) {
+            sb.append(reducedDivision);
+        }
+        else if (leftExprType == Type.IMAGE && rightExprType == Type.IMAGE && opKind == Kind.EQ) {
+            sb.append("ImageOps.equals(").append(leftExprCode).append(", ").append(rightExprCode).append(")");
         }
         else if (opKind == Kind.EXP) {
             if (leftExprType == Type.INT && rightExprType == Type.INT) {
-                sb.append("(int)Math.pow(").append(leftExprCode).append(", ").append(rightExprCode).append(")");
+                sb.append(StrengthReduction.power(binaryExpr.getLeftExpr(), (String) leftExprCode,
+                        binaryExpr.getRightExpr(), (String) rightExprCode));
             } else {
                 throw new PLCCompilerException("Exponentiation is only supported for integer types");
             }
@@ -394,24 +1150,6 @@ public class CodeGeneratorVisitor implements ASTVisitor {
                     .append("Math.max(0, Math.min(255, PixelOps.green(").append(leftExprCode).append(") ").append(opKind.name()).append(" ").append(rightExprCode).append(")), ")
                     .append("Math.max(0, Math.min(255, PixelOps.blue(").append(leftExprCode).append(") ").append(opKind.name()).append(" ").append(rightExprCode).append(")))");
         }
-        else if (leftExprType == Type.IMAGE && rightExprType == Type.PIXEL) {
-            sb.append("ImageOps.binaryImagePixelOp(ImageOps.OP.")
-                    .append(opKind.name()).append(", ")
-                    .append(leftExprCode).append(", ").append(rightExprCode).append(")");
-        }
-        else if (leftExprType == Type.IMAGE && rightExprType == Type.PIXEL ||
-                leftExprType == Type.PIXEL && rightExprType == Type.IMAGE) {
-            sb.append("ImageOps.binaryImagePixelOp(ImageOps.OP.")
-                    .append(opKind.name()).append(", ")
-                    .append(leftExprCode).append(", ").append(rightExprCode).append(")");
-        }
-        else if (leftExprType == Type.IMAGE && rightExprType == Type.INT) {
-            sb.append("ImageOps.binaryImageScalarOp(ImageOps.OP.")
-                    .append(opKind.name()).append(", ")
-                    .append(leftExprCode).append(", ").append(rightExprCode).append(")");
-        }
-
-
         else if (leftExprType == Type.PIXEL && rightExprType == Type.PIXEL) {
             sb.append("ImageOps.binaryPackedPixelPixelOp(ImageOps.OP.")
                     .append(opKind.name()).append(", ")
@@ -420,6 +1158,7 @@ public class CodeGeneratorVisitor implements ASTVisitor {
         else if (opKind == Kind.EQ && leftExprType == Type.STRING) {
             sb.append(leftExprCode).append(".equals(").append(rightExprCode).append(")");
         }
+
         else {
             String operator = switch(opKind) {
                 case PLUS -> "+";
@@ -458,9 +1197,17 @@ public class CodeGeneratorVisitor implements ASTVisitor {
 
     @Override
     public Object visitUnaryExpr(UnaryExpr unaryExpr, Object arg) throws PLCCompilerException {
+        if (sharedValues.containsKey(unaryExpr)) {
+            return sharedValues.get(unaryExpr);
+        }
         StringBuilder sb = new StringBuilder();
-        Object exprCode = unaryExpr.getExpr().visit(this, arg);
         Kind opKind = unaryExpr.getOp();
+        Expr operand = unaryExpr.getExpr();
+        if ((opKind == Kind.RES_width || opKind == Kind.RES_height) && channelSource(operand) != null) {
+            // a channel of an image has the size of the image, so it is not extracted
+            operand = channelSource(operand);
+        }
+        Object exprCode = operand.visit(this, arg);
 
         switch (opKind) {
             case PLUS:
@@ -473,14 +1220,18 @@ public class CodeGeneratorVisitor implements ASTVisitor {
                 sb.append("!").append(exprCode);
                 break;
             case RES_width:
-                if (unaryExpr.getExpr().getType() == Type.IMAGE) {
+                if (shapes.shapeOf(operand) != null) {
+                    sb.append(shapes.shapeOf(operand).width());
+                } else if (operand.getType() == Type.IMAGE) {
                     sb.append("(").append(exprCode).append(".getWidth())");
                 } else {
                     throw new PLCCompilerException("Unsupported unary operator for non-image type: " + opKind);
                 }
                 break;
             case RES_height:
-                if (unaryExpr.getExpr().getType() == Type.IMAGE) {
+                if (shapes.shapeOf(operand) != null) {
+                    sb.append(shapes.shapeOf(operand).height());
+                } else if (operand.getType() == Type.IMAGE) {
                     sb.append("(").append(exprCode).append(".getHeight())");
                 } else {
                     throw new PLCCompilerException("Unsupported unary operator for non-image type: " + opKind);
@@ -497,8 +1248,9 @@ public class CodeGeneratorVisitor implements ASTVisitor {
 
     @Override
     public Object visitLValue(LValue lValue, Object arg) throws PLCCompilerException {
-        if (lValue.getNameDef() != null) {
-            return lValue.getNameDef().getJavaName();
+        String javaName = resolvedJavaName(lValue.getNameDef());
+        if (javaName != null) {
+            return javaName;
         } else {
             if (arg instanceof Map) {
                 Map<String, String> paramMap = (Map<String, String>) arg;
@@ -516,11 +1268,16 @@ public class CodeGeneratorVisitor implements ASTVisitor {
     @Override
     public Object visitWriteStatement(WriteStatement writeStatement, Object arg) throws PLCCompilerException {
         StringBuilder sb = new StringBuilder();
-        Object exprCode = writeStatement.getExpr().visit(this, arg);
-        if (exprCode != null) {
+        beginTemps();
+        Object exprCode = operandCode(writeStatement.getExpr(), arg);
+        if (writeStatement.getDestination() != null) {
+            Object destinationCode = writeStatement.getDestination().visit(this, arg);
+            writesFiles = true;
+            sb.append("FileURLIO.writeImage(").append(exprCode).append(", ").append(destinationCode).append(");\n");
+        } else if (exprCode != null) {
             sb.append("ConsoleIO.write(").append(exprCode.toString()).append(");\n");
         }
-        return sb.toString();
+        return endTemps(sb.toString());
     }
 
 
@@ -605,6 +1362,9 @@ public class CodeGeneratorVisitor implements ASTVisitor {
 
     @Override
     public Object visitExpandedPixelExpr(ExpandedPixelExpr expandedPixelExpr, Object arg) throws PLCCompilerException {
+        if (sharedValues.containsKey(expandedPixelExpr)) {
+            return sharedValues.get(expandedPixelExpr);
+        }
         Object redComponent = expandedPixelExpr.getRed().visit(this, arg);
         Object greenComponent = expandedPixelExpr.getGreen().visit(this, arg);
         Object blueComponent = expandedPixelExpr.getBlue().visit(this, arg);
@@ -643,11 +1403,19 @@ public class CodeGeneratorVisitor implements ASTVisitor {
 
     @Override
     public Object visitPostfixExpr(PostfixExpr postfixExpr, Object arg) throws PLCCompilerException {
+        if (sharedValues.containsKey(postfixExpr)) {
+            return sharedValues.get(postfixExpr);
+        }
         StringBuilder sb = new StringBuilder();
-        Object primaryExprCode = postfixExpr.primary().visit(this, arg);
-        Type primaryExprType = postfixExpr.primary().getType();
         PixelSelector pixelSelector = postfixExpr.pixel();
         ChannelSelector channelSelector = postfixExpr.channel();
+        Expr primary = postfixExpr.primary();
+        if (pixelSelector != null && primary.getType() == Type.IMAGE) {
+            String read = sharedReads.containsKey(postfixExpr) ? sharedReads.get(postfixExpr) : pixelRead(postfixExpr, arg);
+            return channelSelector == null ? read : visitChannelSelector(channelSelector, arg) + "(" + read + ")";
+        }
+        Object primaryExprCode = operandCode(primary, arg);
+        Type primaryExprType = primary.getType();
 
         if (primaryExprType == Type.PIXEL) {
             if (channelSelector != null) {
@@ -663,23 +1431,12 @@ public class CodeGeneratorVisitor implements ASTVisitor {
                 sb.append(primaryExprCode);
             }
         } else if (primaryExprType == Type.IMAGE) {
-            if (pixelSelector != null && channelSelector == null) {
-                sb.append("ImageOps.getRGB(").append(primaryExprCode).append(", ").append(pixelSelector.visit(this, arg)).append(")");
-            } else if (pixelSelector != null && channelSelector != null) {
-                Kind color = channelSelector.color();
-                String channelMethod = switch (color) {
-                    case RES_red -> "red";
-                    case RES_green -> "green";
-                    case RES_blue -> "blue";
-                    default -> throw new PLCCompilerException("Unsupported channel selector: " + color);
-                };
-                sb.append("PixelOps.").append(channelMethod).append("(ImageOps.getRGB(").append(primaryExprCode).append(", ").append(pixelSelector.visit(this, arg)).append("))");
-            } else if (channelSelector != null) {
+            if (channelSelector != null) {
                 Kind color = channelSelector.color();
                 String extractMethod = switch (color) {
                     case RES_red -> "extractRed";
-                    case RES_green -> "extractGreen";
-                    case RES_blue -> "extractBlue";
+                    case RES_green -> "extractGrn";
+                    case RES_blue -> "extractBlu";
                     default -> throw new PLCCompilerException("Unsupported channel selector: " + color);
                 };
                 sb.append("ImageOps.").append(extractMethod).append("(").append(primaryExprCode).append(")");
@@ -692,6 +1449,32 @@ public class CodeGeneratorVisitor implements ASTVisitor {
     }
 
 
+    // the pixel read by im[x,y] or im[x,y]:color, before its channel is selected
+    private String pixelRead(PostfixExpr postfixExpr, Object arg) throws PLCCompilerException {
+        Expr primary = postfixExpr.primary();
+        // a pixel of a channel extraction, (im:red)[x,y], is read from im with the channel mask
+        // applied to the pixel instead of extracting the channel from the whole image
+        String mask = null;
+        if (channelSource(primary) != null) {
+            mask = channelMask(primary);
+            primary = channelSource(primary);
+        }
+        if (primary instanceof IdentExpr && fusion.isScalarized(((IdentExpr) primary).getNameDef())) {
+            // read in the loop of its run, at the pixel being assigned
+            String pixel = pixelScalar(((IdentExpr) primary).getNameDef());
+            return mask == null ? pixel : "(" + pixel + " & " + mask + " | PixelOps.SELECT_ALPHA)";
+        }
+        String primaryExprCode = operandCode(primary, arg);
+        String coordinates = (String) postfixExpr.pixel().visit(this, arg);
+        if (uncheckedReads != null && uncheckedReads.contains(postfixExpr)) {
+            // in the interior of the loops, where the pixel is in bounds
+            String read = primaryExprCode + ".getRGB(" + coordinates + ")";
+            return mask == null ? read : "(" + read + " & " + mask + " | PixelOps.SELECT_ALPHA)";
+        }
+        return "ImageOps.getRGB(" + primaryExprCode + ", " + coordinates + (mask == null ? "" : ", " + mask) + ")";
+    }
+
+
     @Override
     public Object visitDimension(Dimension dimension, Object arg) throws PLCCompilerException {
         String widthExpr = (String) dimension.getWidth().visit(this, arg);
@@ -700,6 +1483,13 @@ public class CodeGeneratorVisitor implements ASTVisitor {
     }
 
 
+    // the region of a pixel assignment is generated by pixelAssignment
+    @Override
+    public Object visitRegion(Region region, Object arg) throws PLCCompilerException {
+        return null;
+    }
+
+
     @Override
     public Object visitPixelSelector(PixelSelector pixelSelector, Object arg) throws PLCCompilerException {
         String xExprCode = (String) pixelSelector.xExpr().visit(this, arg);
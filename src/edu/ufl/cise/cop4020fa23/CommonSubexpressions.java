@@ -0,0 +1,219 @@
+package edu.ufl.cise.cop4020fa23;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.ufl.cise.cop4020fa23.ast.*;
+import edu.ufl.cise.cop4020fa23.exceptions.PLCCompilerException;
+
+/**
+ * Finds the subexpressions of an expression that occur more than once, such as the pixel i[x,y] in
+ * [i[x,y]:red, i[x,y]:green / 2, 0], so the code generator can compute each once into a local.
+ * The pixel read by a selector, before a channel is selected from it, counts as a subexpression.
+ *
+ * Subexpressions are hash-consed: each is identified by a key built from its operator and the keys
+ * of its operands, with a variable identified by its declaration, so two subtrees with the same
+ * key compute the same value.  Expressions have no side effects and an image is not written while
+ * an expression is evaluated, so a value can be computed before the expression that uses it.
+ *
+ * A subexpression that would still be computed only once, because it is part of a larger shared
+ * one, is not given a local of its own.
+ *
+ * Only a value that is computed whenever the expression is, somewhere outside the branches of a
+ * conditional and the right operand of && and ||, is shared, so no division by zero or other
+ * failure is moved out of a branch that guards it.  Images, which are shared through the image
+ * temporaries of the code generator, and leaves, which cost no more than a local, are not.
+ */
+class CommonSubexpressions extends ASTWalker {
+
+    /**
+     * A value computed more than once.  If it is a pixel read, the occurrences are PostfixExprs
+     * im[x,y] or im[x,y]:color whose pixel, before any channel is selected, is the value.
+     */
+    record Value(List<Expr> occurrences, boolean pixelRead) {
+    }
+
+    // occurrences of each key, in the order the subexpressions are completed, operands first
+    private final Map<String, List<Expr>> occurrences = new LinkedHashMap<>();
+    // keys of the subexpressions that occur outside a branch
+    private final Set<String> unconditional = new HashSet<>();
+    private final Set<String> pixelReads = new HashSet<>();
+    private final Map<NameDef, Integer> declarations = new IdentityHashMap<>();
+    private final Map<Expr, Expr> parents = new IdentityHashMap<>();
+    private Expr parent;
+    // number of branches enclosing the subexpression being walked
+    private int branches;
+
+    /**
+     * @return the values in expr to compute once, operands before the expressions that use them
+     */
+    public List<Value> find(Expr expr) throws PLCCompilerException {
+        key(expr);
+        List<String> keys = new ArrayList<>(occurrences.keySet());
+        // larger expressions first, so the occurrences they replace by their local are known
+        Collections.reverse(keys);
+        Set<Expr> replaced = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Value> shared = new ArrayList<>();
+        for (String key : keys) {
+            List<Expr> exprs = occurrences.get(key);
+            boolean pixelRead = pixelReads.contains(key);
+            if (unconditional.contains(key) && (pixelRead || isShareable(exprs.get(0))) && evaluations(exprs, replaced) > 1) {
+                shared.add(0, new Value(exprs, pixelRead));
+                replaced.addAll(exprs.subList(1, exprs.size()));
+            }
+        }
+        return shared;
+    }
+
+    // number of the occurrences that are computed, those not inside an occurrence replaced by a local;
+    // the first occurrence of a shared expression is still computed, for its local.  The pixel read
+    // of im[x,y]:color is inside im[x,y]:color itself
+    private int evaluations(List<Expr> exprs, Set<Expr> replaced) {
+        int evaluations = 0;
+        for (Expr expr : exprs) {
+            Expr ancestor = expr;
+            while (ancestor != null && !replaced.contains(ancestor)) {
+                ancestor = parents.get(ancestor);
+            }
+            evaluations += ancestor == null ? 1 : 0;
+        }
+        return evaluations;
+    }
+
+    private static boolean isShareable(Expr expr) {
+        return (expr.getType() == Type.INT || expr.getType() == Type.PIXEL || expr.getType() == Type.BOOLEAN)
+                && !(expr instanceof IdentExpr || expr instanceof NumLitExpr || expr instanceof BooleanLitExpr
+                        || expr instanceof ConstExpr);
+    }
+
+    private String key(Expr expr) throws PLCCompilerException {
+        if (expr == null) {
+            return "";
+        }
+        parents.put(expr, parent);
+        Expr outer = parent;
+        parent = expr;
+        String key;
+        try {
+            key = (String) expr.visit(this, null);
+        } finally {
+            parent = outer;
+        }
+        add(key, expr);
+        return key;
+    }
+
+    private void add(String key, Expr expr) {
+        occurrences.computeIfAbsent(key, k -> new ArrayList<>()).add(expr);
+        if (branches == 0) {
+            unconditional.add(key);
+        }
+    }
+
+    private String branch(Expr expr) throws PLCCompilerException {
+        branches++;
+        try {
+            return key(expr);
+        } finally {
+            branches--;
+        }
+    }
+
+    @Override
+    public Object visitBinaryExpr(BinaryExpr binaryExpr, Object arg) throws PLCCompilerException {
+        Kind op = binaryExpr.getOpKind();
+        String left = key(binaryExpr.getLeftExpr());
+        String right = op == Kind.AND || op == Kind.OR ? branch(binaryExpr.getRightExpr()) : key(binaryExpr.getRightExpr());
+        return "(" + op + " " + left + " " + right + ")";
+    }
+
+    @Override
+    public Object visitUnaryExpr(UnaryExpr unaryExpr, Object arg) throws PLCCompilerException {
+        return "(" + unaryExpr.getOp() + " " + key(unaryExpr.getExpr()) + ")";
+    }
+
+    @Override
+    public Object visitConditionalExpr(ConditionalExpr conditionalExpr, Object arg) throws PLCCompilerException {
+        return "(? " + key(conditionalExpr.getGuardExpr()) + " " + branch(conditionalExpr.getTrueExpr()) + " "
+                + branch(conditionalExpr.getFalseExpr()) + ")";
+    }
+
+    @Override
+    public Object visitPostfixExpr(PostfixExpr postfixExpr, Object arg) throws PLCCompilerException {
+        String key = key(postfixExpr.primary());
+        if (postfixExpr.pixel() != null) {
+            key = "(" + key + "[" + key(postfixExpr.pixel().xExpr()) + " " + key(postfixExpr.pixel().yExpr()) + "])";
+            if (postfixExpr.primary().getType() == Type.IMAGE) {
+                pixelReads.add(key);
+                if (postfixExpr.channel() != null) {
+                    add(key, postfixExpr);
+                }
+            }
+        }
+        if (postfixExpr.channel() != null) {
+            key = "(" + key + ":" + postfixExpr.channel().color() + ")";
+        }
+        return key;
+    }
+
+    @Override
+    public Object visitExpandedPixelExpr(ExpandedPixelExpr expandedPixelExpr, Object arg) throws PLCCompilerException {
+        return "[" + key(expandedPixelExpr.getRed()) + " " + key(expandedPixelExpr.getGreen()) + " "
+                + key(expandedPixelExpr.getBlue()) + "]";
+    }
+
+    @Override
+    public Object visitConvolveExpr(ConvolveExpr convolveExpr, Object arg) throws PLCCompilerException {
+        StringBuilder key = new StringBuilder("(convolve ").append(key(convolveExpr.getImage()));
+        for (List<Expr> row : convolveExpr.getKernel()) {
+            key.append(" [");
+            for (Expr weight : row) {
+                key.append(" ").append(key(weight));
+            }
+            key.append("]");
+        }
+        return key.append(" ").append(key(convolveExpr.getDivisor())).append(")").toString();
+    }
+
+    @Override
+    public Object visitReduceExpr(ReduceExpr reduceExpr, Object arg) throws PLCCompilerException {
+        return "(reduce " + reduceExpr.getReduction() + " " + key(reduceExpr.getImage()) + " "
+                + key(reduceExpr.getValue()) + ")";
+    }
+
+    @Override
+    public Object visitIdentExpr(IdentExpr identExpr, Object arg) throws PLCCompilerException {
+        NameDef nameDef = identExpr.getNameDef();
+        // the implicit loop variables are declared afresh for each use, but name the same variable
+        if (nameDef == null || nameDef instanceof SyntheticNameDef) {
+            return identExpr.getName();
+        }
+        return identExpr.getName() + "#" + declarations.computeIfAbsent(nameDef, n -> declarations.size());
+    }
+
+    @Override
+    public Object visitStringLitExpr(StringLitExpr stringLitExpr, Object arg) throws PLCCompilerException {
+        return stringLitExpr.getText();
+    }
+
+    @Override
+    public Object visitNumLitExpr(NumLitExpr numLitExpr, Object arg) throws PLCCompilerException {
+        return numLitExpr.getText();
+    }
+
+    @Override
+    public Object visitBooleanLitExpr(BooleanLitExpr booleanLitExpr, Object arg) throws PLCCompilerException {
+        return booleanLitExpr.getText();
+    }
+
+    @Override
+    public Object visitConstExpr(ConstExpr constExpr, Object arg) throws PLCCompilerException {
+        return constExpr.getName();
+    }
+}
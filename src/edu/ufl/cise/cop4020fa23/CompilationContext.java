@@ -0,0 +1,32 @@
+package edu.ufl.cise.cop4020fa23;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Stack;
+
+import edu.ufl.cise.cop4020fa23.ast.Type;
+
+/**
+ * Mutable state of a single compilation.  The visitors keep nothing else between calls, so
+ * compilations that each use their own context can run on different threads at the same time.
+ *
+ * One context is shared by the type checker and the code generator of the same program; each
+ * phase leaves the symbol table back at the outermost scope when it finishes.
+ */
+final class CompilationContext {
+
+    // scoped names, used by the type checker for resolution and by the code generator for renaming
+    final SymbolTable symbolTable = new SymbolTable();
+
+    // return types of the enclosing programs, innermost on top
+    final Stack<Type> returnTypeStack = new Stack<>();
+
+    // how many times each name has been renamed in the generated Java code
+    final Map<String, Integer> variableCounts = new HashMap<>();
+
+    private int uniqueVarCounter = 0;
+
+    int nextUniqueVar() {
+        return uniqueVarCounter++;
+    }
+}
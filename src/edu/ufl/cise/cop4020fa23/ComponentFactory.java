@@ -9,8 +9,18 @@
  */
 package edu.ufl.cise.cop4020fa23;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import edu.ufl.cise.cop4020fa23.ast.AST;
 import edu.ufl.cise.cop4020fa23.ast.ASTVisitor;
+import edu.ufl.cise.cop4020fa23.ast.Program;
+import edu.ufl.cise.cop4020fa23.exceptions.CompileAllException;
 import edu.ufl.cise.cop4020fa23.exceptions.LexicalException;
+import edu.ufl.cise.cop4020fa23.exceptions.PLCCompilerException;
 import edu.ufl.cise.cop4020fa23.exceptions.TypeCheckException;
 
 /**
@@ -45,5 +55,77 @@ public class ComponentFactory {
 		public static ASTVisitor makeCodeGenerator() {
 			return new CodeGeneratorVisitor();
 		}
+
+		/**
+		 * Removes the declarations and assignments of a type checked program whose values are never
+		 * used (see DeadCodeElimination).  Run between type checking and code generation.
+		 *
+		 * @return the number of declarations and assignments removed
+		 */
+		public static int eliminateDeadCode(AST ast) throws PLCCompilerException {
+			if (!(ast instanceof Program program)) {
+				return 0;
+			}
+			ShapeInferenceVisitor shapes = new ShapeInferenceVisitor();
+			program.visit(shapes, null);
+			return new DeadCodeElimination(shapes, DeadCodeElimination.STRICT).eliminate(program);
+		}
+
+		/**
+		 * Parses, type checks and generates Java code for one program.  Each call uses its own
+		 * CompilationContext, so calls may run concurrently.
+		 */
+		public static String compile(String source, String packageName) throws PLCCompilerException {
+			CompilationContext context = new CompilationContext();
+			AST ast = makeParser(source).parse();
+			ast.visit(new TypeCheckVisitor(context), null);
+			eliminateDeadCode(ast);
+			return (String) ast.visit(new CodeGeneratorVisitor(context), packageName);
+		}
+
+		/**
+		 * Compiles every source in parallel on the common ForkJoin (work-stealing) pool and returns the
+		 * generated Java code in the same order as the sources.
+		 *
+		 * If any source fails to compile, a CompileAllException is thrown once all of them have
+		 * finished, holding the exception of each source that failed and the code of each one that
+		 * compiled.
+		 */
+		public static List<String> compileAll(List<String> sources, String packageName) throws PLCCompilerException {
+			List<ForkJoinTask<String>> tasks = new ArrayList<>(sources.size());
+			for (String source : sources) {
+				tasks.add(ForkJoinPool.commonPool().submit(() -> compile(source, packageName)));
+			}
+			List<String> results = new ArrayList<>(sources.size());
+			List<PLCCompilerException> failures = new ArrayList<>(sources.size());
+			boolean failed = false;
+			for (ForkJoinTask<String> task : tasks) {
+				try {
+					results.add(task.get());
+					failures.add(null);
+				} catch (ExecutionException e) {
+					results.add(null);
+					failures.add(compilerException(e.getCause()));
+					failed = true;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new PLCCompilerException("interrupted while compiling");
+				}
+			}
+			if (failed) {
+				throw new CompileAllException(failures, results);
+			}
+			return results;
+		}
+
+		// ForkJoin tasks wrap checked exceptions, so look for the compiler exception along the cause chain
+		private static PLCCompilerException compilerException(Throwable t) {
+			for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+				if (cause instanceof PLCCompilerException) {
+					return (PLCCompilerException) cause;
+				}
+			}
+			return new PLCCompilerException(String.valueOf(t));
+		}
 		
 }
@@ -0,0 +1,304 @@
+package edu.ufl.cise.cop4020fa23;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import edu.ufl.cise.cop4020fa23.ast.*;
+import edu.ufl.cise.cop4020fa23.exceptions.PLCCompilerException;
+
+/**
+ * Removes the declarations and assignments of a type checked Program whose values never reach a
+ * write statement, a return statement or the guard of a do or if statement, so no image is
+ * allocated or computed only to be dropped.  The blocks of the Program are changed in place; this
+ * runs as a pass of its own, ComponentFactory.eliminateDeadCode, after type checking and before code
+ * generation.
+ *
+ * A variable is live if it is read by a write, a return, a guard, or a declaration or assignment
+ * of a live variable; this is found without regard to the order of the statements, which is safe
+ * for loops.  A declaration or assignment of a variable that is not live is dead.  In addition, an
+ * assignment to a variable declared in the same block, after the last element of the block that
+ * reads it, is dead: a block's variables are declared afresh each time it runs, so the value is
+ * never read.  A pixel or channel assignment counts as an assignment to its image or pixel.
+ * Removing an assignment can leave other variables dead, so this is repeated until nothing more
+ * is removed.
+ *
+ * With strict semantics, the default, a dead statement that could fail at run time is kept, so a
+ * program still fails where it did: the read of an image from a file, which may not exist, a
+ * division or remainder by anything other than a nonzero constant, an operation on two images
+ * whose sizes are not known to be equal, a convolution whose kernel or divisor is not constant,
+ * and an image declared with a size that is not a positive constant.  A variable such a statement
+ * assigns is kept declared.  Setting the system property plc.strict to false removes these too.
+ */
+class DeadCodeElimination extends ASTWalker {
+
+    static final boolean STRICT = Boolean.parseBoolean(System.getProperty("plc.strict", "true"));
+
+    private final ShapeInferenceVisitor shapes;
+    private final boolean strict;
+
+    private final Set<NameDef> live = Collections.newSetFromMap(new IdentityHashMap<>());
+    // names of live variables that are read through an IdentExpr without a NameDef
+    private final Set<String> liveNames = new HashSet<>();
+    // variables that are not live but are assigned by a statement that is kept
+    private final Set<NameDef> keptTargets = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<Block.BlockElem> dead = Collections.newSetFromMap(new IdentityHashMap<>());
+    // variables read by the subtree being walked, and names read without a NameDef
+    private final Set<NameDef> reads = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<String> readNames = new HashSet<>();
+    private boolean changed;
+
+    DeadCodeElimination(ShapeInferenceVisitor shapes, boolean strict) {
+        this.shapes = shapes;
+        this.strict = strict;
+    }
+
+    /**
+     * Removes the dead declarations and assignments of program.
+     *
+     * @return the number of elements removed
+     */
+    public int eliminate(Program program) throws PLCCompilerException {
+        int removed = 0;
+        do {
+            live.clear();
+            liveNames.clear();
+            keptTargets.clear();
+            do {
+                changed = false;
+                markLive(program.getBlock());
+            } while (changed);
+            dead.clear();
+            findDead(program.getBlock());
+            removed += sweep(program.getBlock());
+        } while (!dead.isEmpty());
+        return removed;
+    }
+
+    // adds to live the variables read by the elements of block that are live
+    private void markLive(Block block) throws PLCCompilerException {
+        for (Block.BlockElem elem : block.getElems()) {
+            if (elem instanceof Declaration declaration) {
+                if (isLive(declaration.getNameDef()) || isKept(declaration)) {
+                    addLive(declaration);
+                }
+            } else if (elem instanceof AssignmentStatement assignment) {
+                LValue lValue = assignment.getlValue();
+                if (isLive(lValue.getNameDef(), lValue.getName())) {
+                    addLive(assignment);
+                } else if (isKept(assignment)) {
+                    addLive(assignment);
+                    keptTargets.add(lValue.getNameDef());
+                }
+            } else if (elem instanceof DoStatement || elem instanceof IfStatement) {
+                for (GuardedBlock guardedBlock : guardedBlocks(elem)) {
+                    addLive(guardedBlock.getGuard());
+                    markLive(guardedBlock.getBlock());
+                }
+            } else if (elem instanceof StatementBlock statementBlock) {
+                markLive(statementBlock.getBlock());
+            } else {
+                addLive(elem);
+            }
+        }
+    }
+
+    private void addLive(AST node) throws PLCCompilerException {
+        for (NameDef nameDef : readsOf(node)) {
+            changed |= live.add(nameDef);
+        }
+        changed |= liveNames.addAll(readNames);
+    }
+
+    private boolean isLive(NameDef nameDef) {
+        return isLive(nameDef, nameDef.getName());
+    }
+
+    private boolean isLive(NameDef nameDef, String name) {
+        return nameDef == null || live.contains(nameDef) || liveNames.contains(name);
+    }
+
+    // adds to dead the declarations and assignments of block and its nested blocks that are dead
+    private void findDead(Block block) throws PLCCompilerException {
+        List<Block.BlockElem> elems = block.getElems();
+        for (int i = 0; i < elems.size(); i++) {
+            Block.BlockElem elem = elems.get(i);
+            if (elem instanceof AssignmentStatement assignment) {
+                LValue lValue = assignment.getlValue();
+                if (!isLive(lValue.getNameDef(), lValue.getName()) && !isKept(assignment)) {
+                    dead.add(assignment);
+                }
+            } else if (elem instanceof Declaration declaration) {
+                NameDef nameDef = declaration.getNameDef();
+                if (!isLive(nameDef) && !keptTargets.contains(nameDef) && !isKept(declaration)) {
+                    dead.add(declaration);
+                }
+                findDeadStores(elems, i, nameDef);
+            }
+            for (Block nested : nestedBlocks(elem)) {
+                findDead(nested);
+            }
+        }
+    }
+
+    // adds to dead the assignments to nameDef, declared at elems[declared], after its last read
+    private void findDeadStores(List<Block.BlockElem> elems, int declared, NameDef nameDef) throws PLCCompilerException {
+        int lastRead = declared;
+        for (int j = declared + 1; j < elems.size(); j++) {
+            readsOf(elems.get(j));
+            if (reads.contains(nameDef) || readNames.contains(nameDef.getName())) {
+                lastRead = j;
+            }
+        }
+        for (int j = lastRead + 1; j < elems.size(); j++) {
+            if (elems.get(j) instanceof AssignmentStatement assignment && assignment.getlValue().getNameDef() == nameDef
+                    && !isKept(assignment)) {
+                dead.add(assignment);
+            }
+        }
+    }
+
+    private int sweep(Block block) {
+        List<Block.BlockElem> elems = block.getElems();
+        int size = elems.size();
+        elems.removeIf(dead::contains);
+        int removed = size - elems.size();
+        for (Block.BlockElem elem : elems) {
+            for (Block nested : nestedBlocks(elem)) {
+                removed += sweep(nested);
+            }
+        }
+        return removed;
+    }
+
+    private static List<GuardedBlock> guardedBlocks(Block.BlockElem elem) {
+        if (elem instanceof DoStatement doStatement) {
+            return doStatement.getGuardedBlocks();
+        }
+        if (elem instanceof IfStatement ifStatement) {
+            return ifStatement.getGuardedBlocks();
+        }
+        return List.of();
+    }
+
+    private static List<Block> nestedBlocks(Block.BlockElem elem) {
+        if (elem instanceof StatementBlock statementBlock) {
+            return List.of(statementBlock.getBlock());
+        }
+        List<Block> blocks = new ArrayList<>();
+        for (GuardedBlock guardedBlock : guardedBlocks(elem)) {
+            blocks.add(guardedBlock.getBlock());
+        }
+        return blocks;
+    }
+
+    // true if the element must run even though its value is dead
+    private boolean isKept(Block.BlockElem elem) throws PLCCompilerException {
+        return strict && MayFail.check(elem, shapes);
+    }
+
+    // the variables read by node, the NameDefs of its IdentExprs, and the names read without one
+    private Set<NameDef> readsOf(AST node) throws PLCCompilerException {
+        reads.clear();
+        readNames.clear();
+        walk(node, null);
+        return reads;
+    }
+
+    @Override
+    public Object visitIdentExpr(IdentExpr identExpr, Object arg) throws PLCCompilerException {
+        add(identExpr.getNameDef(), identExpr.getName());
+        return null;
+    }
+
+    private void add(NameDef nameDef, String name) {
+        if (nameDef == null) {
+            readNames.add(name);
+        } else if (!(nameDef instanceof SyntheticNameDef)) {
+            reads.add(nameDef);
+        }
+    }
+
+    /**
+     * Finds whether evaluating a declaration or assignment could fail at run time or read a file.
+     */
+    private static class MayFail extends ASTWalker {
+
+        private final ShapeInferenceVisitor shapes;
+        private boolean mayFail;
+
+        private MayFail(ShapeInferenceVisitor shapes) {
+            this.shapes = shapes;
+        }
+
+        static boolean check(Block.BlockElem elem, ShapeInferenceVisitor shapes) throws PLCCompilerException {
+            MayFail walker = new MayFail(shapes);
+            elem.visit(walker, null);
+            return walker.mayFail;
+        }
+
+        @Override
+        public Object visitDeclaration(Declaration declaration, Object arg) throws PLCCompilerException {
+            Expr initializer = declaration.getInitializer();
+            if (declaration.getNameDef().getType() == Type.IMAGE && initializer != null
+                    && initializer.getType() == Type.STRING) {
+                mayFail = true;
+            }
+            return super.visitDeclaration(declaration, arg);
+        }
+
+        @Override
+        public Object visitDimension(Dimension dimension, Object arg) throws PLCCompilerException {
+            Integer width = ShapeInferenceVisitor.constantValue(dimension.getWidth());
+            Integer height = ShapeInferenceVisitor.constantValue(dimension.getHeight());
+            if (width == null || height == null || width <= 0 || height <= 0) {
+                mayFail = true;
+            }
+            return super.visitDimension(dimension, arg);
+        }
+
+        @Override
+        public Object visitAssignmentStatement(AssignmentStatement assignmentStatement, Object arg) throws PLCCompilerException {
+            if (assignmentStatement.getlValue().getVarType() == Type.IMAGE
+                    && assignmentStatement.getlValue().getPixelSelector() == null
+                    && assignmentStatement.getE().getType() == Type.STRING) {
+                mayFail = true;
+            }
+            return super.visitAssignmentStatement(assignmentStatement, arg);
+        }
+
+        @Override
+        public Object visitBinaryExpr(BinaryExpr binaryExpr, Object arg) throws PLCCompilerException {
+            Expr left = binaryExpr.getLeftExpr();
+            Expr right = binaryExpr.getRightExpr();
+            Kind op = binaryExpr.getOpKind();
+            if (op == Kind.DIV || op == Kind.MOD) {
+                Integer divisor = right.getType() == Type.INT ? ShapeInferenceVisitor.constantValue(right) : null;
+                mayFail |= divisor == null || divisor == 0;
+            }
+            if (left.getType() == Type.IMAGE && right.getType() == Type.IMAGE) {
+                ShapeInferenceVisitor.Shape shape = shapes.shapeOf(left);
+                mayFail |= shape == null || !shape.equals(shapes.shapeOf(right));
+            }
+            return super.visitBinaryExpr(binaryExpr, arg);
+        }
+
+        @Override
+        public Object visitConvolveExpr(ConvolveExpr convolveExpr, Object arg) throws PLCCompilerException {
+            for (List<Expr> row : convolveExpr.getKernel()) {
+                for (Expr weight : row) {
+                    mayFail |= ShapeInferenceVisitor.constantValue(weight) == null;
+                }
+            }
+            Expr divisor = convolveExpr.getDivisor();
+            if (divisor != null) {
+                Integer value = ShapeInferenceVisitor.constantValue(divisor);
+                mayFail |= value == null || value == 0;
+            }
+            return super.visitConvolveExpr(convolveExpr, arg);
+        }
+    }
+}
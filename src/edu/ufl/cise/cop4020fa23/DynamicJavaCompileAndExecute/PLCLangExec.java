@@ -21,6 +21,8 @@ public class PLCLangExec {
 		edu.ufl.cise.cop4020fa23.ast.AST ast = ComponentFactory.makeParser(plcLanguageSource).parse();
 		//Type check and decorate AST with declaration and type info
 		ast.visit(ComponentFactory.makeTypeChecker(), null);
+		//Remove declarations and assignments whose values are never used
+		ComponentFactory.eliminateDeadCode(ast);
 		//Construct fully qualified class name		
 		String className = ((Program)ast).getName();
 		String fullyQualifiedName = packageName != "" ? packageName + '.' + className : className;
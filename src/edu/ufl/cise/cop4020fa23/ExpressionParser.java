@@ -24,7 +24,8 @@ import static edu.ufl.cise.cop4020fa23.Kind.RSQUARE;
 import static edu.ufl.cise.cop4020fa23.Kind.STRING_LIT;
 import static edu.ufl.cise.cop4020fa23.Kind.CONST;
 
-import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 import edu.ufl.cise.cop4020fa23.ast.AST;
 import edu.ufl.cise.cop4020fa23.ast.BinaryExpr;
@@ -156,105 +157,42 @@ public class ExpressionParser implements IParser {
 
 
 
-	// LogicalAndExpr ::=  ComparisonExpr ( (   &   |  &&   )  ComparisonExpr)*
-	private Expr logicalAndExpr() throws PLCCompilerException {
-		Expr left = comparisonExpr();
-		while (token.kind() == Kind.BITAND || token.kind() == Kind.AND) {
-			IToken opToken = token;
-			match(token.kind());
-			Expr right = comparisonExpr();
-			left = new BinaryExpr(token, left, opToken, right);
-		}
-		return left;
-	}
-
-
-	// LogicalOrExpr ::= LogicalAndExpr (    (   |   |   ||   ) LogicalAndExpr)*
-//	private Expr logicalOrExpr() throws PLCCompilerException {
-//		Expr left = logicalAndExpr();
-//		while (token.kind() == Kind.OR || token.kind() == Kind.OR) {
-//			IToken opToken = token;
-//			match(token.kind());
-//			Expr right = logicalAndExpr();
-//			left = new BinaryExpr(token, left, opToken, right);
-//		}
-//		return left;
-//	}
-
+	// LogicalOrExpr ::= LogicalAndExpr ( ( | | || ) LogicalAndExpr )*  and the levels below it,
+	// parsed by precedence climbing over the table in BinaryOperators
 	private Expr logicalOrExpr() throws PLCCompilerException {
-		Expr left = logicalAndExpr();
-
-		while (token.kind() == Kind.BITOR || token.kind() == Kind.OR) {
-			IToken opToken = token;
-			match(token.kind());
-			Expr right = logicalAndExpr();
-			left = new BinaryExpr(token, left, opToken, right);
-		}
-		return left;
+		return binaryExpr(BinaryOperators.LOWEST);
 	}
 
-
-	/* *****************************  Daniel  ***************************** */
-
-	// ComparisonExpr ::= PowExpr ( (< | > | == | <= | >=) PowExpr)*
-	private Expr comparisonExpr() throws PLCCompilerException {
-		Expr left = powExpr();
-		while (Arrays.asList(Kind.LT, Kind.GT, Kind.EQ, Kind.LE, Kind.GE).contains(token.kind())) {
-			IToken opToken = token;
-			match(token.kind());
-			Expr right = powExpr();
-			left = new BinaryExpr(token, left, opToken, right);
-		}
-		return left;
-	}
-
-	// PowExpr ::= AdditiveExpr ** PowExpr |   AdditiveExpr
-	private Expr powExpr() throws PLCCompilerException {
-		Expr left = additiveExpr();
-		if (token.kind() == Kind.EXP) {
-			IToken opToken = token;
-			match(Kind.EXP);
-			Expr right = powExpr();
-			left = new BinaryExpr(token, left, opToken, right);
-		}
-		return left;
-	}
-
-	// AdditiveExpr ::= MultiplicativeExpr ( ( + | -  ) MultiplicativeExpr )*
-	private Expr additiveExpr() throws PLCCompilerException {
-		Expr left = multiplicativeExpr();
-		while (token.kind() == Kind.PLUS || token.kind() == Kind.MINUS) {
-			IToken opToken = token;
-			match(token.kind());
-			Expr right = multiplicativeExpr();
-			left = new BinaryExpr(token, left, opToken, right);
-		}
-		return left;
-	}
-
-	// MultiplicativeExpr ::= UnaryExpr (( * |  /  |  % ) UnaryExpr)*
-	private Expr multiplicativeExpr() throws PLCCompilerException {
+	// parses a chain of binary operators whose precedence is at least minPrecedence
+	private Expr binaryExpr(int minPrecedence) throws PLCCompilerException {
 		Expr left = unaryExpr();
-		while (token.kind() == Kind.TIMES || token.kind() == Kind.DIV || token.kind() == Kind.MOD) {
+		int precedence = BinaryOperators.precedence(token.kind());
+		while (precedence != BinaryOperators.NOT_BINARY && precedence >= minPrecedence) {
 			IToken opToken = token;
 			match(token.kind());
-			Expr right = unaryExpr();
+			Expr right = binaryExpr(BinaryOperators.isRightAssociative(opToken.kind()) ? precedence : precedence + 1);
 			left = new BinaryExpr(token, left, opToken, right);
+			precedence = BinaryOperators.precedence(token.kind());
 		}
 		return left;
 	}
 
 	// UnaryExpr ::=  ( ! | - | length | width) UnaryExpr  |  UnaryExprPostfix
 	private Expr unaryExpr() throws PLCCompilerException {
-		if (token.kind() == Kind.BANG || token.kind() == Kind.MINUS ||
-				token.kind() == Kind.RES_width || token.kind() == Kind.RES_height) {
-			IToken opToken = token;
-			match(token.kind());
-			Expr expression = unaryExpr();
-			return new UnaryExpr(token, opToken, expression);
-		} else {
+		if (!BinaryOperators.isUnary(token.kind())) {
 			return postfixExpr();
 		}
+		// collect the prefix operators first so a long run of them does not grow the stack
+		Deque<IToken> opTokens = new ArrayDeque<>();
+		while (BinaryOperators.isUnary(token.kind())) {
+			opTokens.push(token);
+			match(token.kind());
+		}
+		Expr expression = postfixExpr();
+		while (!opTokens.isEmpty()) {
+			expression = new UnaryExpr(token, opTokens.pop(), expression);
+		}
+		return expression;
 	}
 
 	/* *****************************  Moksh  ***************************** */
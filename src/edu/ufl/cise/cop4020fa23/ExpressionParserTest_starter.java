@@ -13,11 +13,14 @@ import edu.ufl.cise.cop4020fa23.ast.BooleanLitExpr;
 import edu.ufl.cise.cop4020fa23.ast.ChannelSelector;
 import edu.ufl.cise.cop4020fa23.ast.ConditionalExpr;
 import edu.ufl.cise.cop4020fa23.ast.ConstExpr;
+import edu.ufl.cise.cop4020fa23.ast.ExpandedPixelExpr;
 import edu.ufl.cise.cop4020fa23.ast.Expr;
 import edu.ufl.cise.cop4020fa23.ast.IdentExpr;
 import edu.ufl.cise.cop4020fa23.ast.NumLitExpr;
 import edu.ufl.cise.cop4020fa23.ast.PixelSelector;
 import edu.ufl.cise.cop4020fa23.ast.PostfixExpr;
+import edu.ufl.cise.cop4020fa23.ast.Program;
+import edu.ufl.cise.cop4020fa23.ast.ReturnStatement;
 import edu.ufl.cise.cop4020fa23.ast.StringLitExpr;
 import edu.ufl.cise.cop4020fa23.ast.UnaryExpr;
 import edu.ufl.cise.cop4020fa23.exceptions.LexicalException;
@@ -608,5 +611,64 @@ class ExpressionParserTest_starter {
 		});
 	}
 
+	@Test
+	void test45() throws PLCCompilerException {
+		// a 0 directly followed by another token, which must not be dropped
+		String input = """
+            [0,0,1]
+            """;
+		AST ast = getAST(input);
+		assertThat("", ast, instanceOf(ExpandedPixelExpr.class));
+		ExpandedPixelExpr e = (ExpandedPixelExpr) ast;
+		checkNumLitExpr(e.getRed(), 0);
+		checkNumLitExpr(e.getGreen(), 0);
+		checkNumLitExpr(e.getBlue(), 1);
+	}
+
+	@Test
+	void test46() throws PLCCompilerException {
+		String input = """
+            0+a
+            """;
+		AST ast = getAST(input);
+		checkBinaryExpr(ast, Kind.PLUS);
+		checkNumLitExpr(((BinaryExpr) ast).getLeftExpr(), 0);
+		checkIdentExpr(((BinaryExpr) ast).getRightExpr(), "a");
+	}
+
+	// the expression fully parenthesized, with operators by their kind
+	String parenthesized(Expr e) {
+		if (e instanceof BinaryExpr b) {
+			return "(" + parenthesized(b.getLeftExpr()) + " " + b.getOpKind() + " " + parenthesized(b.getRightExpr()) + ")";
+		}
+		if (e instanceof UnaryExpr u) {
+			return "(" + u.getOp() + " " + parenthesized(u.getExpr()) + ")";
+		}
+		if (e instanceof IdentExpr i) {
+			return i.getName();
+		}
+		return ((NumLitExpr) e).getText();
+	}
+
+	@Test
+	void test47() throws PLCCompilerException {
+		// both parsers group binary operators by precedence level, left to right except for **
+		String[][] cases = { { "a || b && c == d + e * f", "(a OR (b AND (c EQ (d PLUS (e TIMES f)))))" },
+				{ "a * b + c == d && e || f", "(((((a TIMES b) PLUS c) EQ d) AND e) OR f)" },
+				{ "a - b - c", "((a MINUS b) MINUS c)" },
+				{ "a / b * c % d", "(((a DIV b) TIMES c) MOD d)" },
+				{ "a ** b ** c", "(a EXP (b EXP c))" },
+				{ "a + b ** c + d", "((a PLUS b) EXP (c PLUS d))" },
+				{ "a < b == c >= d", "(((a LT b) EQ c) GE d)" },
+				{ "a * -b / c", "((a TIMES (MINUS b)) DIV c)" },
+				{ "a | b & c || d && e", "((a BITOR (b BITAND c)) OR (d AND e))" },
+				{ "(a + b) * (c - 2)", "((a PLUS b) TIMES (c MINUS 2))" } };
+		for (String[] c : cases) {
+			assertEquals(c[1], parenthesized((Expr) getAST(c[0])), c[0]);
+			Program program = (Program) ComponentFactory.makeParser("int f() <: ^ " + c[0] + "; :>").parse();
+			ReturnStatement returnStatement = (ReturnStatement) program.getBlock().getElems().get(0);
+			assertEquals(c[1], parenthesized(returnStatement.getE()), c[0]);
+		}
+	}
 
 }
@@ -0,0 +1,86 @@
+package edu.ufl.cise.cop4020fa23;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import edu.ufl.cise.cop4020fa23.ast.*;
+import edu.ufl.cise.cop4020fa23.exceptions.PLCCompilerException;
+
+/**
+ * Finds image declarations initialized from a file or URL whose read can be started when the
+ * program is entered, so that several images are decoded at the same time.
+ *
+ * A declaration qualifies when it is in the outermost block of the program before any statement
+ * that may return, so it is executed exactly once unless an exception ends the program first, and
+ * its source is a string literal or a string parameter that is never assigned, so
+ * it has the same value at entry as at the declaration.
+ */
+class HoistableImageReads extends ASTWalker {
+
+    private final Set<NameDef> assigned = Collections.newSetFromMap(new IdentityHashMap<>());
+    // names of lvalues the type checker did not resolve
+    private final List<String> unresolvedAssigned = new ArrayList<>();
+    private final List<Declaration> declarations = new ArrayList<>();
+    // true once a return statement has been walked
+    private boolean returns;
+
+    /**
+     * @return the qualifying declarations, in program order
+     */
+    public List<Declaration> getDeclarations() {
+        return declarations;
+    }
+
+    @Override
+    public Object visitProgram(Program program, Object arg) throws PLCCompilerException {
+        super.visitProgram(program, arg);
+        for (Block.BlockElem elem : program.getBlock().getElems()) {
+            returns = false;
+            walk(elem, arg);
+            if (returns) {
+                // the declarations after this statement are not reached when it returns
+                break;
+            }
+            if (elem instanceof Declaration && isHoistable((Declaration) elem, program.getParams())) {
+                declarations.add((Declaration) elem);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitReturnStatement(ReturnStatement returnStatement, Object arg) throws PLCCompilerException {
+        returns = true;
+        return super.visitReturnStatement(returnStatement, arg);
+    }
+
+    @Override
+    public Object visitLValue(LValue lValue, Object arg) throws PLCCompilerException {
+        if (lValue.getNameDef() == null) {
+            unresolvedAssigned.add(lValue.getName());
+        } else {
+            assigned.add(lValue.getNameDef());
+        }
+        return super.visitLValue(lValue, arg);
+    }
+
+    private boolean isHoistable(Declaration declaration, List<NameDef> params) {
+        Expr initializer = declaration.getInitializer();
+        if (declaration.getNameDef().getType() != Type.IMAGE || initializer == null
+                || initializer.getType() != Type.STRING) {
+            return false;
+        }
+        if (initializer instanceof StringLitExpr) {
+            return true;
+        }
+        if (initializer instanceof IdentExpr) {
+            NameDef nameDef = ((IdentExpr) initializer).getNameDef();
+            return params.stream().anyMatch(param -> param == nameDef)
+                    && !assigned.contains(nameDef) && !unresolvedAssigned.contains(nameDef.getName());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,109 @@
+package edu.ufl.cise.cop4020fa23;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.ufl.cise.cop4020fa23.ast.*;
+import edu.ufl.cise.cop4020fa23.exceptions.PLCCompilerException;
+
+/**
+ * Liveness of the image variables declared in a block.  An image variable is dead after the last
+ * element of its block that mentions it, so the code generator can release its frame to the
+ * ImagePool there instead of leaving it to the garbage collector.  Image variables never share
+ * frames: declarations and assignments copy unless the value is freshly computed.
+ *
+ * No release is placed after an element whose Java code cannot complete normally, such as a return
+ * statement or a nested block ending in one, since the release would be unreachable in Java; a
+ * frame live at a return is left to the garbage collector.
+ */
+class ImageLiveness extends ASTWalker {
+
+    // names mentioned by the element being walked
+    private final Set<NameDef> mentioned = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<String> unresolved = new ArrayList<>();
+
+    /**
+     * @return for each element index of block, the image variables declared in block that are
+     *         dead after that element
+     */
+    public Map<Integer, List<NameDef>> deadAfter(Block block) throws PLCCompilerException {
+        List<Block.BlockElem> elems = block.getElems();
+        Map<Integer, List<NameDef>> result = new HashMap<>();
+        for (int i = 0; i < elems.size(); i++) {
+            if (!(elems.get(i) instanceof Declaration)) {
+                continue;
+            }
+            NameDef nameDef = ((Declaration) elems.get(i)).getNameDef();
+            if (nameDef.getType() != Type.IMAGE) {
+                continue;
+            }
+            int last = i;
+            for (int j = i + 1; j < elems.size(); j++) {
+                if (mentions(elems.get(j), nameDef)) {
+                    last = j;
+                }
+            }
+            if (completesNormally(elems.get(last))) {
+                result.computeIfAbsent(last, k -> new ArrayList<>()).add(nameDef);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Whether the Java code generated for elem can complete normally, by the reachability rules of
+     * the Java compiler.  If statements are generated with an empty else branch, so they always can,
+     * and a do statement is generated as a Java do loop on its last guard, which only ends if that
+     * guard is not the literal true.
+     */
+    static boolean completesNormally(Block.BlockElem elem) {
+        if (elem instanceof ReturnStatement) {
+            return false;
+        }
+        if (elem instanceof StatementBlock statementBlock) {
+            for (Block.BlockElem inner : statementBlock.getBlock().getElems()) {
+                if (!completesNormally(inner)) {
+                    return false;
+                }
+            }
+        }
+        if (elem instanceof DoStatement doStatement && !doStatement.getGuardedBlocks().isEmpty()) {
+            List<GuardedBlock> guardedBlocks = doStatement.getGuardedBlocks();
+            Expr guard = guardedBlocks.get(guardedBlocks.size() - 1).getGuard();
+            return !(guard instanceof BooleanLitExpr literal && Boolean.parseBoolean(literal.getText()));
+        }
+        return true;
+    }
+
+    private boolean mentions(Block.BlockElem elem, NameDef nameDef) throws PLCCompilerException {
+        mentioned.clear();
+        unresolved.clear();
+        walk(elem, null);
+        return mentioned.contains(nameDef) || unresolved.contains(nameDef.getName());
+    }
+
+    @Override
+    public Object visitIdentExpr(IdentExpr identExpr, Object arg) throws PLCCompilerException {
+        if (identExpr.getNameDef() == null) {
+            unresolved.add(identExpr.getName());
+        } else {
+            mentioned.add(identExpr.getNameDef());
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitLValue(LValue lValue, Object arg) throws PLCCompilerException {
+        if (lValue.getNameDef() == null) {
+            unresolved.add(lValue.getName());
+        } else {
+            mentioned.add(lValue.getNameDef());
+        }
+        return super.visitLValue(lValue, arg);
+    }
+}
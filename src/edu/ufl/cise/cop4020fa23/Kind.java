@@ -33,6 +33,9 @@ public enum Kind {
 	RES_red,
 	RES_green,
 	RES_blue,
+	RES_convolve,
+	RES_reduce,
+	RES_within,
 	CONST, // Z | BLACK | BLUE | CYAN | DARK_GRAY | GRAY | GREEN | LIGHT_GRAY | MAGENTA | ORANGE | PINK | RED | WHITE | YELLOW
 	BOOLEAN_LIT,// TRUE, FALSE
 	COMMA, // ,
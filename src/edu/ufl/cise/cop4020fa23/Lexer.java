@@ -56,6 +56,9 @@ public class Lexer implements ILexer {
         map.put("red", Kind.RES_red);
         map.put("green", Kind.RES_green);
         map.put("blue", Kind.RES_blue);
+        map.put("convolve", Kind.RES_convolve);
+        map.put("reduce", Kind.RES_reduce);
+        map.put("within", Kind.RES_within);
         map.put("Z", Kind.CONST);
         map.put("BLACK", Kind.CONST);
         map.put("BLUE", Kind.CONST);
@@ -116,7 +119,6 @@ public class Lexer implements ILexer {
 
 
     private IToken handleStart(char ch) throws LexicalException {
-        skipWhitespace();
         startPos = pos;
 
         switch (ch) {
@@ -402,15 +404,10 @@ public class Lexer implements ILexer {
     }
 
 
+    // 0 is a literal on its own, so the character after it starts the next token
     private IToken handleZero(char ch) {
-        if (Character.isDigit(ch) && ch != '0') {
-            state = State.START;
-            return createToken(NUM_LIT, startPos, 1, chars);
-        } else {
-            pos++;
-            state = State.START;
-            return createToken(NUM_LIT, startPos, 1, chars);
-        }
+        state = State.START;
+        return createToken(NUM_LIT, startPos, 1, chars);
     }
 
 
@@ -495,20 +492,6 @@ public class Lexer implements ILexer {
     }
 
 
-    private void skipWhitespace() {
-        int currentPos = pos;
-        while (currentPos < chars.length) {
-            char ch = chars[currentPos];
-            if (ch == ' ' || ch == '\t' || ch == '\r' || ch == '\n') {
-                if (ch == '\n') line++;
-                currentPos++;
-            } else {
-                break;
-            }
-        }
-    }
-
-
 //    private IToken createToken(Kind kind, int startPos, int length) {
 //        IToken token = new Token(kind, startPos, length, null, new SourceLocation(line, startPos));
 //        System.out.println("Token: " + kind + " at position " + startPos);
@@ -0,0 +1,114 @@
+package edu.ufl.cise.cop4020fa23;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import edu.ufl.cise.cop4020fa23.ast.*;
+import edu.ufl.cise.cop4020fa23.exceptions.PLCCompilerException;
+
+/**
+ * Pixel reads on the right side of a pixel assignment im[x,y] = e whose coordinates are the loop
+ * variables plus constant offsets, such as i[x+1,y] or (i:red)[x-1,y-1], from an image variable
+ * whose shape is known at compile time.  Within the interior of the loops, where every such read is
+ * in bounds, the code generator reads the pixels directly instead of through the bounds check of
+ * ImageOps.getRGB, which only the border strips around the interior need.
+ */
+class NeighborhoodReads extends ASTWalker {
+
+    private final ShapeInferenceVisitor shapes;
+    private final String xLoop;
+    private final String yLoop;
+    private final Set<PostfixExpr> reads = Collections.newSetFromMap(new IdentityHashMap<>());
+    // interior as half open ranges [x0, x1) and [y0, y1) of the loop variables, before clipping to
+    // the loops
+    private int x0 = 0;
+    private int x1 = Integer.MAX_VALUE;
+    private int y0 = 0;
+    private int y1 = Integer.MAX_VALUE;
+
+    NeighborhoodReads(ShapeInferenceVisitor shapes, String xLoop, String yLoop) {
+        this.shapes = shapes;
+        this.xLoop = xLoop;
+        this.yLoop = yLoop;
+    }
+
+    /**
+     * Adds the reads of expr.
+     */
+    public void add(Expr expr) throws PLCCompilerException {
+        walk(expr, null);
+    }
+
+    /**
+     * @return the reads found, each in bounds everywhere in the interior
+     */
+    public Set<PostfixExpr> getReads() {
+        return reads;
+    }
+
+    /**
+     * @return the interior of loops over width x height as {x0, x1, y0, y1}, the pixels x0 <= x <
+     *         x1, y0 <= y < y1, or null if there are no reads or the interior is empty
+     */
+    public int[] interior(int width, int height) {
+        int[] interior = { x0, Math.min(x1, width), y0, Math.min(y1, height) };
+        if (reads.isEmpty() || interior[0] >= interior[1] || interior[2] >= interior[3]) {
+            return null;
+        }
+        return interior;
+    }
+
+    @Override
+    public Object visitPostfixExpr(PostfixExpr postfixExpr, Object arg) throws PLCCompilerException {
+        super.visitPostfixExpr(postfixExpr, arg);
+        PixelSelector pixelSelector = postfixExpr.pixel();
+        Expr primary = postfixExpr.primary();
+        while (primary instanceof PostfixExpr && ((PostfixExpr) primary).pixel() == null
+                && ((PostfixExpr) primary).channel() != null) {
+            primary = ((PostfixExpr) primary).primary();
+        }
+        if (pixelSelector == null || !(primary instanceof IdentExpr) || primary.getType() != Type.IMAGE) {
+            return null;
+        }
+        ShapeInferenceVisitor.Shape shape = shapes.shapeOf(((IdentExpr) primary).getNameDef());
+        Integer dx = offset(pixelSelector.xExpr(), xLoop);
+        Integer dy = offset(pixelSelector.yExpr(), yLoop);
+        if (shape == null || dx == null || dy == null) {
+            return null;
+        }
+        reads.add(postfixExpr);
+        // 0 <= x + dx < width of the image read
+        x0 = Math.max(x0, -dx);
+        x1 = Math.min(x1, shape.width() - dx);
+        y0 = Math.max(y0, -dy);
+        y1 = Math.min(y1, shape.height() - dy);
+        return null;
+    }
+
+    // c if expr is loop, loop + c or loop - c for an integer literal c, otherwise null
+    private static Integer offset(Expr expr, String loop) {
+        if (isLoopVariable(expr, loop)) {
+            return 0;
+        }
+        if (expr instanceof BinaryExpr) {
+            BinaryExpr binaryExpr = (BinaryExpr) expr;
+            Kind op = binaryExpr.getOpKind();
+            if ((op == Kind.PLUS || op == Kind.MINUS) && isLoopVariable(binaryExpr.getLeftExpr(), loop)
+                    && binaryExpr.getRightExpr() instanceof NumLitExpr) {
+                int c = Integer.parseInt(((NumLitExpr) binaryExpr.getRightExpr()).getText());
+                return op == Kind.PLUS ? c : -c;
+            }
+            if (op == Kind.PLUS && binaryExpr.getLeftExpr() instanceof NumLitExpr
+                    && isLoopVariable(binaryExpr.getRightExpr(), loop)) {
+                return Integer.parseInt(((NumLitExpr) binaryExpr.getLeftExpr()).getText());
+            }
+        }
+        return null;
+    }
+
+    private static boolean isLoopVariable(Expr expr, String loop) {
+        return expr instanceof IdentExpr && ((IdentExpr) expr).getNameDef() instanceof SyntheticNameDef
+                && ((IdentExpr) expr).getName().equals(loop);
+    }
+}
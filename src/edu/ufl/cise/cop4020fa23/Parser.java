@@ -16,8 +16,9 @@ import edu.ufl.cise.cop4020fa23.exceptions.SyntaxException;
 
 import static edu.ufl.cise.cop4020fa23.Kind.*;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 
 
@@ -26,6 +27,7 @@ import edu.ufl.cise.cop4020fa23.ast.BinaryExpr;
 import edu.ufl.cise.cop4020fa23.ast.ChannelSelector;
 import edu.ufl.cise.cop4020fa23.ast.ConditionalExpr;
 import edu.ufl.cise.cop4020fa23.ast.ConstExpr;
+import edu.ufl.cise.cop4020fa23.ast.ConvolveExpr;
 import edu.ufl.cise.cop4020fa23.ast.ExpandedPixelExpr;
 import edu.ufl.cise.cop4020fa23.ast.Expr;
 import edu.ufl.cise.cop4020fa23.ast.IdentExpr;
@@ -33,6 +35,7 @@ import edu.ufl.cise.cop4020fa23.ast.NumLitExpr;
 import edu.ufl.cise.cop4020fa23.ast.BooleanLitExpr;
 import edu.ufl.cise.cop4020fa23.ast.PixelSelector;
 import edu.ufl.cise.cop4020fa23.ast.PostfixExpr;
+import edu.ufl.cise.cop4020fa23.ast.ReduceExpr;
 import edu.ufl.cise.cop4020fa23.ast.StringLitExpr;
 import edu.ufl.cise.cop4020fa23.ast.UnaryExpr;
 
@@ -43,6 +46,8 @@ public class Parser implements IParser {
 
 	final ILexer lexer;
 	private IToken token;
+	// syntax errors recovered from so far; parse() reports them all at once
+	private final List<SyntaxException> errors = new ArrayList<>();
 
 	public Parser(ILexer lexer) throws LexicalException {
 		super();
@@ -56,14 +61,102 @@ public class Parser implements IParser {
 
 	@Override
 	public AST parse() throws SyntaxException, PLCCompilerException {
-		AST e = program();
-		// if there are still tokens remaining at the end, this should result in a SyntaxException
-		if (token.kind() != EOF) {
-			throw new SyntaxException(token.sourceLocation(), "Expected end of file but found " + token.kind());
+		AST e = null;
+		errors.clear();
+		try {
+			e = program();
+			// if there are still tokens remaining at the end, this should result in a SyntaxException
+			if (token.kind() != EOF) {
+				throw new SyntaxException(token.sourceLocation(), "Expected end of file but found " + token.kind());
+			}
+		} catch (SyntaxException ex) {
+			errors.add(ex);
+		} catch (LexicalException ex) {
+			// the lexer cannot resynchronize, but syntax errors found before this one are still reported
+			if (errors.isEmpty()) {
+				throw ex;
+			}
+		}
+		if (!errors.isEmpty()) {
+			SyntaxException first = errors.get(0);
+			for (SyntaxException other : errors.subList(1, errors.size())) {
+				first.addSuppressed(other);
+			}
+			throw first;
 		}
 		return e;
 	}
 
+	/**
+	 * @return every syntax error found by the last call to parse, in source order
+	 */
+	public List<SyntaxException> getErrors() {
+		return List.copyOf(errors);
+	}
+
+
+	// ConvolveExpr ::= convolve ( Expr , Kernel ) | convolve ( Expr , Kernel , Expr )
+	private ConvolveExpr convolveExpr() throws SyntaxException, PLCCompilerException {
+		IToken firstToken = token;
+		match(RES_convolve);
+		match(LPAREN);
+		Expr image = expr();
+		match(COMMA);
+		List<List<Expr>> kernel = kernel();
+		Expr divisor = null;
+		if (isKind(COMMA)) {
+			match(COMMA);
+			divisor = expr();
+		}
+		match(RPAREN);
+		return new ConvolveExpr(firstToken, image, kernel, divisor);
+	}
+
+	// ReduceExpr ::= reduce ( Reduction , Expr ) | reduce ( Reduction , Expr , Expr )
+	// Reduction ::= sum | min | max | count | histogram, which are not reserved words
+	private ReduceExpr reduceExpr() throws SyntaxException, PLCCompilerException {
+		IToken firstToken = token;
+		match(RES_reduce);
+		match(LPAREN);
+		IToken reductionToken = match(IDENT);
+		ReduceExpr.Reduction reduction = ReduceExpr.Reduction.of(reductionToken.text());
+		if (reduction == null) {
+			throw new SyntaxException(reductionToken.sourceLocation(),
+					"Expected sum, min, max, count or histogram but found " + reductionToken.text());
+		}
+		match(COMMA);
+		Expr image = expr();
+		Expr value = null;
+		if (reduction.hasValue()) {
+			match(COMMA);
+			value = expr();
+		}
+		match(RPAREN);
+		return new ReduceExpr(firstToken, reduction, image, value);
+	}
+
+	// Kernel ::= [ KernelRow ( , KernelRow )* ]    KernelRow ::= [ Expr ( , Expr )* ]
+	private List<List<Expr>> kernel() throws SyntaxException, PLCCompilerException {
+		List<List<Expr>> rows = new ArrayList<>();
+		match(LSQUARE);
+		do {
+			if (!rows.isEmpty()) {
+				match(COMMA);
+			}
+			List<Expr> row = new ArrayList<>();
+			match(LSQUARE);
+			row.add(expr());
+			while (isKind(COMMA)) {
+				match(COMMA);
+				row.add(expr());
+			}
+			match(RSQUARE);
+			rows.add(row);
+		} while (isKind(COMMA));
+		match(RSQUARE);
+		return rows;
+	}
+
 
 // ************************************ START OF Expression Parser Code **************************************** //
 
@@ -108,93 +201,42 @@ public class Parser implements IParser {
 
 
 
-	// LogicalAndExpr ::=  ComparisonExpr ( (   &   |  &&   )  ComparisonExpr)*
-	private Expr logicalAndExpr() throws SyntaxException, PLCCompilerException {
-		Expr left = comparisonExpr();
-		while (token.kind() == Kind.BITAND || token.kind() == Kind.AND) {
-			IToken opToken = token;
-			match(token.kind());
-			Expr right = comparisonExpr();
-			left = new BinaryExpr(token, left, opToken, right);
-		}
-		return left;
-	}
-
-	// LogicalOrExpr ::=  LogicalAndExpr ( (  |  |  || ) LogicalAndExpr)*
+	// LogicalOrExpr ::= LogicalAndExpr ( ( | | || ) LogicalAndExpr )*  and the levels below it,
+	// parsed by precedence climbing over the table in BinaryOperators
 	private Expr logicalOrExpr() throws SyntaxException, PLCCompilerException {
-		Expr left = logicalAndExpr();
-
-		while (token.kind() == Kind.BITOR || token.kind() == Kind.OR) {
-			IToken opToken = token;
-			match(token.kind());
-			Expr right = logicalAndExpr();
-			left = new BinaryExpr(token, left, opToken, right);
-		}
-		return left;
-	}
-
-
-	/* *****************************  Daniel  ***************************** */
-
-	// ComparisonExpr ::= PowExpr ( (< | > | == | <= | >=) PowExpr)*
-	private Expr comparisonExpr() throws SyntaxException, PLCCompilerException {
-		Expr left = powExpr();
-		while (Arrays.asList(Kind.LT, Kind.GT, Kind.EQ, Kind.LE, Kind.GE).contains(token.kind())) {
-			IToken opToken = token;
-			match(token.kind());
-			Expr right = powExpr();
-			left = new BinaryExpr(token, left, opToken, right);
-		}
-		return left;
+		return binaryExpr(BinaryOperators.LOWEST);
 	}
 
-	// PowExpr ::= AdditiveExpr ** PowExpr |   AdditiveExpr
-	private Expr powExpr() throws SyntaxException, PLCCompilerException {
-		Expr left = additiveExpr();
-		if (token.kind() == Kind.EXP) {
-			IToken opToken = token;
-			match(Kind.EXP);
-			Expr right = powExpr();
-			left = new BinaryExpr(token, left, opToken, right);
-		}
-		return left;
-	}
-
-	// AdditiveExpr ::= MultiplicativeExpr ( ( + | -  ) MultiplicativeExpr )*
-	private Expr additiveExpr() throws SyntaxException, PLCCompilerException {
-		Expr left = multiplicativeExpr();
-		while (token.kind() == Kind.PLUS || token.kind() == Kind.MINUS) {
-			IToken opToken = token;
-			match(token.kind());
-			Expr right = multiplicativeExpr();
-			left = new BinaryExpr(token, left, opToken, right);
-		}
-		return left;
-	}
-
-	// MultiplicativeExpr ::= UnaryExpr (( * |  /  |  % ) UnaryExpr)*
-	private Expr multiplicativeExpr() throws SyntaxException, PLCCompilerException {
+	// parses a chain of binary operators whose precedence is at least minPrecedence
+	private Expr binaryExpr(int minPrecedence) throws SyntaxException, PLCCompilerException {
 		Expr left = unaryExpr();
-		while (token.kind() == Kind.TIMES || token.kind() == Kind.DIV || token.kind() == Kind.MOD) {
+		int precedence = BinaryOperators.precedence(token.kind());
+		while (precedence != BinaryOperators.NOT_BINARY && precedence >= minPrecedence) {
 			IToken opToken = token;
 			match(token.kind());
-			Expr right = unaryExpr();
+			Expr right = binaryExpr(BinaryOperators.isRightAssociative(opToken.kind()) ? precedence : precedence + 1);
 			left = new BinaryExpr(token, left, opToken, right);
+			precedence = BinaryOperators.precedence(token.kind());
 		}
 		return left;
 	}
 
 	// UnaryExpr ::=  ( ! | - | length | width) UnaryExpr  |  UnaryExprPostfix
 	private Expr unaryExpr() throws SyntaxException, PLCCompilerException {
-		if (token.kind() == Kind.BANG || token.kind() == Kind.MINUS ||
-				token.kind() == Kind.RES_width || token.kind() == Kind.RES_height) {
-			IToken opToken = token;
-			match(token.kind());
-			Expr expression = unaryExpr();
-			return new UnaryExpr(token, opToken, expression);
-		} else {
+		if (!BinaryOperators.isUnary(token.kind())) {
 			return postfixExpr();
 		}
+		// collect the prefix operators first so a long run of them does not grow the stack
+		Deque<IToken> opTokens = new ArrayDeque<>();
+		while (BinaryOperators.isUnary(token.kind())) {
+			opTokens.push(token);
+			match(token.kind());
+		}
+		Expr expression = postfixExpr();
+		while (!opTokens.isEmpty()) {
+			expression = new UnaryExpr(token, opTokens.pop(), expression);
+		}
+		return expression;
 	}
 
 	/* *****************************  Moksh  ***************************** */
@@ -226,7 +268,7 @@ public class Parser implements IParser {
 	}
 
 
-	// PrimaryExpr ::=STRING_LIT | NUM_LIT |  IDENT | ( Expr ) | Z
+	// PrimaryExpr ::=STRING_LIT | NUM_LIT |  IDENT | ( Expr ) | Z | ExpandedPixel | ConvolveExpr | ReduceExpr
 	private Expr primaryExpr() throws SyntaxException, PLCCompilerException {
 		switch (token.kind()) {
 			case STRING_LIT -> {
@@ -270,8 +312,14 @@ public class Parser implements IParser {
 				match(RPAREN);
 				return expression;
 			}
+			case RES_convolve -> {
+				return convolveExpr();
+			}
+			case RES_reduce -> {
+				return reduceExpr();
+			}
 
-			default -> throw new SyntaxException(token.sourceLocation(), "Expected token of kind ...");
+			default -> throw new SyntaxException(token.sourceLocation(), "Expected an expression but found " + token.kind());
 		}
 	}
 
@@ -401,7 +449,7 @@ public class Parser implements IParser {
 	// method to parse the Statement rule ::=>
 	// Statement::=
 	//       LValue = Expr |
-	//       write Expr |
+	//       write Expr [ -> Expr ] |
 	//       do GuardedBlock [] GuardedBlock* od |
 	//      if GuardedBlock [] GuardedBlock* if |
 	//      ^ Expr |
@@ -420,7 +468,12 @@ public class Parser implements IParser {
 		else if (isKind(Kind.RES_write)) {
 			match(Kind.RES_write);
 			Expr expr = expr();
-			return new WriteStatement(token, expr);
+			Expr destination = null;
+			if (isKind(Kind.RARROW)) {
+				match(Kind.RARROW);
+				destination = expr();
+			}
+			return new WriteStatement(token, expr, destination);
 		}
 		else if (isKind(Kind.RETURN)) {
 			match(Kind.RETURN);
@@ -434,7 +487,7 @@ public class Parser implements IParser {
 			return ifStatement();
 		}
 		else {
-			throw new SyntaxException("Unexpected token in statement: " + token.kind());
+			throw new SyntaxException(token.sourceLocation(), "Unexpected token in statement: " + token.kind());
 		}
 	}
 
@@ -542,18 +595,24 @@ public class Parser implements IParser {
 	private Block block() throws SyntaxException, PLCCompilerException {
 		IToken firstToken = match(Kind.BLOCK_OPEN); // match <:
 		List<Block.BlockElem> blockElems = new ArrayList<>();
-		while (!isKind(Kind.BLOCK_CLOSE) && !isKind(Kind.EOF)) {
-			if (isType()) {
-				Declaration decl = declaration();
-				blockElems.add((Block.BlockElem) decl);
-				match(Kind.SEMI);
-			} else {
-				Statement stmt = statement();
-				blockElems.add((Block.BlockElem) stmt);
-				// Check if the next token is SEMI, indicating the end of a statement
-				if (isKind(Kind.SEMI)) {
+		// fi and od can only close an enclosing if/do, so they also end this block
+		while (!isKind(Kind.BLOCK_CLOSE) && !isKind(Kind.EOF) && !isKind(Kind.RES_fi) && !isKind(Kind.RES_od)) {
+			try {
+				if (isType()) {
+					Declaration decl = declaration();
+					blockElems.add((Block.BlockElem) decl);
 					match(Kind.SEMI);
+				} else {
+					Statement stmt = statement();
+					blockElems.add((Block.BlockElem) stmt);
+					// Check if the next token is SEMI, indicating the end of a statement
+					if (isKind(Kind.SEMI)) {
+						match(Kind.SEMI);
+					}
 				}
+			} catch (SyntaxException e) {
+				errors.add(e);
+				synchronize();
 			}
 		}
 		match(Kind.BLOCK_CLOSE); // match :>
@@ -561,6 +620,31 @@ public class Parser implements IParser {
 	}
 
 
+	// panic mode recovery: skip to the end of the broken declaration or statement.
+	// A ; or a fi/od (with its ;) is consumed, a :> is left for the enclosing block to match.
+	// Blocks opened while skipping are skipped as a whole.
+	private void synchronize() throws LexicalException, SyntaxException {
+		int depth = 0;
+		while (!isKind(Kind.EOF) && !(isKind(Kind.BLOCK_CLOSE) && depth == 0)) {
+			if (isKind(Kind.BLOCK_OPEN)) {
+				depth++;
+			} else if (isKind(Kind.BLOCK_CLOSE)) {
+				depth--;
+			} else if (depth == 0 && isKind(Kind.SEMI)) {
+				match(Kind.SEMI);
+				return;
+			} else if (depth == 0 && (isKind(Kind.RES_fi) || isKind(Kind.RES_od))) {
+				match(token.kind());
+				if (isKind(Kind.SEMI)) {
+					match(Kind.SEMI);
+				}
+				return;
+			}
+			match(token.kind());
+		}
+	}
+
+
 
 	// another helper method (overloading) for block() of type checking
 	private boolean isType() {
@@ -594,18 +678,38 @@ public class Parser implements IParser {
 
 
 
-	// method to parse the LValue rule ::=> LValue ::= IDENT (PixelSelectorIn | ε ) (ChannelSelector | ε )
+	// method to parse the LValue rule ::=> LValue ::= IDENT (PixelSelectorIn | ε ) (ChannelSelector | ε ) (Region | ε )
 	private LValue lvalue() throws LexicalException, PLCCompilerException {
 		IToken ident = match(Kind.IDENT);
 		PixelSelector pixelSelector = null;
 		ChannelSelector channelSelector = null;
+		Region region = null;
 		if (isKind(Kind.LSQUARE)) {
 			pixelSelector = pixelSelector();
 		}
 		if (isKind(Kind.COLON)) {
 			channelSelector = channelSelector();
 		}
-		return new LValue(token, ident, pixelSelector, channelSelector);
+		if (isKind(Kind.RES_within)) {
+			region = region();
+		}
+		return new LValue(token, ident, pixelSelector, channelSelector, region);
+	}
+
+	// Region ::= within [ Expr , Expr , Expr , Expr ]
+	private Region region() throws LexicalException, PLCCompilerException {
+		IToken firstToken = token;
+		match(Kind.RES_within);
+		match(Kind.LSQUARE);
+		Expr x = expr();
+		match(Kind.COMMA);
+		Expr y = expr();
+		match(Kind.COMMA);
+		Expr width = expr();
+		match(Kind.COMMA);
+		Expr height = expr();
+		match(Kind.RSQUARE);
+		return new Region(firstToken, x, y, width, height);
 	}
 
 
@@ -20,6 +20,7 @@ import edu.ufl.cise.cop4020fa23.ast.BooleanLitExpr;
 import edu.ufl.cise.cop4020fa23.ast.ChannelSelector;
 import edu.ufl.cise.cop4020fa23.ast.ConditionalExpr;
 import edu.ufl.cise.cop4020fa23.ast.ConstExpr;
+import edu.ufl.cise.cop4020fa23.ast.ConvolveExpr;
 import edu.ufl.cise.cop4020fa23.ast.Declaration;
 import edu.ufl.cise.cop4020fa23.ast.Dimension;
 import edu.ufl.cise.cop4020fa23.ast.DoStatement;
@@ -34,6 +35,8 @@ import edu.ufl.cise.cop4020fa23.ast.NumLitExpr;
 import edu.ufl.cise.cop4020fa23.ast.PixelSelector;
 import edu.ufl.cise.cop4020fa23.ast.PostfixExpr;
 import edu.ufl.cise.cop4020fa23.ast.Program;
+import edu.ufl.cise.cop4020fa23.ast.ReduceExpr;
+import edu.ufl.cise.cop4020fa23.ast.Region;
 import edu.ufl.cise.cop4020fa23.ast.ReturnStatement;
 import edu.ufl.cise.cop4020fa23.ast.StatementBlock;
 import edu.ufl.cise.cop4020fa23.ast.StringLitExpr;
@@ -894,4 +897,225 @@ class ParserTest_starter {
 	}
 
 
+	@Test
+	void test26() throws PLCCompilerException {
+		// errors on two lines are both reported, the earlier one first
+		String input = """
+			void f() <:
+				int a = ;
+				int b = 2;
+				b = * 3;
+				write b;
+			:>
+			""";
+		SyntaxException e = assertThrows(SyntaxException.class, () -> {
+			@SuppressWarnings("unused")
+			AST ast = getAST(input);
+		});
+		List<SyntaxException> errors = e.getErrors();
+		assertEquals(2, errors.size());
+		assertEquals(2, errors.get(0).getLocation().line());
+		assertEquals(4, errors.get(1).getLocation().line());
+	}
+
+	@Test
+	void test27() throws PLCCompilerException {
+		// an error inside a do statement does not hide the one after it
+		String input = """
+			void f() <:
+				int k = 0;
+				do k < 3 -> <: k = k + ; :> od;
+				string s = "a"
+				write s;
+			:>
+			""";
+		IParser parser = ComponentFactory.makeParser(input);
+		SyntaxException e = assertThrows(SyntaxException.class, () -> {
+			@SuppressWarnings("unused")
+			AST ast = parser.parse();
+		});
+		List<SyntaxException> errors = ((Parser) parser).getErrors();
+		assertEquals(e.getErrors(), errors);
+		assertEquals(2, errors.size());
+		assertEquals(3, errors.get(0).getLocation().line());
+		assertEquals(5, errors.get(1).getLocation().line());
+	}
+
+	@Test
+	void test28() throws PLCCompilerException {
+		// a program with one error reports just that one
+		String input = """
+			int f() <:
+				int a = 3;
+				^ a +;
+			:>
+			""";
+		SyntaxException e = assertThrows(SyntaxException.class, () -> {
+			@SuppressWarnings("unused")
+			AST ast = getAST(input);
+		});
+		assertEquals(1, e.getErrors().size());
+		assertEquals(3, e.getLocation().line());
+	}
+
+	@Test
+	void test29() throws PLCCompilerException {
+		// write with and without a destination
+		String input = """
+			void f() <:
+				image[10,10] im;
+				write im -> "out.png";
+				write im;
+			:>
+			""";
+		AST ast = getAST(input);
+		Program p = checkProgram(ast, "void", "f");
+		List<BlockElem> blockElemList = p.getBlock().getElems();
+		assertEquals(3, blockElemList.size());
+		assertThat("", blockElemList.get(1), instanceOf(WriteStatement.class));
+		WriteStatement toFile = (WriteStatement) blockElemList.get(1);
+		checkIdentExpr(toFile.getExpr(), "im");
+		checkStringLitExpr(toFile.getDestination(), "out.png");
+		WriteStatement toConsole = (WriteStatement) blockElemList.get(2);
+		checkIdentExpr(toConsole.getExpr(), "im");
+		assertNull(toConsole.getDestination());
+	}
+
+	@Test
+	void test30() throws PLCCompilerException {
+		// convolve with and without a divisor
+		String input = """
+			image f(image i) <:
+				image j = convolve(i, [[1,2,1],[2,4,2],[1,2,1]], 16);
+				^convolve(j, [[0,-1,0],[-1,5,-1],[0,-1,0]]);
+			:>
+			""";
+		AST ast = getAST(input);
+		Program p = checkProgram(ast, "image", "f");
+		List<BlockElem> blockElemList = p.getBlock().getElems();
+		assertEquals(2, blockElemList.size());
+		Expr initializer = checkDec(blockElemList.get(0)).getInitializer();
+		assertThat("", initializer, instanceOf(ConvolveExpr.class));
+		ConvolveExpr blur = (ConvolveExpr) initializer;
+		checkIdentExpr(blur.getImage(), "i");
+		assertEquals(3, blur.getKernel().size());
+		for (List<Expr> row : blur.getKernel()) {
+			assertEquals(3, row.size());
+		}
+		checkNumLitExpr(blur.getKernel().get(1).get(1), 4);
+		checkNumLitExpr(blur.getDivisor(), 16);
+		Expr returned = ((ReturnStatement) blockElemList.get(1)).getE();
+		assertThat("", returned, instanceOf(ConvolveExpr.class));
+		ConvolveExpr sharpen = (ConvolveExpr) returned;
+		checkIdentExpr(sharpen.getImage(), "j");
+		checkUnaryExpr(sharpen.getKernel().get(0).get(1), Kind.MINUS);
+		assertNull(sharpen.getDivisor());
+	}
+
+	@Test
+	void test31() throws PLCCompilerException {
+		// a kernel must be a list of rows
+		String input = """
+			image f(image i) <:
+				^convolve(i, [1,2,1]);
+			:>
+			""";
+		assertThrows(SyntaxException.class, () -> {
+			@SuppressWarnings("unused")
+			AST ast = getAST(input);
+		});
+	}
+
+	@Test
+	void test32() throws PLCCompilerException {
+		// the reductions, with a value for count and histogram
+		String input = """
+			int f(image i) <:
+				int sum = reduce(sum, i);
+				int c = reduce(count, i, [0,0,0]);
+				^reduce(histogram, i:red, 3);
+			:>
+			""";
+		AST ast = getAST(input);
+		Program p = checkProgram(ast, "int", "f");
+		List<BlockElem> blockElemList = p.getBlock().getElems();
+		assertEquals(3, blockElemList.size());
+		assertEquals("sum", checkDec(blockElemList.get(0)).getNameDef().getName());
+		Expr sum = checkDec(blockElemList.get(0)).getInitializer();
+		assertThat("", sum, instanceOf(ReduceExpr.class));
+		assertEquals(ReduceExpr.Reduction.SUM, ((ReduceExpr) sum).getReduction());
+		checkIdentExpr(((ReduceExpr) sum).getImage(), "i");
+		assertNull(((ReduceExpr) sum).getValue());
+		ReduceExpr count = (ReduceExpr) checkDec(blockElemList.get(1)).getInitializer();
+		assertEquals(ReduceExpr.Reduction.COUNT, count.getReduction());
+		assertThat("", count.getValue(), instanceOf(ExpandedPixelExpr.class));
+		ReduceExpr histogram = (ReduceExpr) ((ReturnStatement) blockElemList.get(2)).getE();
+		assertEquals(ReduceExpr.Reduction.HISTOGRAM, histogram.getReduction());
+		checkPostfixExpr(histogram.getImage(), false, true);
+		checkNumLitExpr(histogram.getValue(), 3);
+	}
+
+	@Test
+	void test33() throws PLCCompilerException {
+		// only the five reductions are known
+		String input = """
+			int f(image i) <:
+				^reduce(average, i);
+			:>
+			""";
+		assertThrows(SyntaxException.class, () -> {
+			@SuppressWarnings("unused")
+			AST ast = getAST(input);
+		});
+	}
+
+	@Test
+	void test34() throws PLCCompilerException {
+		// a pixel assignment restricted to a region
+		String input = """
+			void f() <:
+				image[10,10] im;
+				im[x,y] within [1, 2, w, 4] = [255,0,0];
+			:>
+			""";
+		AST ast = getAST(input);
+		Program p = checkProgram(ast, "void", "f");
+		List<BlockElem> blockElemList = p.getBlock().getElems();
+		assertThat("", blockElemList.get(1), instanceOf(AssignmentStatement.class));
+		LValue lValue = ((AssignmentStatement) blockElemList.get(1)).getlValue();
+		checkIdentExpr(lValue.getPixelSelector().xExpr(), "x");
+		Region region = lValue.getRegion();
+		assertNotNull(region);
+		checkNumLitExpr(region.getX(), 1);
+		checkNumLitExpr(region.getY(), 2);
+		checkIdentExpr(region.getWidth(), "w");
+		checkNumLitExpr(region.getHeight(), 4);
+		assertThat("", ((AssignmentStatement) blockElemList.get(1)).getE(), instanceOf(ExpandedPixelExpr.class));
+	}
+
+	@Test
+	void test35() throws PLCCompilerException {
+		// a second call of parse reports only its own errors, not those of the first
+		String input = """
+			void f() <:
+				int a = ;
+				int b = * 2;
+			:>
+			""";
+		IParser parser = ComponentFactory.makeParser(input);
+		SyntaxException first = assertThrows(SyntaxException.class, () -> {
+			@SuppressWarnings("unused")
+			AST ast = parser.parse();
+		});
+		assertEquals(2, first.getErrors().size());
+		SyntaxException second = assertThrows(SyntaxException.class, () -> {
+			@SuppressWarnings("unused")
+			AST ast = parser.parse();
+		});
+		List<SyntaxException> errors = ((Parser) parser).getErrors();
+		assertEquals(1, errors.size());
+		assertEquals(second.getErrors(), errors);
+		assertEquals(2, first.getErrors().size());
+	}
+
 }
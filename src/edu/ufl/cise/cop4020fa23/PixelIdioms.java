@@ -0,0 +1,172 @@
+package edu.ufl.cise.cop4020fa23;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.ufl.cise.cop4020fa23.ast.*;
+import edu.ufl.cise.cop4020fa23.exceptions.PLCCompilerException;
+
+/**
+ * Recognizes pixel assignments over a whole image that are a well known image operation, so they
+ * can be generated as a call of a runtime intrinsic instead of loops of getRGB and setRGB:
+ * <ul>
+ * <li>a fill, im[x,y] = e where e reads no image and no loop variable, such as RED or [r, g, b],</li>
+ * <li>a copy, j[x,y] = i[x,y] or j[x,y] = (i:red)[x,y],</li>
+ * <li>a transpose, j[x,y] = i[y,x], and</li>
+ * <li>a channel extraction, j[x,y] = [i[x,y]:red, 0, 0], whose components are each 0 or the
+ * channel of the same pixel in the same position, which is a copy of those channels.</li>
+ * </ul>
+ *
+ * Only assignments to a whole pixel, without a region, of a target other than the image read are
+ * recognized.  Their values then do not depend on the order the pixels are written in.  A source
+ * that is decoded a band at a time (see StreamableImageAnalysis) or has no frame (see
+ * PixelLoopFusion) is not a PlcImage the intrinsics can read, so statements reading one keep
+ * their loops.
+ */
+class PixelIdioms extends ASTWalker {
+
+    enum Operation {
+        FILL, COPY, TRANSPOSE
+    }
+
+    /**
+     * An assignment recognized as an intrinsic.  source is the image read, possibly a channel
+     * extraction, and null for a fill; channels are the channels of a channel extraction written
+     * with a pixel expression, or null if the whole pixel is copied.
+     */
+    record Idiom(Operation operation, Expr source, List<Kind> channels) {
+    }
+
+    private final StreamableImageAnalysis streams;
+    private final PixelLoopFusion fusion;
+
+    private final Map<AssignmentStatement, Idiom> idioms = new IdentityHashMap<>();
+
+    PixelIdioms(StreamableImageAnalysis streams, PixelLoopFusion fusion) {
+        this.streams = streams;
+        this.fusion = fusion;
+    }
+
+    /**
+     * @return the idiom the pixel assignment is, or null if it is not one
+     */
+    public Idiom idiomOf(AssignmentStatement assignmentStatement) {
+        return idioms.get(assignmentStatement);
+    }
+
+    @Override
+    public Object visitAssignmentStatement(AssignmentStatement assignmentStatement, Object arg) throws PLCCompilerException {
+        LValue lValue = assignmentStatement.getlValue();
+        PixelSelector pixelSelector = lValue.getPixelSelector();
+        if (pixelSelector == null || lValue.getChannelSelector() != null || lValue.getRegion() != null
+                || lValue.getNameDef() == null || lValue.getNameDef().getType() != Type.IMAGE
+                || streams.readsStreamedImage(assignmentStatement)) {
+            return super.visitAssignmentStatement(assignmentStatement, arg);
+        }
+        String x = loopVariable(pixelSelector.xExpr());
+        String y = loopVariable(pixelSelector.yExpr());
+        if (x != null && y != null && !x.equals(y)) {
+            Idiom idiom = match(lValue, assignmentStatement.getE(), x, y);
+            if (idiom != null) {
+                idioms.put(assignmentStatement, idiom);
+            }
+        }
+        return super.visitAssignmentStatement(assignmentStatement, arg);
+    }
+
+    private Idiom match(LValue lValue, Expr expr, String x, String y) throws PLCCompilerException {
+        if ((expr.getType() == Type.PIXEL || expr.getType() == Type.INT) && isInvariant(expr)) {
+            return new Idiom(Operation.FILL, null, null);
+        }
+        if (expr instanceof PostfixExpr && ((PostfixExpr) expr).channel() == null) {
+            return read(lValue, (PostfixExpr) expr, x, y, null);
+        }
+        if (!(expr instanceof ExpandedPixelExpr)) {
+            return null;
+        }
+        ExpandedPixelExpr pixel = (ExpandedPixelExpr) expr;
+        Expr[] components = { pixel.getRed(), pixel.getGreen(), pixel.getBlue() };
+        Kind[] colors = { Kind.RES_red, Kind.RES_green, Kind.RES_blue };
+        List<Kind> channels = new ArrayList<>();
+        PostfixExpr read = null;
+        for (int i = 0; i < components.length; i++) {
+            Integer value = ShapeInferenceVisitor.constantValue(components[i]);
+            if (value != null && value == 0) {
+                continue;
+            }
+            if (!(components[i] instanceof PostfixExpr)) {
+                return null;
+            }
+            PostfixExpr component = (PostfixExpr) components[i];
+            if (component.channel() == null || component.channel().color() != colors[i]
+                    || read != null && !sameRead(read, component)) {
+                return null;
+            }
+            read = component;
+            channels.add(colors[i]);
+        }
+        return read == null ? null : read(lValue, read, x, y, channels);
+    }
+
+    // the copy or transpose that assigns read, source[x,y] or source[y,x], or null if it is neither
+    private Idiom read(LValue lValue, PostfixExpr read, String x, String y, List<Kind> channels) {
+        PixelSelector pixelSelector = read.pixel();
+        if (pixelSelector == null) {
+            return null;
+        }
+        Expr source = read.primary();
+        Expr image = source;
+        while (image instanceof PostfixExpr && ((PostfixExpr) image).pixel() == null
+                && ((PostfixExpr) image).channel() != null) {
+            image = ((PostfixExpr) image).primary();
+        }
+        if (!(image instanceof IdentExpr) || image.getType() != Type.IMAGE) {
+            return null;
+        }
+        NameDef nameDef = ((IdentExpr) image).getNameDef();
+        if (nameDef == null || nameDef == lValue.getNameDef() || fusion.isScalarized(nameDef)) {
+            return null;
+        }
+        String readX = loopVariable(pixelSelector.xExpr());
+        String readY = loopVariable(pixelSelector.yExpr());
+        if (x.equals(readX) && y.equals(readY)) {
+            return new Idiom(Operation.COPY, source, channels);
+        }
+        if (y.equals(readX) && x.equals(readY)) {
+            return new Idiom(Operation.TRANSPOSE, source, channels);
+        }
+        return null;
+    }
+
+    // true if both are a pixel of the same image at the same coordinates
+    private static boolean sameRead(PostfixExpr read, PostfixExpr other) {
+        return other.pixel() != null && read.primary() instanceof IdentExpr && other.primary() instanceof IdentExpr
+                && ((IdentExpr) read.primary()).getNameDef() == ((IdentExpr) other.primary()).getNameDef()
+                && String.valueOf(loopVariable(read.pixel().xExpr())).equals(loopVariable(other.pixel().xExpr()))
+                && String.valueOf(loopVariable(read.pixel().yExpr())).equals(loopVariable(other.pixel().yExpr()));
+    }
+
+    // true if expr has the same value at every pixel: it mentions no loop variable and no image
+    private static boolean isInvariant(Expr expr) throws PLCCompilerException {
+        boolean[] invariant = { true };
+        expr.visit(new ASTWalker() {
+            @Override
+            public Object visitIdentExpr(IdentExpr identExpr, Object arg) {
+                if (identExpr.getNameDef() instanceof SyntheticNameDef || identExpr.getType() == Type.IMAGE) {
+                    invariant[0] = false;
+                }
+                return null;
+            }
+        }, null);
+        return invariant[0];
+    }
+
+    private static String loopVariable(Expr expr) {
+        if (expr instanceof IdentExpr && ((IdentExpr) expr).getNameDef() instanceof SyntheticNameDef) {
+            return ((IdentExpr) expr).getName();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,255 @@
+package edu.ufl.cise.cop4020fa23;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.ufl.cise.cop4020fa23.ast.*;
+import edu.ufl.cise.cop4020fa23.exceptions.PLCCompilerException;
+
+/**
+ * Finds runs of consecutive pixel assignments, such as
+ * <pre>
+ * a[x,y] = ...;
+ * b[x,y] = f(a[x,y]);
+ * c[x,y] = g(b[x,y]);
+ * </pre>
+ * that can be generated as a single pair of loops, computing every statement for a pixel before
+ * moving to the next one, so the images are traversed once instead of once per statement.
+ *
+ * A statement joins the run before it when
+ * <ul>
+ * <li>its target has the same shape, known at compile time, and is indexed by the same implicit
+ * loop variables over the whole image, without a region,</li>
+ * <li>its loops can visit the pixels row by row without tiles (see PixelLoopOrder), which is the
+ * order of the fused loops, and</li>
+ * <li>it reads the targets of the run, and the run reads its target, only at the pixel being
+ * assigned, so each statement sees the same values as it would in its own loops.</li>
+ * </ul>
+ *
+ * A target of a run that is declared without an initializer in the same block and mentioned
+ * nowhere else, apart from reads in the run after its first assignment, does not need a frame at
+ * all: its pixel is kept in a local variable of the fused loop.
+ */
+class PixelLoopFusion extends ASTWalker {
+
+    private final ShapeInferenceVisitor shapes;
+    private final PixelLoopOrder loopOrder;
+
+    // length of each run, keyed on its first statement
+    private final Map<Block.BlockElem, Integer> runs = new IdentityHashMap<>();
+    private final Set<NameDef> scalarized = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    PixelLoopFusion(ShapeInferenceVisitor shapes, PixelLoopOrder loopOrder) {
+        this.shapes = shapes;
+        this.loopOrder = loopOrder;
+    }
+
+    /**
+     * @return the number of statements fused into one loop starting with elem, 1 if it is not the
+     *         first statement of a run
+     */
+    public int runLength(Block.BlockElem elem) {
+        return runs.getOrDefault(elem, 1);
+    }
+
+    /**
+     * @return true if the image's pixel is kept in a local variable of a fused loop, so the image
+     *         is not allocated
+     */
+    public boolean isScalarized(NameDef nameDef) {
+        return scalarized.contains(nameDef);
+    }
+
+    @Override
+    public Object visitBlock(Block block, Object arg) throws PLCCompilerException {
+        List<Block.BlockElem> elems = block.getElems();
+        int start = 0;
+        while (start < elems.size()) {
+            int end = runEnd(elems, start);
+            if (end - start > 1) {
+                runs.put(elems.get(start), end - start);
+                scalarize(elems, start, end);
+            }
+            start = end;
+        }
+        return super.visitBlock(block, arg);
+    }
+
+    // index after the last statement of the run starting at start
+    private int runEnd(List<Block.BlockElem> elems, int start) throws PLCCompilerException {
+        if (!isFusible(elems.get(start))) {
+            return start + 1;
+        }
+        List<AssignmentStatement> run = new ArrayList<>();
+        run.add((AssignmentStatement) elems.get(start));
+        int end = start + 1;
+        while (end < elems.size() && isFusible(elems.get(end))
+                && fitsRun(run, (AssignmentStatement) elems.get(end))) {
+            run.add((AssignmentStatement) elems.get(end));
+            end++;
+        }
+        return end;
+    }
+
+    private boolean isFusible(Block.BlockElem elem) {
+        if (!(elem instanceof AssignmentStatement)) {
+            return false;
+        }
+        AssignmentStatement statement = (AssignmentStatement) elem;
+        LValue lValue = statement.getlValue();
+        PixelSelector pixelSelector = lValue.getPixelSelector();
+        if (lValue.getNameDef() == null || lValue.getNameDef().getType() != Type.IMAGE || pixelSelector == null
+                || lValue.getRegion() != null) {
+            return false;
+        }
+        String x = loopVariable(pixelSelector.xExpr());
+        String y = loopVariable(pixelSelector.yExpr());
+        return x != null && y != null && !x.equals(y) && shapes.shapeOf(lValue.getNameDef()) != null
+                && loopOrder.isRowOrder(statement) && !loopOrder.isTiled(statement);
+    }
+
+    private boolean fitsRun(List<AssignmentStatement> run, AssignmentStatement statement) throws PLCCompilerException {
+        LValue first = run.get(0).getlValue();
+        LValue lValue = statement.getlValue();
+        if (!shapes.shapeOf(first.getNameDef()).equals(shapes.shapeOf(lValue.getNameDef()))
+                || !loopVariable(first.getPixelSelector().xExpr()).equals(loopVariable(lValue.getPixelSelector().xExpr()))
+                || !loopVariable(first.getPixelSelector().yExpr()).equals(loopVariable(lValue.getPixelSelector().yExpr()))) {
+            return false;
+        }
+        Uses uses = rightSideUses(statement);
+        for (AssignmentStatement earlier : run) {
+            if (!uses.onlyReadsPixel(target(earlier)) || !rightSideUses(earlier).onlyReadsPixel(target(statement))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void scalarize(List<Block.BlockElem> elems, int start, int end) throws PLCCompilerException {
+        for (int i = start; i < end; i++) {
+            NameDef image = target((AssignmentStatement) elems.get(i));
+            if (!scalarized.contains(image) && isScalarizable(image, elems, start, end)) {
+                scalarized.add(image);
+            }
+        }
+    }
+
+    private boolean isScalarizable(NameDef image, List<Block.BlockElem> elems, int start, int end) throws PLCCompilerException {
+        boolean assigned = false;
+        for (int i = start; i < end; i++) {
+            AssignmentStatement statement = (AssignmentStatement) elems.get(i);
+            Uses uses = rightSideUses(statement);
+            if (!assigned && uses.mentions(image)
+                    || target(statement) == image && statement.getlValue().getChannelSelector() != null) {
+                // reads the initial pixels, or keeps part of the old pixel
+                return false;
+            }
+            assigned |= target(statement) == image;
+        }
+        boolean declared = false;
+        for (int i = 0; i < elems.size(); i++) {
+            if (start <= i && i < end) {
+                continue;
+            }
+            Block.BlockElem elem = elems.get(i);
+            if (i < start && elem instanceof Declaration && ((Declaration) elem).getNameDef() == image) {
+                declared = ((Declaration) elem).getInitializer() == null;
+                continue;
+            }
+            Uses uses = new Uses(null, null);
+            uses.walk(elem, null);
+            if (uses.mentions(image)) {
+                return false;
+            }
+        }
+        return declared;
+    }
+
+    private static NameDef target(AssignmentStatement statement) {
+        return statement.getlValue().getNameDef();
+    }
+
+    private static Uses rightSideUses(AssignmentStatement statement) throws PLCCompilerException {
+        PixelSelector pixelSelector = statement.getlValue().getPixelSelector();
+        Uses uses = new Uses(loopVariable(pixelSelector.xExpr()), loopVariable(pixelSelector.yExpr()));
+        uses.walk(statement.getE(), null);
+        return uses;
+    }
+
+    private static String loopVariable(Expr expr) {
+        if (expr instanceof IdentExpr && ((IdentExpr) expr).getNameDef() instanceof SyntheticNameDef) {
+            return ((IdentExpr) expr).getName();
+        }
+        return null;
+    }
+
+    /**
+     * Names mentioned by the nodes walked, separating the images read only at the pixel (xLoop,
+     * yLoop), directly or through a channel extraction, from every other use.
+     */
+    private static class Uses extends ASTWalker {
+
+        private final String xLoop;
+        private final String yLoop;
+        private final Set<NameDef> pixelReads = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Set<NameDef> otherUses = Collections.newSetFromMap(new IdentityHashMap<>());
+        // names of uses the type checker did not resolve
+        private final List<String> unresolved = new ArrayList<>();
+
+        Uses(String xLoop, String yLoop) {
+            this.xLoop = xLoop;
+            this.yLoop = yLoop;
+        }
+
+        boolean mentions(NameDef nameDef) {
+            return pixelReads.contains(nameDef) || otherUses.contains(nameDef) || unresolved.contains(nameDef.getName());
+        }
+
+        boolean onlyReadsPixel(NameDef nameDef) {
+            return !otherUses.contains(nameDef) && !unresolved.contains(nameDef.getName());
+        }
+
+        @Override
+        public Object visitPostfixExpr(PostfixExpr postfixExpr, Object arg) throws PLCCompilerException {
+            Expr primary = postfixExpr.primary();
+            while (primary instanceof PostfixExpr && ((PostfixExpr) primary).pixel() == null
+                    && ((PostfixExpr) primary).channel() != null) {
+                primary = ((PostfixExpr) primary).primary();
+            }
+            PixelSelector pixelSelector = postfixExpr.pixel();
+            if (xLoop != null && pixelSelector != null && primary instanceof IdentExpr
+                    && ((IdentExpr) primary).getNameDef() != null
+                    && xLoop.equals(loopVariable(pixelSelector.xExpr()))
+                    && yLoop.equals(loopVariable(pixelSelector.yExpr()))) {
+                pixelReads.add(((IdentExpr) primary).getNameDef());
+                return null;
+            }
+            return super.visitPostfixExpr(postfixExpr, arg);
+        }
+
+        @Override
+        public Object visitIdentExpr(IdentExpr identExpr, Object arg) throws PLCCompilerException {
+            NameDef nameDef = identExpr.getNameDef();
+            if (nameDef == null) {
+                unresolved.add(identExpr.getName());
+            } else if (!(nameDef instanceof SyntheticNameDef)) {
+                otherUses.add(nameDef);
+            }
+            return null;
+        }
+
+        @Override
+        public Object visitLValue(LValue lValue, Object arg) throws PLCCompilerException {
+            if (lValue.getNameDef() == null) {
+                unresolved.add(lValue.getName());
+            } else {
+                otherUses.add(lValue.getNameDef());
+            }
+            return super.visitLValue(lValue, arg);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package edu.ufl.cise.cop4020fa23;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import edu.ufl.cise.cop4020fa23.ast.*;
+import edu.ufl.cise.cop4020fa23.exceptions.PLCCompilerException;
+
+/**
+ * Order of the loops of pixel assignments im[x,y] = e whose coordinates are the implicit loop
+ * variables.  Images are stored row by row, so the y loop goes outside and the x loop inside.
+ *
+ * An assignment that reads across rows, as the transpose j[x,y] = i[y,x] / 2 does, reads a column
+ * for each row it writes.  If its target is at least MIN_TILED_SIDE pixels on each side it is
+ * visited in square tiles instead, so that the rows it reads stay in the cache while the tile is
+ * written.  A smaller one keeps the source order, x outside, when it reads only across rows, since
+ * its reads then go along the rows, and is visited row by row when it also reads along rows.
+ * PixelLoopOrderBenchmark measures these orders; the thresholds are where tiles and the
+ * interchange start to pay off.
+ *
+ * An assignment that reads a streamed image is visited row by row and never in tiles, whatever the
+ * mode below: the image is decoded a band of rows at a time, and a tile reaching back to rows of an
+ * earlier band would decode that band again.
+ *
+ * The source order is also kept when the right side reads the target, since then the value of a
+ * pixel can depend on the pixels written before it.  Otherwise expressions have no side effects and
+ * images never share frames, so every order computes the same image.
+ *
+ * The system property plc.loopOrder set to "source" keeps the source order everywhere, "rows"
+ * never tiles and "tiles" tiles every assignment that reads across rows; the default is "auto".
+ */
+class PixelLoopOrder extends ASTWalker {
+
+    // smallest side, in pixels, of a target image whose assignment reading across rows is tiled
+    static final int MIN_TILED_SIDE = 3000;
+
+    private final ShapeInferenceVisitor shapes;
+    private final StreamableImageAnalysis streams;
+    private final String mode = System.getProperty("plc.loopOrder", "auto");
+
+    // x loop variable and target of the pixel assignment whose right side is being walked
+    private String xLoop;
+    private LValue target;
+    private boolean readsTarget;
+    private boolean readsAcrossRows;
+    private boolean readsAlongRows;
+    // true while walking an expression that is, or is part of, the row coordinate of a pixel read
+    private boolean inRowCoordinate;
+
+    private final Set<AssignmentStatement> rowOrder = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<AssignmentStatement> tiled = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    PixelLoopOrder(ShapeInferenceVisitor shapes, StreamableImageAnalysis streams) {
+        this.shapes = shapes;
+        this.streams = streams;
+    }
+
+    /**
+     * @return true if the loops of the pixel assignment can visit the pixels row by row
+     */
+    public boolean isRowOrder(AssignmentStatement assignmentStatement) {
+        return rowOrder.contains(assignmentStatement);
+    }
+
+    /**
+     * @return true if the loops of the pixel assignment should visit the pixels tile by tile
+     */
+    public boolean isTiled(AssignmentStatement assignmentStatement) {
+        return tiled.contains(assignmentStatement);
+    }
+
+    @Override
+    public Object visitAssignmentStatement(AssignmentStatement assignmentStatement, Object arg) throws PLCCompilerException {
+        LValue lValue = assignmentStatement.getlValue();
+        walk(lValue, arg);
+        PixelSelector pixelSelector = lValue.getPixelSelector();
+        String x = pixelSelector == null ? null : loopVariable(pixelSelector.xExpr());
+        String y = pixelSelector == null ? null : loopVariable(pixelSelector.yExpr());
+        if (x == null || y == null || x.equals(y)) {
+            walk(assignmentStatement.getE(), arg);
+            return null;
+        }
+        xLoop = x;
+        target = lValue;
+        readsTarget = false;
+        readsAcrossRows = false;
+        readsAlongRows = false;
+        try {
+            walk(assignmentStatement.getE(), arg);
+            if (readsTarget) {
+                return null;
+            }
+            if (streams.readsStreamedImage(assignmentStatement)) {
+                rowOrder.add(assignmentStatement);
+                return null;
+            }
+            if (mode.equals("source")) {
+                return null;
+            }
+            if (!readsAcrossRows || mode.equals("rows")) {
+                rowOrder.add(assignmentStatement);
+            } else if (mode.equals("tiles") || isLarge(lValue)) {
+                rowOrder.add(assignmentStatement);
+                tiled.add(assignmentStatement);
+            } else if (readsAlongRows) {
+                rowOrder.add(assignmentStatement);
+            }
+        } finally {
+            xLoop = null;
+            target = null;
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitPostfixExpr(PostfixExpr postfixExpr, Object arg) throws PLCCompilerException {
+        PixelSelector pixelSelector = postfixExpr.pixel();
+        if (pixelSelector == null || target == null) {
+            return super.visitPostfixExpr(postfixExpr, arg);
+        }
+        walk(postfixExpr.primary(), arg);
+        walk(pixelSelector.xExpr(), arg);
+        boolean outer = inRowCoordinate;
+        boolean across = readsAcrossRows;
+        inRowCoordinate = true;
+        readsAcrossRows = false;
+        try {
+            walk(pixelSelector.yExpr(), arg);
+            // a read whose row does not depend on the column being written goes along the rows
+            readsAlongRows |= !readsAcrossRows;
+        } finally {
+            inRowCoordinate = outer;
+            readsAcrossRows |= across;
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitIdentExpr(IdentExpr identExpr, Object arg) throws PLCCompilerException {
+        if (target == null) {
+            return null;
+        }
+        NameDef nameDef = identExpr.getNameDef();
+        if (nameDef instanceof SyntheticNameDef) {
+            // the row read depends on the column being written
+            if (inRowCoordinate && identExpr.getName().equals(xLoop)) {
+                readsAcrossRows = true;
+            }
+        } else if (nameDef == null || target.getNameDef() == null ? identExpr.getName().equals(target.getName())
+                : nameDef == target.getNameDef()) {
+            readsTarget = true;
+        }
+        return null;
+    }
+
+    // true if the target is known to be big enough for tiles to pay off
+    private boolean isLarge(LValue lValue) {
+        ShapeInferenceVisitor.Shape shape = shapes.shapeOf(lValue.getNameDef());
+        return shape != null && Math.min(shape.width(), shape.height()) >= MIN_TILED_SIDE;
+    }
+
+    private static String loopVariable(Expr expr) {
+        if (expr instanceof IdentExpr && ((IdentExpr) expr).getNameDef() instanceof SyntheticNameDef) {
+            return ((IdentExpr) expr).getName();
+        }
+        return null;
+    }
+}
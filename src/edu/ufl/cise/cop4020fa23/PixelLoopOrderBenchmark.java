@@ -0,0 +1,100 @@
+package edu.ufl.cise.cop4020fa23;
+
+import java.lang.reflect.Method;
+
+import edu.ufl.cise.cop4020fa23.DynamicJavaCompileAndExecute.DynamicClassLoader;
+import edu.ufl.cise.cop4020fa23.DynamicJavaCompileAndExecute.DynamicCompiler;
+
+/**
+ * Times the pixel loops generated for each order PixelLoopOrder can choose: "source" keeps the x
+ * loop outside, "rows" puts the y loop outside, "tiles" also visits an assignment that reads
+ * across rows in square tiles, and "auto" is what the compiler chooses by default.  Each program is
+ * compiled with the system property plc.loopOrder set to the order, and the best time of several
+ * calls of its apply method is printed, in milliseconds.
+ *
+ * Run with the directory of the compiled classes as the current directory, since generated code is
+ * compiled against the classes in ./bin (see DynamicCompiler).  The arguments, all optional, are
+ * the number of calls and the sides of the square images.
+ */
+public class PixelLoopOrderBenchmark {
+
+    private static final String PACKAGE_NAME = "edu.ufl.cise.cop4020fa23";
+    private static final String CLASS_NAME = PACKAGE_NAME + ".bench";
+    // times each program runs its assignment per call
+    private static final int PASSES = 20;
+    private static final String[] ORDERS = { "source", "rows", "tiles", "auto" };
+
+    // pixel assignments; %1$d is replaced by the side of the images and %2$s by the source image
+    private static final String[][] ASSIGNMENTS = {
+            { "copy / 2", "j[x,y] = %2$s[x,y] / 2;" },
+            { "flip / 2", "j[x,y] = %2$s[x,%1$d - y - 1] / 2;" },
+            { "transpose / 2", "j[x,y] = %2$s[y,x] / 2;" },
+            { "mirror diagonal", "j[x,y] = %2$s[x,y] / 2 + %2$s[y,x] / 2;" },
+    };
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 7;
+        int[] sides = { 1000, 2000, 3000, 6000 };
+        if (args.length > 1) {
+            sides = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                sides[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%-16s %6s", "assignment", "side");
+        for (String order : ORDERS) {
+            System.out.printf(" %8s", order);
+        }
+        System.out.println();
+        for (int side : sides) {
+            for (String[] assignment : ASSIGNMENTS) {
+                System.out.printf("%-16s %6d", assignment[0], side);
+                for (String order : ORDERS) {
+                    System.out.printf(" %8d", time(program(side, assignment[1]), order, calls));
+                }
+                System.out.println();
+            }
+        }
+    }
+
+    // a program that fills an image of the given side and runs the assignment PASSES times on it
+    private static String program(int side, String assignment) {
+        return String.format("""
+                int bench() <:
+                image[%1$d,%1$d] i;
+                i[x,y] = [x, y, x + y];
+                image[%1$d,%1$d] j;
+                int k = 0;
+                do k < %3$d -> <: %2$s k = k + 1; :> od;
+                int r = j[1,2]:red;
+                ^r;
+                :>
+                """, side, String.format(assignment, side, "i"), PASSES);
+    }
+
+    // best time in milliseconds of the given number of calls of the program, compiled with the loop order
+    private static long time(String source, String order, int calls) throws Exception {
+        String previous = System.getProperty("plc.loopOrder");
+        String javaCode;
+        System.setProperty("plc.loopOrder", order);
+        try {
+            javaCode = ComponentFactory.compile(source, PACKAGE_NAME);
+        } finally {
+            if (previous == null) {
+                System.clearProperty("plc.loopOrder");
+            } else {
+                System.setProperty("plc.loopOrder", previous);
+            }
+        }
+        byte[] byteCode = DynamicCompiler.compile(CLASS_NAME, javaCode);
+        Class<?> benchClass = new DynamicClassLoader(PixelLoopOrderBenchmark.class.getClassLoader()).define(CLASS_NAME, byteCode);
+        Method apply = benchClass.getMethod("apply");
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < calls; i++) {
+            long start = System.nanoTime();
+            apply.invoke(null);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1_000_000;
+    }
+}
@@ -0,0 +1,311 @@
+package edu.ufl.cise.cop4020fa23;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import edu.ufl.cise.cop4020fa23.ast.*;
+import edu.ufl.cise.cop4020fa23.exceptions.PLCCompilerException;
+
+/**
+ * Compile-time image shape inference.  Runs over a type checked Program and records the width and
+ * height of every image variable and image valued expression whose size is known statically.
+ *
+ * A sized declaration such as image[50,50] j has a known shape when both dimension expressions are
+ * constant.  An unsized declaration takes the shape of its image initializer.  Assignments to an
+ * image variable go through copyInto, which keeps the size of the destination, so a variable keeps
+ * the shape it was declared with.  Shapes flow through image arithmetic, channel extraction,
+ * convolution and conditionals whose branches agree.
+ *
+ * The code generator uses the result to emit fixed size loops and to skip resizes and copies.
+ */
+public class ShapeInferenceVisitor implements ASTVisitor {
+
+    public record Shape(int width, int height) {}
+
+    // NameDefs and Exprs define equals by token, so key on identity
+    private final Map<NameDef, Shape> variableShapes = new IdentityHashMap<>();
+    private final Map<Expr, Shape> exprShapes = new IdentityHashMap<>();
+
+    /**
+     * @return the shape of the image declared by nameDef, or null if it is not known at compile time
+     */
+    public Shape shapeOf(NameDef nameDef) {
+        return nameDef == null ? null : variableShapes.get(nameDef);
+    }
+
+    /**
+     * @return the shape of the image valued expression, or null if it is not known at compile time
+     */
+    public Shape shapeOf(Expr expr) {
+        return expr == null ? null : exprShapes.get(expr);
+    }
+
+    /**
+     * Folds int constant expressions built from literals, Z and arithmetic operators.
+     *
+     * @return the value of expr, or null if it is not a compile-time constant
+     */
+    public static Integer constantValue(Expr expr) {
+        if (expr instanceof NumLitExpr) {
+            try {
+                return Integer.parseInt(((NumLitExpr) expr).getText());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (expr instanceof ConstExpr) {
+            return "Z".equals(((ConstExpr) expr).getName()) ? 255 : null;
+        }
+        if (expr instanceof UnaryExpr && ((UnaryExpr) expr).getOp() == Kind.MINUS) {
+            Integer value = constantValue(((UnaryExpr) expr).getExpr());
+            return value == null ? null : -value;
+        }
+        if (expr instanceof BinaryExpr) {
+            BinaryExpr binaryExpr = (BinaryExpr) expr;
+            Integer left = constantValue(binaryExpr.getLeftExpr());
+            Integer right = constantValue(binaryExpr.getRightExpr());
+            if (left == null || right == null) {
+                return null;
+            }
+            return switch (binaryExpr.getOpKind()) {
+                case PLUS -> left + right;
+                case MINUS -> left - right;
+                case TIMES -> left * right;
+                case DIV -> right == 0 ? null : left / right;
+                case MOD -> right == 0 ? null : left % right;
+                default -> null;
+            };
+        }
+        return null;
+    }
+
+    private Shape record(Expr expr, Shape shape) {
+        if (shape != null) {
+            exprShapes.put(expr, shape);
+        }
+        return shape;
+    }
+
+    private Shape visitExpr(Expr expr, Object arg) throws PLCCompilerException {
+        return expr == null ? null : (Shape) expr.visit(this, arg);
+    }
+
+    @Override
+    public Object visitProgram(Program program, Object arg) throws PLCCompilerException {
+        program.getBlock().visit(this, arg);
+        return null;
+    }
+
+    @Override
+    public Object visitBlock(Block block, Object arg) throws PLCCompilerException {
+        for (Block.BlockElem elem : block.getElems()) {
+            elem.visit(this, arg);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitBlockStatement(StatementBlock statementBlock, Object arg) throws PLCCompilerException {
+        return statementBlock.getBlock().visit(this, arg);
+    }
+
+    @Override
+    public Object visitDeclaration(Declaration declaration, Object arg) throws PLCCompilerException {
+        NameDef nameDef = declaration.getNameDef();
+        Expr initializer = declaration.getInitializer();
+        Shape initShape = visitExpr(initializer, arg);
+        if (nameDef.getType() != Type.IMAGE) {
+            return null;
+        }
+        Dimension dimension = nameDef.getDimension();
+        if (dimension != null) {
+            Integer width = constantValue(dimension.getWidth());
+            Integer height = constantValue(dimension.getHeight());
+            if (width != null && height != null) {
+                variableShapes.put(nameDef, new Shape(width, height));
+            }
+        } else if (initShape != null && initializer.getType() == Type.IMAGE) {
+            variableShapes.put(nameDef, initShape);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitNameDef(NameDef nameDef, Object arg) throws PLCCompilerException {
+        return null;
+    }
+
+    @Override
+    public Object visitDimension(Dimension dimension, Object arg) throws PLCCompilerException {
+        return null;
+    }
+
+    @Override
+    public Object visitAssignmentStatement(AssignmentStatement assignmentStatement, Object arg) throws PLCCompilerException {
+        assignmentStatement.getlValue().visit(this, arg);
+        visitExpr(assignmentStatement.getE(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitLValue(LValue lValue, Object arg) throws PLCCompilerException {
+        if (lValue.getPixelSelector() != null) {
+            lValue.getPixelSelector().visit(this, arg);
+        }
+        if (lValue.getRegion() != null) {
+            lValue.getRegion().visit(this, arg);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitRegion(Region region, Object arg) throws PLCCompilerException {
+        visitExpr(region.getX(), arg);
+        visitExpr(region.getY(), arg);
+        visitExpr(region.getWidth(), arg);
+        visitExpr(region.getHeight(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitWriteStatement(WriteStatement writeStatement, Object arg) throws PLCCompilerException {
+        visitExpr(writeStatement.getExpr(), arg);
+        visitExpr(writeStatement.getDestination(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitReturnStatement(ReturnStatement returnStatement, Object arg) throws PLCCompilerException {
+        visitExpr(returnStatement.getE(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitDoStatement(DoStatement doStatement, Object arg) throws PLCCompilerException {
+        for (GuardedBlock gBlock : doStatement.getGuardedBlocks()) {
+            gBlock.visit(this, arg);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitIfStatement(IfStatement ifStatement, Object arg) throws PLCCompilerException {
+        for (GuardedBlock gBlock : ifStatement.getGuardedBlocks()) {
+            gBlock.visit(this, arg);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitGuardedBlock(GuardedBlock guardedBlock, Object arg) throws PLCCompilerException {
+        visitExpr(guardedBlock.getGuard(), arg);
+        guardedBlock.getBlock().visit(this, arg);
+        return null;
+    }
+
+    @Override
+    public Object visitIdentExpr(IdentExpr identExpr, Object arg) throws PLCCompilerException {
+        if (identExpr.getType() != Type.IMAGE) {
+            return null;
+        }
+        return record(identExpr, shapeOf(identExpr.getNameDef()));
+    }
+
+    @Override
+    public Object visitBinaryExpr(BinaryExpr binaryExpr, Object arg) throws PLCCompilerException {
+        Shape left = visitExpr(binaryExpr.getLeftExpr(), arg);
+        Shape right = visitExpr(binaryExpr.getRightExpr(), arg);
+        if (binaryExpr.getType() != Type.IMAGE) {
+            return null;
+        }
+        if (binaryExpr.getRightExpr().getType() == Type.IMAGE) {
+            // the runtime rejects images of different sizes, so only a matching pair has a shape
+            return record(binaryExpr, left != null && left.equals(right) ? left : null);
+        }
+        return record(binaryExpr, left);
+    }
+
+    @Override
+    public Object visitUnaryExpr(UnaryExpr unaryExpr, Object arg) throws PLCCompilerException {
+        visitExpr(unaryExpr.getExpr(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitPostfixExpr(PostfixExpr postfixExpr, Object arg) throws PLCCompilerException {
+        Shape primary = visitExpr(postfixExpr.primary(), arg);
+        if (postfixExpr.pixel() != null) {
+            postfixExpr.pixel().visit(this, arg);
+        }
+        if (postfixExpr.getType() != Type.IMAGE) {
+            return null;
+        }
+        return record(postfixExpr, primary);
+    }
+
+    @Override
+    public Object visitConditionalExpr(ConditionalExpr conditionalExpr, Object arg) throws PLCCompilerException {
+        visitExpr(conditionalExpr.getGuardExpr(), arg);
+        Shape trueShape = visitExpr(conditionalExpr.getTrueExpr(), arg);
+        Shape falseShape = visitExpr(conditionalExpr.getFalseExpr(), arg);
+        if (conditionalExpr.getType() != Type.IMAGE || trueShape == null || !trueShape.equals(falseShape)) {
+            return null;
+        }
+        return record(conditionalExpr, trueShape);
+    }
+
+    @Override
+    public Object visitExpandedPixelExpr(ExpandedPixelExpr expandedPixelExpr, Object arg) throws PLCCompilerException {
+        visitExpr(expandedPixelExpr.getRed(), arg);
+        visitExpr(expandedPixelExpr.getGreen(), arg);
+        visitExpr(expandedPixelExpr.getBlue(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitConvolveExpr(ConvolveExpr convolveExpr, Object arg) throws PLCCompilerException {
+        Shape image = visitExpr(convolveExpr.getImage(), arg);
+        visitExpr(convolveExpr.getDivisor(), arg);
+        // the result is the size of the image convolved
+        return record(convolveExpr, image);
+    }
+
+    @Override
+    public Object visitReduceExpr(ReduceExpr reduceExpr, Object arg) throws PLCCompilerException {
+        visitExpr(reduceExpr.getImage(), arg);
+        visitExpr(reduceExpr.getValue(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitPixelSelector(PixelSelector pixelSelector, Object arg) throws PLCCompilerException {
+        visitExpr(pixelSelector.xExpr(), arg);
+        visitExpr(pixelSelector.yExpr(), arg);
+        return null;
+    }
+
+    @Override
+    public Object visitChannelSelector(ChannelSelector channelSelector, Object arg) throws PLCCompilerException {
+        return null;
+    }
+
+    @Override
+    public Object visitStringLitExpr(StringLitExpr stringLitExpr, Object arg) throws PLCCompilerException {
+        return null;
+    }
+
+    @Override
+    public Object visitNumLitExpr(NumLitExpr numLitExpr, Object arg) throws PLCCompilerException {
+        return null;
+    }
+
+    @Override
+    public Object visitBooleanLitExpr(BooleanLitExpr booleanLitExpr, Object arg) throws PLCCompilerException {
+        return null;
+    }
+
+    @Override
+    public Object visitConstExpr(ConstExpr constExpr, Object arg) throws PLCCompilerException {
+        return null;
+    }
+}
@@ -0,0 +1,173 @@
+package edu.ufl.cise.cop4020fa23;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.ufl.cise.cop4020fa23.ast.*;
+import edu.ufl.cise.cop4020fa23.exceptions.PLCCompilerException;
+
+/**
+ * Finds images that can be decoded a band of rows at a time instead of all at once.
+ *
+ * An image qualifies when it is declared without a size and initialized from a file or URL, as in
+ * image i = "big.png", is never assigned, and is only used as
+ * <ul>
+ * <li>the operand of width or height, or</li>
+ * <li>i[x,y] or (i:red)[x,y], possibly with a channel, on the right side of a pixel assignment
+ * im[x,y] = ... whose coordinates are the implicit loop variables, read at the same coordinates.</li>
+ * </ul>
+ * Such a program reads each pixel of i once, at the coordinate being written, so if the assignment
+ * loops over rows in the outer loop the image is read from top to bottom and only the band of rows
+ * being processed has to be in memory.
+ */
+class StreamableImageAnalysis extends ASTWalker {
+
+    // loop variables of the pixel assignment whose right side is being walked
+    private String xLoop;
+    private String yLoop;
+    private NameDef target;
+    private AssignmentStatement assignment;
+
+    // keyed on identity; see ShapeInferenceVisitor
+    private final Set<NameDef> candidates = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<NameDef> disqualified = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<AssignmentStatement, List<NameDef>> streamedReads = new IdentityHashMap<>();
+    private final Set<AssignmentStatement> readsTarget = Collections.newSetFromMap(new IdentityHashMap<>());
+    // names of lvalues the type checker did not resolve
+    private final List<String> unresolvedTargets = new ArrayList<>();
+
+    /**
+     * @return true if the image declared by nameDef can be decoded in bands
+     */
+    public boolean isStreamed(NameDef nameDef) {
+        return nameDef != null && candidates.contains(nameDef) && !disqualified.contains(nameDef)
+                && !unresolvedTargets.contains(nameDef.getName());
+    }
+
+    /**
+     * @return true if the pixel assignment reads a streamed image, so its loops must visit the
+     *         pixels row by row
+     */
+    public boolean readsStreamedImage(AssignmentStatement assignmentStatement) {
+        if (readsTarget.contains(assignmentStatement)) {
+            // the order in which pixels are written is visible to the assignment itself
+            return false;
+        }
+        for (NameDef nameDef : streamedReads.getOrDefault(assignmentStatement, List.of())) {
+            if (isStreamed(nameDef)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Object visitDeclaration(Declaration declaration, Object arg) throws PLCCompilerException {
+        super.visitDeclaration(declaration, arg);
+        NameDef nameDef = declaration.getNameDef();
+        Expr initializer = declaration.getInitializer();
+        if (nameDef.getType() == Type.IMAGE && nameDef.getDimension() == null
+                && initializer != null && initializer.getType() == Type.STRING) {
+            candidates.add(nameDef);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitAssignmentStatement(AssignmentStatement assignmentStatement, Object arg) throws PLCCompilerException {
+        LValue lValue = assignmentStatement.getlValue();
+        walk(lValue, arg);
+        PixelSelector pixelSelector = lValue.getPixelSelector();
+        String x = pixelSelector == null ? null : loopVariable(pixelSelector.xExpr());
+        String y = pixelSelector == null ? null : loopVariable(pixelSelector.yExpr());
+        if (x == null || y == null || x.equals(y) || lValue.getChannelSelector() != null) {
+            walk(assignmentStatement.getE(), arg);
+            return null;
+        }
+        xLoop = x;
+        yLoop = y;
+        target = lValue.getNameDef();
+        assignment = assignmentStatement;
+        try {
+            walk(assignmentStatement.getE(), arg);
+        } finally {
+            xLoop = null;
+            yLoop = null;
+            target = null;
+            assignment = null;
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitLValue(LValue lValue, Object arg) throws PLCCompilerException {
+        if (lValue.getNameDef() == null) {
+            unresolvedTargets.add(lValue.getName());
+        } else {
+            disqualified.add(lValue.getNameDef());
+        }
+        return super.visitLValue(lValue, arg);
+    }
+
+    @Override
+    public Object visitPostfixExpr(PostfixExpr postfixExpr, Object arg) throws PLCCompilerException {
+        NameDef image = imageVariable(postfixExpr.primary());
+        PixelSelector pixelSelector = postfixExpr.pixel();
+        if (image != null && candidates.contains(image) && pixelSelector != null && assignment != null
+                && isLoopVariable(pixelSelector.xExpr(), xLoop) && isLoopVariable(pixelSelector.yExpr(), yLoop)) {
+            streamedReads.computeIfAbsent(assignment, a -> new ArrayList<>()).add(image);
+            return null;
+        }
+        return super.visitPostfixExpr(postfixExpr, arg);
+    }
+
+    @Override
+    public Object visitUnaryExpr(UnaryExpr unaryExpr, Object arg) throws PLCCompilerException {
+        Kind op = unaryExpr.getOp();
+        if ((op == Kind.RES_width || op == Kind.RES_height) && imageVariable(unaryExpr.getExpr()) != null) {
+            return null;
+        }
+        return super.visitUnaryExpr(unaryExpr, arg);
+    }
+
+    @Override
+    public Object visitIdentExpr(IdentExpr identExpr, Object arg) throws PLCCompilerException {
+        NameDef nameDef = identExpr.getNameDef();
+        if (nameDef != null) {
+            // any other use needs the whole image
+            disqualified.add(nameDef);
+            if (assignment != null && nameDef == target) {
+                readsTarget.add(assignment);
+            }
+        }
+        return null;
+    }
+
+    // the image variable expr is, looking through channel extractions, which the code generator
+    // applies to the pixels read instead of to the whole image
+    private static NameDef imageVariable(Expr expr) {
+        while (expr instanceof PostfixExpr && ((PostfixExpr) expr).pixel() == null
+                && ((PostfixExpr) expr).channel() != null) {
+            expr = ((PostfixExpr) expr).primary();
+        }
+        if (expr instanceof IdentExpr && expr.getType() == Type.IMAGE) {
+            return ((IdentExpr) expr).getNameDef();
+        }
+        return null;
+    }
+
+    private static String loopVariable(Expr expr) {
+        if (expr instanceof IdentExpr && ((IdentExpr) expr).getNameDef() instanceof SyntheticNameDef) {
+            return ((IdentExpr) expr).getName();
+        }
+        return null;
+    }
+
+    private static boolean isLoopVariable(Expr expr, String name) {
+        return name != null && name.equals(loopVariable(expr));
+    }
+}
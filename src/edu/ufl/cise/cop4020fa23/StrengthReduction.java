@@ -0,0 +1,146 @@
+package edu.ufl.cise.cop4020fa23;
+
+import edu.ufl.cise.cop4020fa23.ast.*;
+import edu.ufl.cise.cop4020fa23.runtime.PixelOps;
+
+/**
+ * Cheaper code for exponentiation, division and remainder, used by the code generator for the
+ * binary expressions a ** b, a / d and a % d and for a pixel divided by an int.
+ *
+ * Exponentiation is done in ints and longs by ImageOps.pow instead of through Math.pow, and a
+ * small constant power of a variable or literal is written out as products of doubles, which are
+ * exact while the result fits an int; both give the result of (int) Math.pow, which saturates.  Division and
+ * remainder by a constant power of two 2^k are shifts and masks: a dividend known not to be
+ * negative is shifted right by k and masked by 2^k - 1, and any other variable first has 2^k - 1
+ * added when it is negative, since Java division truncates toward zero.  A dividend known not to
+ * be negative divided by another positive constant is multiplied by a reciprocal and shifted (see
+ * Granlund and Montgomery, "Division by Invariant Integers using Multiplication").  A signed
+ * dividend divided by such a constant keeps its division, which the JIT already compiles to the
+ * same multiply and shift with a correction for the sign.  The channels of a pixel, which are in
+ * [0, 256), are divided in the same way, by PixelOps.shiftChannels and divideChannels.
+ *
+ * An operand written more than once in the code is a variable or a literal, so it is evaluated
+ * no more often than before, and nothing is removed whose evaluation could fail.
+ */
+final class StrengthReduction {
+
+    // largest constant exponent written out as products
+    static final int MAX_UNROLLED_EXPONENT = 4;
+
+    private StrengthReduction() {
+    }
+
+    /**
+     * @return code for base ** exponent, where base and exponent are INT
+     */
+    static String power(Expr base, String baseCode, Expr exponent, String exponentCode) {
+        Integer constant = ShapeInferenceVisitor.constantValue(exponent);
+        if (constant != null && constant >= 0 && constant <= MAX_UNROLLED_EXPONENT && isLeaf(base)) {
+            if (constant == 0) {
+                return "1";
+            }
+            if (constant == 1) {
+                return "(" + baseCode + ")";
+            }
+            StringBuilder product = new StringBuilder("((int) ((double) ").append(baseCode);
+            for (int i = 1; i < constant; i++) {
+                product.append(" * ").append(baseCode);
+            }
+            return product.append("))").toString();
+        }
+        return "ImageOps.pow(" + baseCode + ", " + exponentCode + ")";
+    }
+
+    /**
+     * @return code for dividend / divisor, or dividend % divisor if remainder, where both are INT,
+     *         or null if the division is not reduced
+     */
+    static String divide(Expr dividend, String dividendCode, Expr divisor, boolean remainder) {
+        Integer d = ShapeInferenceVisitor.constantValue(divisor);
+        if (d == null || d <= 1) {
+            return null;
+        }
+        boolean nonNegative = upperBound(dividend) != null;
+        if (Integer.bitCount(d) == 1) {
+            int k = Integer.numberOfTrailingZeros(d);
+            if (nonNegative) {
+                return remainder ? "(" + dividendCode + " & " + (d - 1) + ")" : "(" + dividendCode + " >> " + k + ")";
+            }
+            if (!isLeaf(dividend)) {
+                return null;
+            }
+            // d - 1 if the dividend is negative, so the shift rounds toward zero
+            String bias = "(" + dividendCode + " >> 31 >>> " + (32 - k) + ")";
+            if (remainder) {
+                return "(" + dividendCode + " - (" + dividendCode + " + " + bias + " & " + -d + "))";
+            }
+            return "(" + dividendCode + " + " + bias + " >> " + k + ")";
+        }
+        if (!nonNegative || remainder && !isLeaf(dividend)) {
+            return null;
+        }
+        String quotient;
+        if (upperBound(dividend) < 256) {
+            quotient = "(" + dividendCode + " * " + PixelOps.channelMultiplier(d) + " >> " + PixelOps.channelShift(d) + ")";
+        } else {
+            // for 0 <= n < 2^31, n / d == n * m >> s with s = 31 + ceil(log2(d)) and m = ceil(2^s / d) < 2^32
+            int shift = 31 + 32 - Integer.numberOfLeadingZeros(d - 1);
+            long multiplier = ((1L << shift) + d - 1) / d;
+            quotient = "((int) ((long) " + dividendCode + " * " + multiplier + "L >>> " + shift + "))";
+        }
+        return remainder ? "(" + dividendCode + " - " + quotient + " * " + d + ")" : quotient;
+    }
+
+    /**
+     * @return code for the PIXEL pixel / divisor, where divisor is INT, or null if the division is
+     *         not reduced
+     */
+    static String dividePixel(String pixelCode, Expr divisor) {
+        Integer d = ShapeInferenceVisitor.constantValue(divisor);
+        if (d == null || d <= 0) {
+            return null;
+        }
+        if (Integer.bitCount(d) == 1) {
+            return "PixelOps.shiftChannels(" + pixelCode + ", " + Math.min(Integer.numberOfTrailingZeros(d), 8) + ")";
+        }
+        return "PixelOps.divideChannels(" + pixelCode + ", " + PixelOps.channelMultiplier(d) + ", "
+                + PixelOps.channelShift(d) + ")";
+    }
+
+    // an operand that costs nothing to evaluate again and cannot fail
+    private static boolean isLeaf(Expr expr) {
+        return expr instanceof IdentExpr || expr instanceof NumLitExpr || expr instanceof ConstExpr;
+    }
+
+    /**
+     * @return an upper bound of the INT expression if it is known never to be negative, else null
+     */
+    static Long upperBound(Expr expr) {
+        Integer constant = ShapeInferenceVisitor.constantValue(expr);
+        if (constant != null) {
+            return constant >= 0 ? (long) constant : null;
+        }
+        if (expr instanceof IdentExpr && ((IdentExpr) expr).getNameDef() instanceof SyntheticNameDef) {
+            // a coordinate of a pixel loop
+            return (long) Integer.MAX_VALUE;
+        }
+        if (expr instanceof PostfixExpr && ((PostfixExpr) expr).channel() != null && expr.getType() == Type.INT) {
+            return 255L;
+        }
+        if (expr instanceof BinaryExpr binaryExpr) {
+            Long left = upperBound(binaryExpr.getLeftExpr());
+            Integer right = ShapeInferenceVisitor.constantValue(binaryExpr.getRightExpr());
+            Long bound = switch (binaryExpr.getOpKind()) {
+                case PLUS -> left == null || upperBound(binaryExpr.getRightExpr()) == null ? null
+                        : left + upperBound(binaryExpr.getRightExpr());
+                case TIMES -> left == null || upperBound(binaryExpr.getRightExpr()) == null ? null
+                        : left * upperBound(binaryExpr.getRightExpr());
+                case DIV -> left == null || right == null || right <= 0 ? null : left / right;
+                case MOD -> left == null || right == null || right <= 0 ? null : (long) right - 1;
+                default -> null;
+            };
+            return bound == null || bound > Integer.MAX_VALUE ? null : bound;
+        }
+        return null;
+    }
+}
@@ -7,11 +7,18 @@ public class Symbol {
     String name;
     int serialNumber;
     private NameDef nameDef;
+    // symbol with the same name in an enclosing scope, visible again once this one's scope is left
+    private final Symbol shadowed;
 
     public Symbol(String name, int serialNumber, NameDef nameDef) {
+        this(name, serialNumber, nameDef, null);
+    }
+
+    Symbol(String name, int serialNumber, NameDef nameDef, Symbol shadowed) {
         this.name = name;
         this.serialNumber = serialNumber;
         this.nameDef = nameDef;
+        this.shadowed = shadowed;
     }
 
     public String getName() {
@@ -29,6 +36,10 @@ public class Symbol {
     public Type getType() {
         return nameDef.getType();
     }
+
+    Symbol getShadowed() {
+        return shadowed;
+    }
 }
 
 
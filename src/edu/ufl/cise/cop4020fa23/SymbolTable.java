@@ -5,13 +5,24 @@ import edu.ufl.cise.cop4020fa23.exceptions.TypeCheckException;
 
 
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Stack;
-
+import java.util.List;
+
+/**
+ * Scoped symbol table.  Each name maps directly to its innermost visible Symbol, which links to the
+ * Symbol it shadows, so lookup is a single hash probe.  Every scope keeps an undo log of the names
+ * inserted in it, so leaving a scope only touches those k names instead of the whole table.
+ *
+ * Used by TypeCheckVisitor to resolve names and by CodeGeneratorVisitor to detect shadowing
+ * when choosing Java names.
+ */
 class SymbolTable {
-    private final HashMap<String, LinkedList<Symbol>> table;
-    private final Stack<Integer> scopeStack;
+    private final HashMap<String, Symbol> table;
+    private final Deque<Integer> scopeStack;
+    private final Deque<List<String>> undoLogs;
     private int currentScope;
     private int nextScope;
 
@@ -19,23 +30,29 @@ class SymbolTable {
 
     public SymbolTable() {
         table = new HashMap<>();
-        scopeStack = new Stack<>();
+        scopeStack = new ArrayDeque<>();
+        undoLogs = new ArrayDeque<>();
         currentScope = 0;
         nextScope = 1;
         scopeStack.push(currentScope);
+        undoLogs.push(new ArrayList<>());
     }
 
     public void enterScope() {
         currentScope = nextScope++;
         scopeStack.push(currentScope);
+        undoLogs.push(new ArrayList<>());
     }
 
     public void leaveScope() {
         if (!scopeStack.isEmpty()) {
-            int oldScope = scopeStack.pop();
-            for (LinkedList<Symbol> list : table.values()) {
-                while (!list.isEmpty() && list.getFirst().getSerialNumber() == oldScope) {
-                    list.removeFirst();
+            scopeStack.pop();
+            for (String name : undoLogs.pop()) {
+                Symbol shadowed = table.get(name).getShadowed();
+                if (shadowed == null) {
+                    table.remove(name);
+                } else {
+                    table.put(name, shadowed);
                 }
             }
             if (!scopeStack.isEmpty()) {
@@ -48,48 +65,28 @@ class SymbolTable {
     public void insert(NameDef nameDef) throws TypeCheckException {
 //        System.out.println("Inserting to SymbolTable: " + nameDef.getName() + " in scope " + currentScope);
         String name = nameDef.getName();
-        LinkedList<Symbol> list = table.get(name);
-        if (list == null) {
-            list = new LinkedList<>();
-            table.put(name, list);
-        } else {
-            for (Symbol symbol : list) {
-                if (symbol.getSerialNumber() == currentScope) {
-                    if (symbol.getNameDef() == nameDef) {
-                        // same declaration is being inserted again.
-                        return;
-                    } else {
-                        throw new TypeCheckException("Name already defined in the current scope: " + name);
-                    }
-                }
+        Symbol visible = table.get(name);
+        if (visible != null && visible.getSerialNumber() == currentScope) {
+            if (visible.getNameDef() == nameDef) {
+                // same declaration is being inserted again.
+                return;
+            } else {
+                throw new TypeCheckException("Name already defined in the current scope: " + name);
             }
         }
-        Symbol symbol = new Symbol(name, currentScope, nameDef);
-        list.addFirst(symbol);
+        table.put(name, new Symbol(name, currentScope, nameDef, visible));
+        undoLogs.peek().add(name);
     }
 
 
     public NameDef lookup(String name) {
-        LinkedList<Symbol> list = table.get(name);
-        if (list != null) {
-            for (int i = scopeStack.size() - 1; i >= 0; i--) {
-                int scope = scopeStack.get(i);
-                for (Symbol symbol : list) {
-                    if (symbol.getSerialNumber() == scope) {
-                        return symbol.getNameDef();
-                    }
-                }
-            }
-        }
-        return null;
+        Symbol symbol = table.get(name);
+        return symbol == null ? null : symbol.getNameDef();
     }
 
     public boolean isDefinedInCurrentScope(String name) {
-        LinkedList<Symbol> list = table.get(name);
-        if (list != null && !list.isEmpty()) {
-            return list.getFirst().getSerialNumber() == currentScope;
-        }
-        return false;
+        Symbol symbol = table.get(name);
+        return symbol != null && symbol.getSerialNumber() == currentScope;
     }
 
 
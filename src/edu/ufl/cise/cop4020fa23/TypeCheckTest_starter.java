@@ -31,6 +31,7 @@ import edu.ufl.cise.cop4020fa23.ast.BooleanLitExpr;
 import edu.ufl.cise.cop4020fa23.ast.ChannelSelector;
 import edu.ufl.cise.cop4020fa23.ast.ConditionalExpr;
 import edu.ufl.cise.cop4020fa23.ast.ConstExpr;
+import edu.ufl.cise.cop4020fa23.ast.ConvolveExpr;
 import edu.ufl.cise.cop4020fa23.ast.Declaration;
 import edu.ufl.cise.cop4020fa23.ast.Dimension;
 import edu.ufl.cise.cop4020fa23.ast.DoStatement;
@@ -44,6 +45,7 @@ import edu.ufl.cise.cop4020fa23.ast.NumLitExpr;
 import edu.ufl.cise.cop4020fa23.ast.PixelSelector;
 import edu.ufl.cise.cop4020fa23.ast.PostfixExpr;
 import edu.ufl.cise.cop4020fa23.ast.Program;
+import edu.ufl.cise.cop4020fa23.ast.ReduceExpr;
 import edu.ufl.cise.cop4020fa23.ast.ReturnStatement;
 import edu.ufl.cise.cop4020fa23.ast.StatementBlock;
 import edu.ufl.cise.cop4020fa23.ast.StringLitExpr;
@@ -1560,4 +1562,271 @@ class TypeCheckTest_starter {
 		checkNumLitExpr(initX, 10);
 	}
 
+	@Test
+	void test35() throws PLCCompilerException {
+		String input = """
+        void f(string s) <:
+            image[10,10] im;
+            write im -> s;
+        :>
+        """;
+		AST ast = getDecoratedAST(input);
+		Program program = checkProgram(ast, Type.VOID, "f");
+		List<BlockElem> blockElems = program.getBlock().getElems();
+		assertThat("", blockElems.get(1), instanceOf(WriteStatement.class));
+		WriteStatement write = (WriteStatement) blockElems.get(1);
+		assertEquals(Type.IMAGE, write.getExpr().getType());
+		assertEquals(Type.STRING, write.getDestination().getType());
+	}
+
+	@Test
+	void test36() throws PLCCompilerException {
+		// only an image can be written to a file
+		String input = """
+        void f() <:
+            int a = 1;
+            write a -> "a.png";
+        :>
+        """;
+		assertThrows(TypeCheckException.class, () -> {
+			@SuppressWarnings("unused")
+			AST ast = getDecoratedAST(input);
+		});
+	}
+
+	@Test
+	void test37() throws PLCCompilerException {
+		// the destination must be a string
+		String input = """
+        void f() <:
+            image[10,10] im;
+            write im -> 3;
+        :>
+        """;
+		assertThrows(TypeCheckException.class, () -> {
+			@SuppressWarnings("unused")
+			AST ast = getDecoratedAST(input);
+		});
+	}
+
+	@Test
+	void test38() throws PLCCompilerException {
+		String input = """
+        image f(image i) <:
+            ^convolve(i, [[1,1,1],[1,1,1],[1,1,1]], 9);
+        :>
+        """;
+		AST ast = getDecoratedAST(input);
+		Program program = checkProgram(ast, Type.IMAGE, "f");
+		Expr returned = ((ReturnStatement) program.getBlock().getElems().get(0)).getE();
+		assertThat("", returned, instanceOf(ConvolveExpr.class));
+		assertEquals(Type.IMAGE, returned.getType());
+		assertEquals(Type.IMAGE, ((ConvolveExpr) returned).getImage().getType());
+	}
+
+	@Test
+	void test39() throws PLCCompilerException {
+		// a kernel has an odd number of rows and columns
+		String input = """
+        image f(image i) <:
+            ^convolve(i, [[1,1],[1,1]]);
+        :>
+        """;
+		assertThrows(TypeCheckException.class, () -> {
+			@SuppressWarnings("unused")
+			AST ast = getDecoratedAST(input);
+		});
+	}
+
+	@Test
+	void test40() throws PLCCompilerException {
+		// the weights are constants
+		String input = """
+        image f(image i, int w) <:
+            ^convolve(i, [[1,1,1],[1,w,1],[1,1,1]]);
+        :>
+        """;
+		assertThrows(TypeCheckException.class, () -> {
+			@SuppressWarnings("unused")
+			AST ast = getDecoratedAST(input);
+		});
+	}
+
+	@Test
+	void test41() throws PLCCompilerException {
+		// the divisor is an int that is not the constant 0, and the operand is an image
+		String zero = """
+        image f(image i) <:
+            ^convolve(i, [[1]], 0);
+        :>
+        """;
+		assertThrows(TypeCheckException.class, () -> {
+			@SuppressWarnings("unused")
+			AST ast = getDecoratedAST(zero);
+		});
+		String notImage = """
+        image f(int i) <:
+            ^convolve(i, [[1]]);
+        :>
+        """;
+		assertThrows(TypeCheckException.class, () -> {
+			@SuppressWarnings("unused")
+			AST ast = getDecoratedAST(notImage);
+		});
+	}
+
+	@Test
+	void test42() throws PLCCompilerException {
+		String input = """
+        int f(image i) <:
+            int m = reduce(max, i:blue);
+            ^reduce(count, i, [1,2,3]) + m;
+        :>
+        """;
+		AST ast = getDecoratedAST(input);
+		Program program = checkProgram(ast, Type.INT, "f");
+		Expr max = checkDec(program.getBlock().getElems().get(0)).getInitializer();
+		assertThat("", max, instanceOf(ReduceExpr.class));
+		assertEquals(Type.INT, max.getType());
+		assertEquals(Type.IMAGE, ((ReduceExpr) max).getImage().getType());
+		BinaryExpr returned = (BinaryExpr) ((ReturnStatement) program.getBlock().getElems().get(1)).getE();
+		assertEquals(Type.INT, returned.getLeftExpr().getType());
+		assertEquals(Type.PIXEL, ((ReduceExpr) returned.getLeftExpr()).getValue().getType());
+	}
+
+	@Test
+	void test43() throws PLCCompilerException {
+		// count takes a pixel, histogram an int, and the operand is an image
+		String count = """
+        int f(image i) <:
+            ^reduce(count, i, 3);
+        :>
+        """;
+		assertThrows(TypeCheckException.class, () -> {
+			@SuppressWarnings("unused")
+			AST ast = getDecoratedAST(count);
+		});
+		String histogram = """
+        int f(image i) <:
+            ^reduce(histogram, i, [1,2,3]);
+        :>
+        """;
+		assertThrows(TypeCheckException.class, () -> {
+			@SuppressWarnings("unused")
+			AST ast = getDecoratedAST(histogram);
+		});
+		String notImage = """
+        int f(pixel p) <:
+            ^reduce(sum, p);
+        :>
+        """;
+		assertThrows(TypeCheckException.class, () -> {
+			@SuppressWarnings("unused")
+			AST ast = getDecoratedAST(notImage);
+		});
+	}
+
+	@Test
+	void test44() throws PLCCompilerException {
+		String input = """
+        void f(int w) <:
+            image[10,10] im;
+            im[x,y] within [1, 2, w, 4] = [x, y, 0];
+        :>
+        """;
+		AST ast = getDecoratedAST(input);
+		Program program = checkProgram(ast, Type.VOID, "f");
+		AssignmentStatement assignment = (AssignmentStatement) program.getBlock().getElems().get(1);
+		assertEquals(Type.INT, assignment.getlValue().getRegion().getWidth().getType());
+		assertEquals(Type.PIXEL, assignment.getlValue().getType());
+	}
+
+	@Test
+	void test45() throws PLCCompilerException {
+		// the selector's coordinates are the loop variables, and the region's sizes are ints that
+		// are not negative constants
+		String[] inputs = { """
+        void f() <:
+            image[10,10] im;
+            im[1,2] within [0, 0, 5, 5] = [255, 0, 0];
+        :>
+        """, """
+        void f() <:
+            image[10,10] im;
+            im[x,y] within [0, 0, -5, 5] = [255, 0, 0];
+        :>
+        """, """
+        void f() <:
+            image[10,10] im;
+            im[x,y] within [0, 0, "5", 5] = [255, 0, 0];
+        :>
+        """ };
+		for (String input : inputs) {
+			assertThrows(TypeCheckException.class, () -> {
+				@SuppressWarnings("unused")
+				AST ast = getDecoratedAST(input);
+			});
+		}
+	}
+
+	@Test
+	void test46() throws PLCCompilerException {
+		// a name declared in a nested block shadows the outer one there, and the outer one is
+		// visible again after the block; the same name may be declared in sibling blocks
+		String input = """
+        int f() <:
+            string a = "s";
+            <: int a = 3; a = a + 1; <: boolean a = TRUE; :>; a = a * 2; :>;
+            <: int a = 4; :>;
+            string b = a;
+            ^ 1;
+        :>
+        """;
+		AST ast = getDecoratedAST(input);
+		List<BlockElem> elems = ((Program) ast).getBlock().getElems();
+		Block inner = ((StatementBlock) elems.get(1)).getBlock();
+		AssignmentStatement increment = (AssignmentStatement) inner.getElems().get(1);
+		assertEquals(Type.INT, increment.getlValue().getNameDef().getType());
+		assertEquals(Type.INT, ((BinaryExpr) increment.getE()).getLeftExpr().getType());
+		AssignmentStatement doubling = (AssignmentStatement) inner.getElems().get(3);
+		assertEquals(Type.INT, doubling.getlValue().getNameDef().getType());
+		Declaration b = (Declaration) elems.get(3);
+		assertEquals(((Declaration) elems.get(0)).getNameDef(), ((IdentExpr) b.getInitializer()).getNameDef());
+	}
+
+	@Test
+	void test47() throws PLCCompilerException {
+		// a name is not visible after its block, and cannot be declared twice in the same block
+		String outOfScope = """
+        int f() <:
+            <: int c = 1; :>;
+            ^ c;
+        :>
+        """;
+		assertThrows(TypeCheckException.class, () -> {
+			@SuppressWarnings("unused")
+			AST ast = getDecoratedAST(outOfScope);
+		});
+		String twice = """
+        int f() <:
+            <: int c = 1; int c = 2; :>;
+            ^ 1;
+        :>
+        """;
+		assertThrows(TypeCheckException.class, () -> {
+			@SuppressWarnings("unused")
+			AST ast = getDecoratedAST(twice);
+		});
+		// the body is a scope of its own, nested in the scope of the parameters
+		String parameter = """
+        int f(int c) <:
+            string c = "s";
+            ^ 1;
+        :>
+        """;
+		AST ast = getDecoratedAST(parameter);
+		Declaration c = (Declaration) ((Program) ast).getBlock().getElems().get(0);
+		assertEquals(Type.STRING, c.getNameDef().getType());
+	}
+
 }
@@ -1,5 +1,6 @@
 package edu.ufl.cise.cop4020fa23;
 
+import java.util.List;
 import java.util.Stack;
 
 
@@ -8,17 +9,22 @@ import edu.ufl.cise.cop4020fa23.exceptions.*;
 
 public class TypeCheckVisitor implements ASTVisitor {
 
-    private SymbolTable symbolTable;
+    private final SymbolTable symbolTable;
 
     //    helper string for context
     private static final String IN_LVALUE_CONTEXT = "IN_LVALUE_CONTEXT";
 
 
     // creatinf stack to store return types of functions/programs
-    private Stack<Type> returnTypeStack = new Stack<>();
+    private final Stack<Type> returnTypeStack;
 
     public TypeCheckVisitor() throws TypeCheckException {
-        this.symbolTable = new SymbolTable();
+        this(new CompilationContext());
+    }
+
+    TypeCheckVisitor(CompilationContext context) {
+        this.symbolTable = context.symbolTable;
+        this.returnTypeStack = context.returnTypeStack;
     }
 
 
@@ -273,6 +279,63 @@ public class TypeCheckVisitor implements ASTVisitor {
     }
 
 
+    // the kernel is a rectangle of constant int weights with an odd number of rows and columns, so it
+    // has a center pixel
+    @Override
+    public Object visitConvolveExpr(ConvolveExpr convolveExpr, Object arg) throws TypeCheckException, PLCCompilerException {
+        Type imageType = (Type) convolveExpr.getImage().visit(this, arg);
+        if (imageType != Type.IMAGE) {
+            throw new TypeCheckException("convolve expects an IMAGE, found: " + imageType);
+        }
+        int columns = convolveExpr.getKernel().get(0).size();
+        if (convolveExpr.getKernel().size() % 2 == 0 || columns % 2 == 0) {
+            throw new TypeCheckException("convolution kernel must have an odd number of rows and columns");
+        }
+        for (List<Expr> row : convolveExpr.getKernel()) {
+            if (row.size() != columns) {
+                throw new TypeCheckException("rows of a convolution kernel must have the same length");
+            }
+            for (Expr weight : row) {
+                if (weight.visit(this, arg) != Type.INT || ShapeInferenceVisitor.constantValue(weight) == null) {
+                    throw new TypeCheckException("convolution kernel weights must be constant INT expressions");
+                }
+            }
+        }
+        Expr divisor = convolveExpr.getDivisor();
+        if (divisor != null) {
+            if (divisor.visit(this, arg) != Type.INT) {
+                throw new TypeCheckException("convolution divisor must be of type INT");
+            }
+            Integer value = ShapeInferenceVisitor.constantValue(divisor);
+            if (value != null && value == 0) {
+                throw new TypeCheckException("convolution divisor must not be 0");
+            }
+        }
+        convolveExpr.setType(Type.IMAGE);
+        return Type.IMAGE;
+    }
+
+
+    // count takes the pixel counted and histogram the channel value counted
+    @Override
+    public Object visitReduceExpr(ReduceExpr reduceExpr, Object arg) throws TypeCheckException, PLCCompilerException {
+        Type imageType = (Type) reduceExpr.getImage().visit(this, arg);
+        if (imageType != Type.IMAGE) {
+            throw new TypeCheckException("reduce expects an IMAGE, found: " + imageType);
+        }
+        if (reduceExpr.getValue() != null) {
+            Type valueType = (Type) reduceExpr.getValue().visit(this, arg);
+            Type expected = reduceExpr.getReduction() == ReduceExpr.Reduction.COUNT ? Type.PIXEL : Type.INT;
+            if (valueType != expected) {
+                throw new TypeCheckException("value of reduce " + reduceExpr.getReduction() + " must be of type "
+                        + expected + ", found: " + valueType);
+            }
+        }
+        reduceExpr.setType(Type.INT);
+        return Type.INT;
+    }
+
+
     @Override
     public Object visitStringLitExpr(StringLitExpr stringLitExpr, Object arg) throws TypeCheckException, PLCCompilerException {
         Type type = Type.STRING;
@@ -299,6 +362,7 @@ public class TypeCheckVisitor implements ASTVisitor {
             if (IN_LVALUE_CONTEXT.equals(arg)) {
                 SyntheticNameDef syntheticNameDef = new SyntheticNameDef(name);
                 symbolTable.insert(syntheticNameDef);
+                identExpr.setNameDef(syntheticNameDef);
                 identExpr.setType(Type.INT);
                 return Type.INT;
             } else {
@@ -306,6 +370,7 @@ public class TypeCheckVisitor implements ASTVisitor {
             }
         }
 
+        identExpr.setNameDef(nameDef);
         identExpr.setType(nameDef.getType());
         return nameDef.getType();
     }
@@ -424,12 +489,19 @@ public class TypeCheckVisitor implements ASTVisitor {
             if (nameDef == null) {
                 throw new TypeCheckException("LValue refers to an undefined name: " + lValue.getName());
             }
+            lValue.setNameDef(nameDef);
         }
 
         Type varType = nameDef.getType();
 
         PixelSelector pixelSelector = lValue.getPixelSelector();
         ChannelSelector channelSelector = lValue.getChannelSelector();
+        Region region = lValue.getRegion();
+
+        if (region != null) {
+            // checked before the pixel selector declares the loop variables, which the region cannot use
+            region.visit(this, null);
+        }
 
         if (pixelSelector != null && varType != Type.IMAGE) {
             throw new TypeCheckException("PixelSelector present, but LValue varType is not IMAGE. found: " + varType);
@@ -466,11 +538,42 @@ public class TypeCheckVisitor implements ASTVisitor {
             throw new TypeCheckException("Invalid combination in LValue.");
         }
 
+        if (region != null && (pixelSelector == null || !isLoopVariable(pixelSelector.xExpr())
+                || !isLoopVariable(pixelSelector.yExpr())
+                || ((IdentExpr) pixelSelector.xExpr()).getName().equals(((IdentExpr) pixelSelector.yExpr()).getName()))) {
+            throw new TypeCheckException("a region needs a pixel selector whose coordinates are two implicit loop variables: "
+                    + lValue.getName());
+        }
+
         return lValue.getType();
     }
 
 
 
+    private static boolean isLoopVariable(Expr expr) {
+        return expr instanceof IdentExpr && ((IdentExpr) expr).getNameDef() instanceof SyntheticNameDef;
+    }
+
+
+    // the region's origin and size are ints; a size that is a negative constant is rejected
+    @Override
+    public Object visitRegion(Region region, Object arg) throws TypeCheckException, PLCCompilerException {
+        for (Expr expr : List.of(region.getX(), region.getY(), region.getWidth(), region.getHeight())) {
+            if (expr.visit(this, arg) != Type.INT) {
+                throw new TypeCheckException("x, y, width and height of a region must be of type INT");
+            }
+        }
+        for (Expr size : List.of(region.getWidth(), region.getHeight())) {
+            Integer value = ShapeInferenceVisitor.constantValue(size);
+            if (value != null && value < 0) {
+                throw new TypeCheckException("width and height of a region must not be negative");
+            }
+        }
+        return null;
+    }
+
+
+
     @Override
     public Object visitAssignmentStatement(AssignmentStatement assignmentStatement, Object arg) throws TypeCheckException, PLCCompilerException {
         LValue lValue = assignmentStatement.getlValue();
@@ -510,6 +613,16 @@ public class TypeCheckVisitor implements ASTVisitor {
         if (exprType == null) {
             throw new TypeCheckException("type of the expression in WriteStatement has not been found yet.");
         }
+        Expr destination = writeStatement.getDestination();
+        if (destination != null) {
+            if (exprType != Type.IMAGE) {
+                throw new TypeCheckException("only an image can be written to a file, found: " + exprType);
+            }
+            Type destinationType = (Type) destination.visit(this, arg);
+            if (destinationType != Type.STRING) {
+                throw new TypeCheckException("destination of write must be a STRING, found: " + destinationType);
+            }
+        }
         return exprType;
     }
 
@@ -193,6 +193,27 @@ public interface ASTVisitor {
 
 	Object visitConstExpr(ConstExpr constExpr, Object arg) throws PLCCompilerException;
 
+	/**
+	 * @param convolveExpr
+	 * @param arg
+	 * @return
+	 */
+	Object visitConvolveExpr(ConvolveExpr convolveExpr, Object arg) throws PLCCompilerException;
+
+	/**
+	 * @param reduceExpr
+	 * @param arg
+	 * @return
+	 */
+	Object visitReduceExpr(ReduceExpr reduceExpr, Object arg) throws PLCCompilerException;
+
+	/**
+	 * @param region
+	 * @param arg
+	 * @return
+	 */
+	Object visitRegion(Region region, Object arg) throws PLCCompilerException;
+
 
 
 }
@@ -0,0 +1,84 @@
+/*Copyright 2023 by Beverly A Sanders
+ *
+ * This code is provided for solely for use of students in COP4020 Programming Language Concepts at the
+ * University of Florida during the fall semester 2023 as part of the course project.
+ *
+ * No other use is authorized.
+ *
+ * This code may not be posted on a public web site either during or after the course.
+ */
+package edu.ufl.cise.cop4020fa23.ast;
+
+import java.util.List;
+import java.util.Objects;
+
+import edu.ufl.cise.cop4020fa23.IToken;
+import edu.ufl.cise.cop4020fa23.exceptions.PLCCompilerException;
+
+/**
+ * convolve ( image , [[w, ...], ...] ) or convolve ( image , [[w, ...], ...] , divisor )
+ *
+ * The kernel is a list of rows of weights, centered on the pixel computed.  The divisor is null
+ * when it is omitted.
+ */
+public class ConvolveExpr extends Expr {
+
+	final Expr image;
+	final List<List<Expr>> kernel;
+	final Expr divisor;
+
+	/**
+	 * @param firstToken
+	 * @param image
+	 * @param kernel
+	 * @param divisor
+	 */
+	public ConvolveExpr(IToken firstToken, Expr image, List<List<Expr>> kernel, Expr divisor) {
+		super(firstToken);
+		this.image = image;
+		this.kernel = kernel;
+		this.divisor = divisor;
+	}
+
+	@Override
+	public Object visit(ASTVisitor v, Object arg) throws PLCCompilerException {
+		return v.visitConvolveExpr(this, arg);
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = super.hashCode();
+		result = prime * result + Objects.hash(divisor, image, kernel);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!super.equals(obj) || (getClass() != obj.getClass()))
+			return false;
+		ConvolveExpr other = (ConvolveExpr) obj;
+		return Objects.equals(divisor, other.divisor) && Objects.equals(image, other.image)
+				&& Objects.equals(kernel, other.kernel);
+	}
+
+	public Expr getImage() {
+		return image;
+	}
+
+	public List<List<Expr>> getKernel() {
+		return kernel;
+	}
+
+	public Expr getDivisor() {
+		return divisor;
+	}
+
+	@Override
+	public String toString() {
+		return "ConvolveExpr [image=" + image + ", kernel=" + kernel + ", divisor=" + divisor + "]";
+	}
+
+}
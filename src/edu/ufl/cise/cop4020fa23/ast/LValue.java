@@ -20,6 +20,7 @@ public class LValue extends AST {
 	final IToken nameToken;
 	final PixelSelector pixelSelector;
 	final ChannelSelector channelSelector;
+	final Region region;
 	NameDef nameDef;
 
 	Type inferredType;
@@ -30,10 +31,19 @@ public class LValue extends AST {
 	 * @param channelSelector
 	 */
 	public LValue(IToken firstToken, IToken name, PixelSelector pixelSelector, ChannelSelector channelSelector) {
+		this(firstToken, name, pixelSelector, channelSelector, null);
+	}
+
+	/**
+	 * @param region the rectangle a pixel assignment is restricted to, or null
+	 */
+	public LValue(IToken firstToken, IToken name, PixelSelector pixelSelector, ChannelSelector channelSelector,
+			Region region) {
 		super(firstToken);
 		this.nameToken = name;
 		this.pixelSelector = pixelSelector;
 		this.channelSelector = channelSelector;
+		this.region = region;
 	}
 	@Override
 	public Object visit(ASTVisitor v, Object arg) throws PLCCompilerException {
@@ -51,6 +61,9 @@ public class LValue extends AST {
 	public ChannelSelector getChannelSelector() {
 		return channelSelector;
 	}
+	public Region getRegion() {
+		return region;
+	}
 	
 	public void setType(Type type) {
 		inferredType = type;
@@ -75,7 +88,7 @@ public class LValue extends AST {
 	@Override
 	public String toString() {
 		return "LValue [nameToken=" + nameToken + ", pixelSelector=" + pixelSelector + ", channelSelector="
-				+ channelSelector + ", nameDef=" + nameDef + ", inferredType=" + inferredType + "]";
+				+ channelSelector + ", region=" + region + ", nameDef=" + nameDef + ", inferredType=" + inferredType + "]";
 	}
 	
 	
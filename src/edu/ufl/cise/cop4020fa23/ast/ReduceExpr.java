@@ -0,0 +1,106 @@
+/*Copyright 2023 by Beverly A Sanders
+ *
+ * This code is provided for solely for use of students in COP4020 Programming Language Concepts at the
+ * University of Florida during the fall semester 2023 as part of the course project.
+ *
+ * No other use is authorized.
+ *
+ * This code may not be posted on a public web site either during or after the course.
+ */
+package edu.ufl.cise.cop4020fa23.ast;
+
+import java.util.Objects;
+
+import edu.ufl.cise.cop4020fa23.IToken;
+import edu.ufl.cise.cop4020fa23.exceptions.PLCCompilerException;
+
+/**
+ * reduce ( Reduction , image ) or reduce ( Reduction , image , value )
+ *
+ * Reduces the channel values of an image, or of the channels a channel extraction keeps, to an
+ * int.  count and histogram take a value, the pixel or channel value counted; value is null for
+ * the other reductions.
+ */
+public class ReduceExpr extends Expr {
+
+	public enum Reduction {
+		SUM, MIN, MAX, COUNT, HISTOGRAM;
+
+		/**
+		 * @return the reduction named name in the source, such as sum, or null if there is none
+		 */
+		public static Reduction of(String name) {
+			for (Reduction reduction : values()) {
+				if (reduction.name().toLowerCase().equals(name)) {
+					return reduction;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @return true if the reduction takes a value
+		 */
+		public boolean hasValue() {
+			return this == COUNT || this == HISTOGRAM;
+		}
+	}
+
+	final Reduction reduction;
+	final Expr image;
+	final Expr value;
+
+	/**
+	 * @param firstToken
+	 * @param reduction
+	 * @param image
+	 * @param value
+	 */
+	public ReduceExpr(IToken firstToken, Reduction reduction, Expr image, Expr value) {
+		super(firstToken);
+		this.reduction = reduction;
+		this.image = image;
+		this.value = value;
+	}
+
+	@Override
+	public Object visit(ASTVisitor v, Object arg) throws PLCCompilerException {
+		return v.visitReduceExpr(this, arg);
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = super.hashCode();
+		result = prime * result + Objects.hash(image, reduction, value);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!super.equals(obj) || (getClass() != obj.getClass()))
+			return false;
+		ReduceExpr other = (ReduceExpr) obj;
+		return Objects.equals(image, other.image) && reduction == other.reduction && Objects.equals(value, other.value);
+	}
+
+	public Reduction getReduction() {
+		return reduction;
+	}
+
+	public Expr getImage() {
+		return image;
+	}
+
+	public Expr getValue() {
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return "ReduceExpr [reduction=" + reduction + ", image=" + image + ", value=" + value + "]";
+	}
+
+}
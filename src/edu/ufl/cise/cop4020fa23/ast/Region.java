@@ -0,0 +1,90 @@
+/*Copyright 2023 by Beverly A Sanders
+ *
+ * This code is provided for solely for use of students in COP4020 Programming Language Concepts at the
+ * University of Florida during the fall semester 2023 as part of the course project.
+ *
+ * No other use is authorized.
+ *
+ * This code may not be posted on a public web site either during or after the course.
+ */
+package edu.ufl.cise.cop4020fa23.ast;
+
+import java.util.Objects;
+
+import edu.ufl.cise.cop4020fa23.IToken;
+import edu.ufl.cise.cop4020fa23.exceptions.PLCCompilerException;
+
+/**
+ * within [ x , y , width , height ]
+ *
+ * Rectangle of the pixels a pixel assignment im[x,y] = e writes: the implicit loop variables range
+ * over x <= x < x + width and y <= y < y + height, clipped to the image.
+ */
+public class Region extends AST {
+
+	final Expr x;
+	final Expr y;
+	final Expr width;
+	final Expr height;
+
+	/**
+	 * @param firstToken
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 */
+	public Region(IToken firstToken, Expr x, Expr y, Expr width, Expr height) {
+		super(firstToken);
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+	}
+
+	@Override
+	public Object visit(ASTVisitor v, Object arg) throws PLCCompilerException {
+		return v.visitRegion(this, arg);
+	}
+
+	public Expr getX() {
+		return x;
+	}
+
+	public Expr getY() {
+		return y;
+	}
+
+	public Expr getWidth() {
+		return width;
+	}
+
+	public Expr getHeight() {
+		return height;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = super.hashCode();
+		result = prime * result + Objects.hash(height, width, x, y);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!super.equals(obj) || (getClass() != obj.getClass()))
+			return false;
+		Region other = (Region) obj;
+		return Objects.equals(height, other.height) && Objects.equals(width, other.width) && Objects.equals(x, other.x)
+				&& Objects.equals(y, other.y);
+	}
+
+	@Override
+	public String toString() {
+		return "Region [x=" + x + ", y=" + y + ", width=" + width + ", height=" + height + "]";
+	}
+
+}
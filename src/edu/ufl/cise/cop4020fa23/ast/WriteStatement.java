@@ -20,14 +20,25 @@ import edu.ufl.cise.cop4020fa23.exceptions.PLCCompilerException;
 public class WriteStatement extends Statement{
 	
 	final Expr expr;
+	final Expr destination;
 
 	/**
 	 * @param firstToken
 	 * @param expr
 	 */
 	public WriteStatement(IToken firstToken, Expr expr) {
+		this(firstToken, expr, null);
+	}
+
+	/**
+	 * @param firstToken
+	 * @param expr
+	 * @param destination  file the image is written to, or null to write to the console
+	 */
+	public WriteStatement(IToken firstToken, Expr expr, Expr destination) {
 		super(firstToken);
 		this.expr = expr;
+		this.destination = destination;
 	}
 
 	@Override
@@ -39,7 +50,7 @@ public class WriteStatement extends Statement{
 	public int hashCode() {
 		final int prime = 31;
 		int result = super.hashCode();
-		result = prime * result + Objects.hash(expr);
+		result = prime * result + Objects.hash(expr, destination);
 		return result;
 	}
 
@@ -52,16 +63,20 @@ public class WriteStatement extends Statement{
 		if (getClass() != obj.getClass())
 			return false;
 		WriteStatement other = (WriteStatement) obj;
-		return Objects.equals(expr, other.expr);
+		return Objects.equals(expr, other.expr) && Objects.equals(destination, other.destination);
 	}
 
 	public Expr getExpr() {
 		return expr;
 	}
 
+	public Expr getDestination() {
+		return destination;
+	}
+
 	@Override
 	public String toString() {
-		return "WriteStatement [expr=" + expr + "]";
+		return "WriteStatement [expr=" + expr + (destination == null ? "" : ", destination=" + destination) + "]";
 	}
 
 
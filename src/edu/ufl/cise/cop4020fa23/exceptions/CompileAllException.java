@@ -0,0 +1,55 @@
+package edu.ufl.cise.cop4020fa23.exceptions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by ComponentFactory.compileAll when at least one of its sources fails to compile.  Both
+ * lists are in the order of the sources: getFailures() holds the exception of each source that
+ * failed and null for the others, and getResults() the generated code of each source that compiled
+ * and null for the others.  The exception of the first failing source is the cause.
+ */
+@SuppressWarnings("serial")
+public class CompileAllException extends PLCCompilerException {
+
+	private final List<PLCCompilerException> failures;
+	private final List<String> results;
+
+	public CompileAllException(List<PLCCompilerException> failures, List<String> results) {
+		super(count(failures) + " of " + failures.size() + " programs failed to compile");
+		this.failures = Collections.unmodifiableList(new ArrayList<>(failures));
+		this.results = Collections.unmodifiableList(new ArrayList<>(results));
+		for (PLCCompilerException failure : failures) {
+			if (failure != null) {
+				initCause(failure);
+				break;
+			}
+		}
+	}
+
+	private static int count(List<PLCCompilerException> failures) {
+		int count = 0;
+		for (PLCCompilerException failure : failures) {
+			if (failure != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the exception of each source that failed to compile, and null for each one that compiled
+	 */
+	public List<PLCCompilerException> getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return the generated code of each source that compiled, and null for each one that failed
+	 */
+	public List<String> getResults() {
+		return results;
+	}
+
+}
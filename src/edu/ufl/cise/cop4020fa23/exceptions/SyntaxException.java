@@ -9,26 +9,55 @@
  */
 package edu.ufl.cise.cop4020fa23.exceptions;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import edu.ufl.cise.cop4020fa23.SourceLocation;
 
 /**
- * 
+ * Thrown by the parser.  When the parser recovers from errors and keeps going, the first
+ * error is thrown and the ones found after it are available from getErrors().
  */
 @SuppressWarnings("serial")
 public class SyntaxException extends PLCCompilerException {
 
+	private final SourceLocation location;
 
 	public SyntaxException() {
 		super();
+		this.location = null;
 	}
 
 	public SyntaxException(SourceLocation location, String message) {
 		super(location, message);
+		this.location = location;
 	}
 
 
 	public SyntaxException(String message) {
 		super(message);
+		this.location = null;
+	}
+
+	/**
+	 * @return location of the error, or null if it is not known
+	 */
+	public SourceLocation getLocation() {
+		return location;
+	}
+
+	/**
+	 * @return this error followed by every other syntax error reported in the same parse
+	 */
+	public List<SyntaxException> getErrors() {
+		List<SyntaxException> errors = new ArrayList<>();
+		errors.add(this);
+		for (Throwable t : getSuppressed()) {
+			if (t instanceof SyntaxException) {
+				errors.add((SyntaxException) t);
+			}
+		}
+		return errors;
 	}
 
 }
@@ -58,6 +58,10 @@ public class ConsoleIO {
 		displayImageOnScreen(image);
 	}
 
+	public 	static void write(PlcImage image) {
+		displayImageOnScreen(ImageOps.toBufferedImage(image));
+	}
+
 	
 	public static boolean DISPLAY_IMAGES = true;
 
@@ -0,0 +1,379 @@
+package edu.ufl.cise.cop4020fa23.runtime;
+
+import java.nio.IntBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * Constant kernel of a convolution, used by ImageOps.convolve.  The generated code creates one for
+ * each convolve expression when the class is loaded, so the kernel is analysed once however often
+ * the expression is evaluated.
+ *
+ * Each channel of pixel (x,y) of the result is the sum of weights[j][i] times that channel of
+ * pixel (x + i - width / 2, y + j - height / 2) of the source, divided by the divisor and truncated
+ * to [0, 255] as PixelOps.pack does.  The sum is computed exactly before the division, and pixels
+ * outside the source are black, as ImageOps.getRGB returns them.
+ *
+ * A kernel whose weights are the products column[j] * row[i] of two vectors, such as a box or
+ * Gaussian blur or a Sobel operator, is applied as a pass along each row followed by a pass along
+ * each column, and a vector whose weights are all equal, as for a box blur, as a sum over a window
+ * that slides along the row or column, so the cost per pixel does not grow with its length.  Other
+ * kernels are applied directly, skipping zero weights.
+ *
+ * The image is computed in bands of BAND_ROWS rows, in parallel on the common pool for images with
+ * at least Resize.PARALLEL_PIXELS pixels.  The row pass of a band also covers the rows its column
+ * pass reads above and below the band, so the bands are independent.
+ */
+public final class ConvolutionKernel {
+
+	static final int BAND_ROWS = 64;
+	// bound on the sum of the absolute weights, so that the sums of 8 bit channels fit in an int
+	static final int MAX_WEIGHT = 1 << 23;
+
+	private final int width;
+	private final int height;
+	private final int defaultDivisor;
+	// factors of a separable kernel, weights[j][i] == column[j] * row[i], else null
+	private final int[] row;
+	private final int[] column;
+	// true if all the weights of row, or of column, are equal
+	private final boolean boxRow;
+	private final boolean boxColumn;
+	// nonzero weights of a kernel that is not separable, and their offsets from the center
+	private final int[] tapWeights;
+	private final int[] tapX;
+	private final int[] tapY;
+
+	/**
+	 * @param weights rows of the kernel, an odd number of them, of the same odd length
+	 */
+	public ConvolutionKernel(int[][] weights) {
+		if (weights.length % 2 == 0 || weights[0].length % 2 == 0) {
+			throw new PLCRuntimeException("Convolution kernel must have an odd number of rows and columns");
+		}
+		height = weights.length;
+		width = weights[0].length;
+		long sum = 0;
+		long absoluteSum = 0;
+		int taps = 0;
+		for (int[] weightRow : weights) {
+			if (weightRow.length != width) {
+				throw new PLCRuntimeException("Rows of a convolution kernel must have the same length");
+			}
+			for (int weight : weightRow) {
+				sum += weight;
+				absoluteSum += Math.abs((long) weight);
+				taps += weight != 0 ? 1 : 0;
+			}
+		}
+		if (absoluteSum > MAX_WEIGHT) {
+			throw new PLCRuntimeException("Convolution kernel weights are too large");
+		}
+		defaultDivisor = sum > 0 ? (int) sum : 1;
+		int[][] factors = factor(weights);
+		row = factors == null ? null : factors[0];
+		column = factors == null ? null : factors[1];
+		boxRow = row != null && isConstant(row);
+		boxColumn = column != null && isConstant(column);
+		tapWeights = new int[taps];
+		tapX = new int[taps];
+		tapY = new int[taps];
+		int tap = 0;
+		for (int j = 0; j < height; j++) {
+			for (int i = 0; i < width; i++) {
+				if (weights[j][i] != 0) {
+					tapWeights[tap] = weights[j][i];
+					tapX[tap] = i - width / 2;
+					tapY[tap] = j - height / 2;
+					tap++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the divisor used when a convolve expression does not give one: the sum of the
+	 *         weights if it is positive, so that a blur keeps the brightness of the image, else 1
+	 */
+	public int getDefaultDivisor() {
+		return defaultDivisor;
+	}
+
+	/**
+	 * @return true if the kernel is applied as a row pass and a column pass
+	 */
+	public boolean isSeparable() {
+		return row != null;
+	}
+
+	// {row, column} with weights[j][i] == column[j] * row[i] and row not a multiple of a smaller
+	// integer vector, or null if there are none.  Every row of the kernel is then an integer
+	// multiple of row.
+	private static int[][] factor(int[][] weights) {
+		int first = 0;
+		while (first < weights.length && isZero(weights[first])) {
+			first++;
+		}
+		if (first == weights.length) {
+			return null;
+		}
+		int gcd = 0;
+		for (int weight : weights[first]) {
+			gcd = gcd(gcd, Math.abs(weight));
+		}
+		int[] row = new int[weights[first].length];
+		int pivot = -1;
+		for (int i = 0; i < row.length; i++) {
+			row[i] = weights[first][i] / gcd;
+			if (pivot < 0 && row[i] != 0) {
+				pivot = i;
+			}
+		}
+		int[] column = new int[weights.length];
+		for (int j = 0; j < weights.length; j++) {
+			column[j] = weights[j][pivot] / row[pivot];
+			for (int i = 0; i < row.length; i++) {
+				if (weights[j][i] != column[j] * row[i]) {
+					return null;
+				}
+			}
+		}
+		return new int[][] { row, column };
+	}
+
+	private static boolean isZero(int[] weights) {
+		for (int weight : weights) {
+			if (weight != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int gcd(int a, int b) {
+		return b == 0 ? a : gcd(b, a % b);
+	}
+
+	private static boolean isConstant(int[] weights) {
+		for (int weight : weights) {
+			if (weight != weights[0]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the convolution of source into dest, which must have the same shape and may be source
+	 * itself.
+	 */
+	PlcImage apply(PlcImage source, int divisor, PlcImage dest) {
+		if (divisor == 0) {
+			throw new PLCRuntimeException("Convolution divisor is 0");
+		}
+		if (dest == source) {
+			// every band reads rows of its neighbors, so the result cannot overwrite the source
+			PlcImage result = apply(source, divisor, ImagePool.acquireScratch(source.getWidth(), source.getHeight()));
+			dest.copyFrom(result);
+			ImagePool.release(result);
+			return dest;
+		}
+		int imageWidth = source.getWidth();
+		int imageHeight = source.getHeight();
+		IntBuffer src = source.getBuffer();
+		IntBuffer dst = dest.getBuffer();
+		IntStream bands = IntStream.range(0, (imageHeight + BAND_ROWS - 1) / BAND_ROWS);
+		if ((long) imageWidth * imageHeight >= Resize.PARALLEL_PIXELS) {
+			bands = bands.parallel();
+		}
+		bands.forEach(band -> {
+			int y0 = band * BAND_ROWS;
+			int y1 = Math.min(y0 + BAND_ROWS, imageHeight);
+			if (row != null) {
+				separableBand(src, dst, imageWidth, imageHeight, y0, y1, divisor);
+			} else {
+				directBand(src, dst, imageWidth, imageHeight, y0, y1, divisor);
+			}
+		});
+		return dest;
+	}
+
+	// rows y0 <= y < y1 of the result, by a row pass into per channel sums followed by a column pass
+	private void separableBand(IntBuffer src, IntBuffer dst, int imageWidth, int imageHeight, int y0, int y1,
+			int divisor) {
+		int ry = height / 2;
+		// row sums of source rows y0 - ry <= y < y1 + ry; rows outside the image stay 0
+		int rows = y1 - y0 + 2 * ry;
+		int[] red = new int[rows * imageWidth];
+		int[] green = new int[rows * imageWidth];
+		int[] blue = new int[rows * imageWidth];
+		for (int k = 0; k < rows; k++) {
+			int y = y0 - ry + k;
+			if (0 <= y && y < imageHeight) {
+				rowPass(src, y * imageWidth, imageWidth, red, green, blue, k * imageWidth);
+			}
+		}
+		if (boxColumn) {
+			// sums of the column's window of row sums, moved down a row at a time
+			int weight = column[0];
+			int[] redSum = new int[imageWidth];
+			int[] greenSum = new int[imageWidth];
+			int[] blueSum = new int[imageWidth];
+			for (int k = 0; k < height - 1; k++) {
+				addRow(red, green, blue, k * imageWidth, redSum, greenSum, blueSum, imageWidth, 1);
+			}
+			for (int y = y0; y < y1; y++) {
+				int k = y - y0;
+				addRow(red, green, blue, (k + height - 1) * imageWidth, redSum, greenSum, blueSum, imageWidth, 1);
+				int out = y * imageWidth;
+				for (int x = 0; x < imageWidth; x++) {
+					dst.put(out + x, PixelOps.pack(weight * redSum[x] / divisor, weight * greenSum[x] / divisor,
+							weight * blueSum[x] / divisor));
+				}
+				addRow(red, green, blue, k * imageWidth, redSum, greenSum, blueSum, imageWidth, -1);
+			}
+			return;
+		}
+		for (int y = y0; y < y1; y++) {
+			int k = y - y0;
+			int out = y * imageWidth;
+			for (int x = 0; x < imageWidth; x++) {
+				int r = 0;
+				int g = 0;
+				int b = 0;
+				for (int j = 0; j < height; j++) {
+					int weight = column[j];
+					int index = (k + j) * imageWidth + x;
+					r += weight * red[index];
+					g += weight * green[index];
+					b += weight * blue[index];
+				}
+				dst.put(out + x, PixelOps.pack(r / divisor, g / divisor, b / divisor));
+			}
+		}
+	}
+
+	private static void addRow(int[] red, int[] green, int[] blue, int from, int[] redSum, int[] greenSum,
+			int[] blueSum, int imageWidth, int sign) {
+		for (int x = 0; x < imageWidth; x++) {
+			redSum[x] += sign * red[from + x];
+			greenSum[x] += sign * green[from + x];
+			blueSum[x] += sign * blue[from + x];
+		}
+	}
+
+	// sums of row weighted by the row factor, for the source row starting at in
+	private void rowPass(IntBuffer src, int in, int imageWidth, int[] red, int[] green, int[] blue, int out) {
+		int rx = width / 2;
+		if (boxRow) {
+			// sum of the window [x - rx, x + rx], moved right a pixel at a time
+			int weight = row[0];
+			int r = 0;
+			int g = 0;
+			int b = 0;
+			for (int x = 0; x < Math.min(rx, imageWidth); x++) {
+				int pixel = src.get(in + x);
+				r += pixel >> 16 & 0xff;
+				g += pixel >> 8 & 0xff;
+				b += pixel & 0xff;
+			}
+			for (int x = 0; x < imageWidth; x++) {
+				if (x + rx < imageWidth) {
+					int pixel = src.get(in + x + rx);
+					r += pixel >> 16 & 0xff;
+					g += pixel >> 8 & 0xff;
+					b += pixel & 0xff;
+				}
+				red[out + x] = weight * r;
+				green[out + x] = weight * g;
+				blue[out + x] = weight * b;
+				if (x - rx >= 0) {
+					int pixel = src.get(in + x - rx);
+					r -= pixel >> 16 & 0xff;
+					g -= pixel >> 8 & 0xff;
+					b -= pixel & 0xff;
+				}
+			}
+			return;
+		}
+		// interior pixels, whose window is inside the row, without bounds checks
+		int x0 = Math.min(rx, imageWidth);
+		int x1 = Math.max(x0, imageWidth - rx);
+		for (int x = x0; x < x1; x++) {
+			int r = 0;
+			int g = 0;
+			int b = 0;
+			for (int i = 0; i < width; i++) {
+				int pixel = src.get(in + x + i - rx);
+				r += row[i] * (pixel >> 16 & 0xff);
+				g += row[i] * (pixel >> 8 & 0xff);
+				b += row[i] * (pixel & 0xff);
+			}
+			red[out + x] = r;
+			green[out + x] = g;
+			blue[out + x] = b;
+		}
+		for (int x = x0 == 0 ? x1 : 0; x < imageWidth; x = x + 1 == x0 ? x1 : x + 1) {
+			int r = 0;
+			int g = 0;
+			int b = 0;
+			for (int i = 0; i < width; i++) {
+				int xx = x + i - rx;
+				if (0 <= xx && xx < imageWidth) {
+					int pixel = src.get(in + xx);
+					r += row[i] * (pixel >> 16 & 0xff);
+					g += row[i] * (pixel >> 8 & 0xff);
+					b += row[i] * (pixel & 0xff);
+				}
+			}
+			red[out + x] = r;
+			green[out + x] = g;
+			blue[out + x] = b;
+		}
+	}
+
+	// rows y0 <= y < y1 of the result, summing the nonzero weights of each pixel
+	private void directBand(IntBuffer src, IntBuffer dst, int imageWidth, int imageHeight, int y0, int y1,
+			int divisor) {
+		int rx = width / 2;
+		int ry = height / 2;
+		int taps = tapWeights.length;
+		int[] offsets = new int[taps];
+		for (int tap = 0; tap < taps; tap++) {
+			offsets[tap] = tapY[tap] * imageWidth + tapX[tap];
+		}
+		for (int y = y0; y < y1; y++) {
+			boolean interiorRow = ry <= y && y < imageHeight - ry;
+			int x0 = interiorRow ? Math.min(rx, imageWidth) : imageWidth;
+			int x1 = interiorRow ? Math.max(x0, imageWidth - rx) : imageWidth;
+			int out = y * imageWidth;
+			for (int x = x0; x < x1; x++) {
+				int r = 0;
+				int g = 0;
+				int b = 0;
+				for (int tap = 0; tap < taps; tap++) {
+					int pixel = src.get(out + x + offsets[tap]);
+					r += tapWeights[tap] * (pixel >> 16 & 0xff);
+					g += tapWeights[tap] * (pixel >> 8 & 0xff);
+					b += tapWeights[tap] * (pixel & 0xff);
+				}
+				dst.put(out + x, PixelOps.pack(r / divisor, g / divisor, b / divisor));
+			}
+			for (int x = x0 == 0 ? x1 : 0; x < imageWidth; x = x + 1 == x0 ? x1 : x + 1) {
+				int r = 0;
+				int g = 0;
+				int b = 0;
+				for (int tap = 0; tap < taps; tap++) {
+					int xx = x + tapX[tap];
+					int yy = y + tapY[tap];
+					if (0 <= xx && xx < imageWidth && 0 <= yy && yy < imageHeight) {
+						int pixel = src.get(yy * imageWidth + xx);
+						r += tapWeights[tap] * (pixel >> 16 & 0xff);
+						g += tapWeights[tap] * (pixel >> 8 & 0xff);
+						b += tapWeights[tap] * (pixel & 0xff);
+					}
+				}
+				dst.put(out + x, PixelOps.pack(r / divisor, g / divisor, b / divisor));
+			}
+		}
+	}
+}
@@ -12,15 +12,62 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 
 public class FileURLIO {
 
+	/**
+	 * Files with this extension are in the uncompressed raw format read by readRawImage.
+	 */
+	public static final String RAW_EXTENSION = ".plcraw";
+
+	/*
+	 * Raw format, all little endian:
+	 *   int magic  'PLCR'
+	 *   int width
+	 *   int height
+	 *   int flags  bit 0 set if the alpha values are significant
+	 *   width * height packed ARGB ints, row major
+	 */
+	private static final int RAW_MAGIC = 0x52434C50;
+	private static final int RAW_HEADER_BYTES = 16;
+	private static final int RAW_FLAG_ALPHA = 1;
+
+	// encodes images for writeImage in the background; daemon threads, so call awaitWrites before exit
+	private static final ExecutorService imageWriter = Executors.newFixedThreadPool(
+			Math.max(1, Runtime.getRuntime().availableProcessors() / 2), task -> {
+				Thread thread = new Thread(task, "plc-image-writer");
+				thread.setDaemon(true);
+				return thread;
+			});
+	private static final Queue<Future<?>> pendingWrites = new ConcurrentLinkedQueue<>();
+
+	// decodes images for readImageAsync; daemon threads, so an unused read does not keep the program alive
+	private static final ExecutorService imageReader = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(), task -> {
+				Thread thread = new Thread(task, "plc-image-reader");
+				thread.setDaemon(true);
+				return thread;
+			});
+
 	/**
 	 * Reads the image from the indicated URL or filename. If the given source
 	 * is not a valid URL, it is assumed to be a filename.
@@ -54,20 +101,273 @@ public class FileURLIO {
 	 * @return BufferedImage representing the indicated image.
 	 */
 	public static BufferedImage readImage(String source, Integer w, Integer h) {
-		BufferedImage image;
-		try {
-			URL url = new URL(source);
-			image = readFromURL(url);
+		if (w == null || h == null || isRawImage(source)) {
+			BufferedImage image = readImage(source);
+			return w == null || h == null ? image : ImageOps.copyAndResize(image, w, h);
+		}
+		try (ImageDecoder decoder = ImageDecoder.open(source)) {
+			PlcImage sized = readSubsampled(decoder, w, h);
+			return sized != null ? ImageOps.toBufferedImage(sized) : ImageOps.copyAndResize(decoder.read(), w, h);
+		}
+	}
+	
+	/**
+	 * Same as readImage(source), converted to a PlcImage for generated code.  An image of at least
+	 * PlcImage.OFF_HEAP_PIXELS pixels is decoded a band at a time into its buffer outside the heap,
+	 * so it is never on the heap as a whole, if it is a PNG or JPEG image that is not interlaced
+	 * or progressive (see ImageDecoder.decodeBands); other formats are decoded whole and copied.
+	 */
+	public static PlcImage readPlcImage(String source) {
+		if (isRawImage(source)) {
+			return readRawImage(source);
+		}
+		try (ImageDecoder decoder = ImageDecoder.open(source)) {
+			return decoder.readPlcImage();
+		}
+	}
 
-		} catch (MalformedURLException e) {// wasn't a URL, maybe it is a file
-			image = readFromFile(source);
+	/**
+	 * Same as readImage(source, w, h), converted to a PlcImage for generated code.
+	 */
+	public static PlcImage readPlcImage(String source, Integer w, Integer h) {
+		if (isRawImage(source)) {
+			return resize(readRawImage(source), w, h);
 		}
-		if (w==null || h == null) {
+		if (w == null || h == null) {
+			return readPlcImage(source);
+		}
+		try (ImageDecoder decoder = ImageDecoder.open(source)) {
+			PlcImage sized = readSubsampled(decoder, w, h);
+			return sized != null ? sized : resize(decoder.read(), w, h);
+		}
+	}
+
+	/**
+	 * Reads the image resized to w x h by decoding only the pixels that nearest neighbour
+	 * resizing keeps.  The decoder subsamples the source with ImageReadParam, which is possible
+	 * when the source coordinates chosen along each axis are evenly spaced, as they are when the
+	 * size is reduced by an integer factor.  The result is the same as decoding the whole image and
+	 * calling copyAndResize, but a 4000x3000 photo loaded as image[50,50] decodes 2500 pixels.
+	 *
+	 * @return the resized image, or null if subsampling does not apply to the size of the image;
+	 *         the caller then decodes the whole image from the same decoder
+	 */
+	static PlcImage readSubsampled(ImageDecoder decoder, int w, int h) {
+		if (ImageOps.RESIZE_BILINEAR || w <= 0 || h <= 0) {
+			return null;
+		}
+		int width = decoder.getWidth();
+		int height = decoder.getHeight();
+		int[] xMap = Resize.nearestMap(width, w);
+		int[] yMap = Resize.nearestMap(height, h);
+		int[] xStep = Resize.subsampling(xMap, width);
+		int[] yStep = Resize.subsampling(yMap, height);
+		if (xStep[0] == 1 && yStep[0] == 1) {
+			return null;
+		}
+		ImageReadParam param = decoder.getDefaultReadParam();
+		param.setSourceSubsampling(xStep[0], yStep[0], xStep[1], yStep[1]);
+		PlcImage decoded = ImageOps.toPlcImage(decoder.read(param));
+		return Resize.gather(decoded, subsampledMap(xMap, xStep), subsampledMap(yMap, yStep));
+	}
+
+	// coordinates of map in the image decoded with the given {period, offset}
+	private static int[] subsampledMap(int[] map, int[] step) {
+		int[] result = new int[map.length];
+		for (int i = 0; i < map.length; i++) {
+			result[i] = (map[i] - step[1]) / step[0];
+		}
+		return result;
+	}
+
+	/**
+	 * Starts reading the image from the indicated URL or filename on a background thread, so that
+	 * several images can be decoded at the same time.  PendingImage.get waits for the result,
+	 * which is the image readPlcImage(source, w, h) returns.  Errors are reported by get, as
+	 * readPlcImage would report them.
+	 *
+	 * @param source
+	 * @param w  desired width of the image, or null
+	 * @param h  desired height of the image, or null
+	 * @return PendingImage for the image
+	 */
+	public static PendingImage readImageAsync(String source, Integer w, Integer h) {
+		return new PendingImage(imageReader.submit(() -> readPlcImage(source, w, h)));
+	}
+
+	/**
+	 * Same as readImageAsync(source, null, null).
+	 */
+	public static PendingImage readImageAsync(String source) {
+		return new PendingImage(imageReader.submit(() -> readPlcImage(source)));
+	}
+
+	// image of size w x h, or of its own size if w or h is null, as readPlcImage returns it
+	static PlcImage resize(PlcImage image, Integer w, Integer h) {
+		if (w == null || h == null || (image.getWidth() == w && image.getHeight() == h)) {
 			return image;
 		}
 		return ImageOps.copyAndResize(image, w, h);
 	}
-	
+
+	static PlcImage resize(BufferedImage image, Integer w, Integer h) {
+		return ImageOps.toPlcImage(w == null || h == null ? image : ImageOps.copyAndResize(image, w, h));
+	}
+
+	/**
+	 * Opens the image at the indicated URL or filename for reading a band of rows at a time.  Only
+	 * the header is read here; see StreamedImage.
+	 */
+	public static StreamedImage openStreamedImage(String source) {
+		return new StreamedImage(source);
+	}
+
+	public static boolean isRawImage(String source) {
+		return source.endsWith(RAW_EXTENSION);
+	}
+
+	/**
+	 * Maps an image file in the raw format into memory.  Nothing is decoded or copied: the pixels
+	 * of the returned image are the mapped file, outside the Java heap.  The mapping is private,
+	 * so writes to the image are not written back to the file.  A private mapping needs write
+	 * access to the file; for a read-only file the pixels are copied into a direct buffer instead.
+	 *
+	 * Throws a PLCRuntimeException if the file cannot be read or is not in the raw format.
+	 *
+	 * @param filename
+	 * @return PlcImage backed by the file
+	 */
+	public static PlcImage readRawImage(String filename) {
+		Path path = Paths.get(filename);
+		boolean writable = Files.isWritable(path);
+		try (FileChannel channel = writable ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(RAW_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0) {
+					break;
+				}
+			}
+			header.flip();
+			if (header.remaining() < RAW_HEADER_BYTES || header.getInt() != RAW_MAGIC) {
+				throw new PLCRuntimeException("Not a raw image file " + filename);
+			}
+			int width = header.getInt();
+			int height = header.getInt();
+			int flags = header.getInt();
+			long bytes = (long) width * height * Integer.BYTES;
+			if (width <= 0 || height <= 0 || bytes > Integer.MAX_VALUE
+					|| channel.size() < RAW_HEADER_BYTES + bytes) {
+				throw new PLCRuntimeException("Corrupt raw image file " + filename);
+			}
+			ByteBuffer pixels;
+			if (writable) {
+				pixels = channel.map(FileChannel.MapMode.PRIVATE, RAW_HEADER_BYTES, bytes);
+			} else {
+				pixels = ByteBuffer.allocateDirect((int) bytes);
+				pixels.put(channel.map(FileChannel.MapMode.READ_ONLY, RAW_HEADER_BYTES, bytes)).clear();
+			}
+			return new PlcImage(width, height, pixels.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer(),
+					(flags & RAW_FLAG_ALPHA) != 0);
+		} catch (IOException e) {
+			throw new PLCRuntimeException(e.getMessage() + " " + filename);
+		}
+	}
+
+	/**
+	 * Writes the image to the given file in the raw format, so that readRawImage can map it back
+	 * without decoding.  The file is written through a mapping of the file.
+	 *
+	 * Throws a PLCRuntimeException if this fails
+	 *
+	 * @param image
+	 * @param filename
+	 */
+	public static void writeRawImage(PlcImage image, String filename) {
+		long bytes = (long) image.size() * Integer.BYTES;
+		if (RAW_HEADER_BYTES + bytes > Integer.MAX_VALUE) {
+			throw new PLCRuntimeException("Image too large for the raw format " + image);
+		}
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, RAW_HEADER_BYTES + bytes)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			out.putInt(RAW_MAGIC);
+			out.putInt(image.getWidth());
+			out.putInt(image.getHeight());
+			out.putInt(image.hasAlpha() ? RAW_FLAG_ALPHA : 0);
+			out.asIntBuffer().put(image.getBuffer().duplicate().clear());
+		} catch (IOException e) {
+			throw new PLCRuntimeException(e.getMessage() + " " + filename);
+		}
+	}
+
+	/**
+	 * Writes the image to the given file.  The format is chosen by the extension: .plcraw for the
+	 * raw format, otherwise any format ImageIO can write, such as .png or .jpg.
+	 *
+	 * The image is copied and the call returns at once; encoding and writing happen on a
+	 * background thread.  Use awaitWrites to wait for the file to be complete; the apply method of
+	 * a program that writes files calls it before returning.
+	 *
+	 * @param image
+	 * @param filename
+	 */
+	public static void writeImage(PlcImage image, String filename) {
+		PlcImage snapshot = ImageOps.cloneImage(image);
+		pendingWrites.add(imageWriter.submit(() -> {
+			writeImageNow(snapshot, filename);
+			return null;
+		}));
+	}
+
+	/**
+	 * Waits until every image passed to writeImage so far has been written.
+	 *
+	 * Throws a PLCRuntimeException if any of the writes failed.
+	 */
+	public static void awaitWrites() {
+		RuntimeException failure = null;
+		Future<?> write;
+		while ((write = pendingWrites.poll()) != null) {
+			try {
+				write.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new PLCRuntimeException("Interrupted while waiting for image writes");
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+							: new PLCRuntimeException(e.getCause().getMessage());
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	static void writeImageNow(PlcImage image, String filename) {
+		if (isRawImage(filename)) {
+			writeRawImage(image, filename);
+			return;
+		}
+		int dot = filename.lastIndexOf('.');
+		String format = dot < 0 ? "png" : filename.substring(dot + 1).toLowerCase(Locale.ROOT);
+		if (image.hasAlpha() && !"png".equals(format) && !"gif".equals(format)) {
+			// formats such as JPEG and BMP have no alpha channel, so drop it
+			image = new PlcImage(image.getWidth(), image.getHeight(), image.getBuffer(), false);
+		}
+		BufferedImage output = ImageOps.toBufferedImage(image);
+		try {
+			if (!ImageIO.write(output, format, new File(filename))) {
+				throw new PLCRuntimeException("No image writer for format " + format);
+			}
+		} catch (IOException e) {
+			throw new PLCRuntimeException(e.getMessage() + " " + filename);
+		}
+	}
+
 	/**
 	 * Reads and returns the image at the given URL
 	 * 
@@ -96,6 +396,9 @@ public class FileURLIO {
 	 * @return
 	 */
 	static BufferedImage readFromFile(String filename) {
+		if (isRawImage(filename)) {
+			return ImageOps.toBufferedImage(readRawImage(filename));
+		}
 		File f = new File(filename);
 		BufferedImage bi;
 		try {
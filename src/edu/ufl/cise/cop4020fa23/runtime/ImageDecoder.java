@@ -0,0 +1,432 @@
+package edu.ufl.cise.cop4020fa23.runtime;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.IntBuffer;
+import java.util.Iterator;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.stream.ImageInputStream;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * An ImageReader opened on the image at a URL or in a file, so that its size can be looked at
+ * before deciding how to decode it, and the decode then reads the source already opened.
+ *
+ * decodeBands decodes the image once, from top to bottom, and hands it over a band of rows at a
+ * time, so only one band of the image is in memory as a BufferedImage.  The reader decodes into a
+ * destination the size of the image whose raster keeps only the band being decoded; when the
+ * decoder moves past the last row of the band, the band is converted to packed ARGB and passed on.
+ * This needs a decoder that writes each row once, in order, through the raster; the PNG and JPEG
+ * decoders do, except for interlaced PNG and progressive JPEG images.
+ *
+ * Errors are reported with a PLCRuntimeException.
+ */
+final class ImageDecoder implements AutoCloseable {
+
+	/**
+	 * Receives the bands of decodeBands.
+	 */
+	interface BandConsumer {
+		/**
+		 * @param pixels  packed ARGB pixels of rows firstRow ... firstRow + rows - 1
+		 * @return the array to convert the next band into, which may be pixels
+		 */
+		int[] accept(int[] pixels, int firstRow, int rows);
+	}
+
+	// pixels in a band of readPlcImage, which decodes each row once whatever the size of the bands
+	private static final int BAND_PIXELS = 1 << 18;
+
+	private final String source;
+	private final ImageReader reader;
+	// stream of a URL source, which closing the reader's input does not close
+	private final InputStream stream;
+
+	private ImageDecoder(String source, ImageReader reader, InputStream stream) {
+		this.source = source;
+		this.reader = reader;
+		this.stream = stream;
+	}
+
+	/**
+	 * Opens the image at the indicated URL or filename.
+	 */
+	static ImageDecoder open(String source) {
+		InputStream stream = null;
+		ImageInputStream in = null;
+		try {
+			try {
+				URL url = new URL(source);
+				System.err.println("reading image from url:  " + url);
+				stream = url.openStream();
+				in = ImageIO.createImageInputStream(stream);
+			} catch (MalformedURLException e) { // not a URL, so a file
+				File file = new File(source);
+				if (!file.isFile()) {
+					throw new PLCRuntimeException("Can't read input file! " + source);
+				}
+				in = ImageIO.createImageInputStream(file);
+			}
+			Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+			if (readers == null || !readers.hasNext()) {
+				throw new PLCRuntimeException("Image format unsupported " + source);
+			}
+			ImageReader reader = readers.next();
+			reader.setInput(in, true, true);
+			return new ImageDecoder(source, reader, stream);
+		} catch (IOException | RuntimeException e) {
+			closeQuietly(in, stream);
+			throw e instanceof PLCRuntimeException ? (PLCRuntimeException) e
+					: new PLCRuntimeException(e.getMessage() + " " + source);
+		}
+	}
+
+	int getWidth() {
+		try {
+			return reader.getWidth(0);
+		} catch (IOException e) {
+			throw new PLCRuntimeException(e.getMessage() + " " + source);
+		}
+	}
+
+	int getHeight() {
+		try {
+			return reader.getHeight(0);
+		} catch (IOException e) {
+			throw new PLCRuntimeException(e.getMessage() + " " + source);
+		}
+	}
+
+	/**
+	 * Decodes the whole image, as ImageIO.read does.
+	 */
+	BufferedImage read() {
+		return read(null);
+	}
+
+	/**
+	 * Decodes the image as described by param, or the whole image if param is null.
+	 */
+	BufferedImage read(ImageReadParam param) {
+		try {
+			return reader.read(0, param);
+		} catch (IOException e) {
+			throw new PLCRuntimeException(e.getMessage() + " " + source);
+		}
+	}
+
+	ImageReadParam getDefaultReadParam() {
+		return reader.getDefaultReadParam();
+	}
+
+	/**
+	 * Decodes the whole image into a PlcImage.  An image of at least PlcImage.OFF_HEAP_PIXELS
+	 * pixels that can be decoded in bands goes straight into a buffer outside the heap, a band at a
+	 * time, without the whole image ever being on the heap.
+	 */
+	PlcImage readPlcImage() {
+		int width = getWidth();
+		int height = getHeight();
+		if ((long) width * height < PlcImage.OFF_HEAP_PIXELS || !isSequential()) {
+			return ImageOps.toPlcImage(read());
+		}
+		IntBuffer pixels = PlcImage.allocate(width, height, true);
+		boolean hasAlpha = decodeBands(Math.max(1, BAND_PIXELS / width), (band, firstRow, rows) -> {
+			pixels.put(firstRow * width, band, 0, rows * width);
+			return band;
+		});
+		return new PlcImage(width, height, pixels, hasAlpha);
+	}
+
+	/**
+	 * @return whether decodeBands can decode the image: a PNG or JPEG image that is stored in a
+	 *         single pass, not interlaced or progressive
+	 */
+	boolean isSequential() {
+		try {
+			String format = reader.getFormatName().toLowerCase(Locale.ROOT);
+			if (!format.equals("png") && !format.equals("jpeg")) {
+				return false;
+			}
+			IIOMetadata metadata = reader.getImageMetadata(0);
+			if (metadata == null || !metadata.isStandardMetadataFormatSupported()) {
+				return false;
+			}
+			Node compression = child(metadata.getAsTree(IIOMetadataFormatImpl.standardMetadataFormatName), "Compression");
+			Node scans = compression == null ? null : child(compression, "NumProgressiveScans");
+			return scans == null || "1".equals(((Element) scans).getAttribute("value"));
+		} catch (IOException e) {
+			throw new PLCRuntimeException(e.getMessage() + " " + source);
+		}
+	}
+
+	private static Node child(Node node, String name) {
+		for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeName().equals(name)) {
+				return child;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Decodes the image once, passing it to consumer in bands of bandRows rows, in order, from the
+	 * thread that calls this.  Precondition: isSequential().
+	 *
+	 * @return whether the alpha values of the pixels are significant
+	 */
+	boolean decodeBands(int bandRows, BandConsumer consumer) {
+		int width = getWidth();
+		int height = getHeight();
+		ImageTypeSpecifier type;
+		try {
+			type = reader.getImageTypes(0).next();
+		} catch (IOException e) {
+			throw new PLCRuntimeException(e.getMessage() + " " + source);
+		}
+		bandRows = Math.min(bandRows, height);
+		BufferedImage band = type.createBufferedImage(width, bandRows);
+		BandRaster raster = new BandRaster(type.getSampleModel(width, height), band, consumer);
+		ColorModel colorModel = type.getColorModel();
+		ImageReadParam param = reader.getDefaultReadParam();
+		param.setDestination(new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null));
+		read(param);
+		raster.bands().publish();
+		return colorModel.hasAlpha();
+	}
+
+	@Override
+	public void close() {
+		Object input = reader.getInput();
+		reader.dispose();
+		closeQuietly(input instanceof ImageInputStream ? (ImageInputStream) input : null, stream);
+	}
+
+	private static void closeQuietly(ImageInputStream in, InputStream stream) {
+		try {
+			if (in != null) {
+				in.close();
+			}
+			if (stream != null) {
+				stream.close();
+			}
+		} catch (IOException e) {
+			// nothing more to read from it
+		}
+	}
+
+	/**
+	 * Data of a destination image of decodeBands, which stores only the rows of the band being
+	 * decoded, in a BufferedImage of the same type.
+	 */
+	private static final class BandBuffer extends DataBuffer {
+
+		private final BufferedImage image;
+		private final DataBuffer band;
+		private final int scanlineStride;
+		private final int height;
+		private final int bandRows;
+		private final BandConsumer consumer;
+		private int bandStart;
+		private int[] pixels;
+
+		// the samples of a band of 8 bit interleaved samples, else null
+		final byte[] bytes;
+		final int bytesStride;
+		final int pixelStride;
+		final int[] bandOffsets;
+		// whether bytes holds sRGB or sRGB and alpha samples, which publish converts itself
+		private final boolean rgb;
+
+		BandBuffer(BufferedImage image, int scanlineStride, int height, BandConsumer consumer) {
+			super(image.getRaster().getDataBuffer().getDataType(), scanlineStride * height,
+					image.getRaster().getDataBuffer().getNumBanks());
+			this.image = image;
+			this.band = image.getRaster().getDataBuffer();
+			this.scanlineStride = scanlineStride;
+			this.height = height;
+			this.bandRows = image.getHeight();
+			this.consumer = consumer;
+			WritableRaster raster = image.getRaster();
+			if (raster.getSampleModel() instanceof PixelInterleavedSampleModel interleaved
+					&& band instanceof DataBufferByte data && data.getNumBanks() == 1 && data.getOffset() == 0
+					&& raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0) {
+				bytes = data.getData();
+				bytesStride = interleaved.getScanlineStride();
+				pixelStride = interleaved.getPixelStride();
+				bandOffsets = interleaved.getBandOffsets();
+				ColorModel colorModel = image.getColorModel();
+				rgb = colorModel instanceof ComponentColorModel && colorModel.getColorSpace().isCS_sRGB()
+						&& !colorModel.isAlphaPremultiplied() && colorModel.getNumColorComponents() == 3
+						&& bandOffsets.length == colorModel.getNumComponents();
+			} else {
+				bytes = null;
+				bytesStride = 0;
+				pixelStride = 0;
+				bandOffsets = null;
+				rgb = false;
+			}
+		}
+
+		/**
+		 * @return the row of the band where rows y ... y + rows - 1 of the image are stored.  The
+		 *         band is passed on when the decoder writes below it
+		 */
+		int bandRow(int y, int rows) {
+			if (y >= bandStart + bandRows && bandStart + bandRows < height) {
+				publish();
+				bandStart += bandRows;
+			}
+			if (y < bandStart || y + rows > bandStart + bandRows) {
+				throw new PLCRuntimeException("Image is not decoded in row order");
+			}
+			return y - bandStart;
+		}
+
+		void publish() {
+			int width = image.getWidth();
+			int rows = Math.min(bandRows, height - bandStart);
+			if (pixels == null) {
+				pixels = new int[width * bandRows];
+			}
+			if (rgb) {
+				toARGB(width, rows);
+			} else {
+				image.getRGB(0, 0, width, rows, pixels, 0, width);
+			}
+			pixels = consumer.accept(pixels, bandStart, rows);
+		}
+
+		// what image.getRGB does for 8 bit sRGB samples, without a call to the color model per pixel
+		private void toARGB(int width, int rows) {
+			int red = bandOffsets[0];
+			int green = bandOffsets[1];
+			int blue = bandOffsets[2];
+			int alpha = bandOffsets.length > 3 ? bandOffsets[3] : -1;
+			for (int y = 0; y < rows; y++) {
+				int offset = y * bytesStride;
+				int index = y * width;
+				for (int x = 0; x < width; x++, offset += pixelStride) {
+					int a = alpha < 0 ? 0xff : bytes[offset + alpha] & 0xff;
+					pixels[index + x] = a << 24 | (bytes[offset + red] & 0xff) << 16 | (bytes[offset + green] & 0xff) << 8
+							| bytes[offset + blue] & 0xff;
+				}
+			}
+		}
+
+		private int bandIndex(int i) {
+			return bandRow(i / scanlineStride, 1) * scanlineStride + i % scanlineStride;
+		}
+
+		@Override
+		public int getElem(int bank, int i) {
+			return band.getElem(bank, bandIndex(i));
+		}
+
+		@Override
+		public void setElem(int bank, int i, int value) {
+			band.setElem(bank, bandIndex(i), value);
+		}
+	}
+
+	/**
+	 * Raster of a destination image of decodeBands.  Writes of rows and pixels, which is how the
+	 * decoders write, go to the raster of the band; anything else goes through the BandBuffer.
+	 */
+	private static final class BandRaster extends WritableRaster {
+
+		private final WritableRaster band;
+		private final BandBuffer bands;
+
+		BandRaster(SampleModel sampleModel, BufferedImage band, BandConsumer consumer) {
+			super(sampleModel, new BandBuffer(band, scanlineStride(sampleModel), sampleModel.getHeight(), consumer),
+					new Point());
+			this.band = band.getRaster();
+			this.bands = (BandBuffer) getDataBuffer();
+		}
+
+		private static int scanlineStride(SampleModel sampleModel) {
+			if (sampleModel instanceof ComponentSampleModel component) {
+				return component.getScanlineStride();
+			}
+			if (sampleModel instanceof SinglePixelPackedSampleModel packed) {
+				return packed.getScanlineStride();
+			}
+			if (sampleModel instanceof MultiPixelPackedSampleModel packed) {
+				return packed.getScanlineStride();
+			}
+			throw new PLCRuntimeException("Image cannot be decoded in bands");
+		}
+
+		BandBuffer bands() {
+			return bands;
+		}
+
+		@Override
+		public void setRect(int dx, int dy, Raster source) {
+			int row = bands.bandRow(dy + source.getMinY(), source.getHeight());
+			band.setRect(dx, row - source.getMinY(), source);
+		}
+
+		@Override
+		public void setDataElements(int x, int y, Object data) {
+			band.setDataElements(x, bands.bandRow(y, 1), data);
+		}
+
+		@Override
+		public void setDataElements(int x, int y, int w, int h, Object data) {
+			band.setDataElements(x, bands.bandRow(y, h), w, h, data);
+		}
+
+		@Override
+		public void setPixel(int x, int y, int[] samples) {
+			int row = bands.bandRow(y, 1);
+			byte[] bytes = bands.bytes;
+			if (bytes == null) {
+				band.setPixel(x, row, samples);
+				return;
+			}
+			// the PNG decoder writes a pixel at a time
+			int offset = row * bands.bytesStride + x * bands.pixelStride;
+			int[] bandOffsets = bands.bandOffsets;
+			for (int b = 0; b < bandOffsets.length; b++) {
+				bytes[offset + bandOffsets[b]] = (byte) samples[b];
+			}
+		}
+
+		@Override
+		public void setPixels(int x, int y, int w, int h, int[] samples) {
+			band.setPixels(x, bands.bandRow(y, h), w, h, samples);
+		}
+
+		@Override
+		public void setSample(int x, int y, int b, int sample) {
+			band.setSample(x, bands.bandRow(y, 1), b, sample);
+		}
+	}
+}
@@ -11,9 +11,8 @@
 package edu.ufl.cise.cop4020fa23.runtime;
 
 import java.awt.Graphics2D;
-import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
+import java.nio.IntBuffer;
 import java.util.Arrays;
 
 
@@ -37,6 +36,14 @@ import java.util.Arrays;
 
 public class ImageOps {
 
+	/**
+	 * Filter used by copyAndResize, set with the system property plc.resizeFilter: "nearest", the
+	 * default, or "bilinear".
+	 */
+	public static final String RESIZE_FILTER = System.getProperty("plc.resizeFilter", "nearest");
+
+	static final boolean RESIZE_BILINEAR = "bilinear".equals(RESIZE_FILTER);
+
 
 
 
@@ -172,6 +179,21 @@ public class ImageOps {
 	 */
 
 	public static BufferedImage binaryImageImageOp(OP op, BufferedImage left, BufferedImage right) {
+		return binaryImageImageOp(op, left, right, makeImage(left.getWidth(), left.getHeight()));
+	}
+
+	/**
+	 * Same as binaryImageImageOp(op, left, right), but writes the result into dest instead of a
+	 * new image.  dest must have the same shape as the operands and may be one of them, since
+	 * each pixel is read before it is written.
+	 *
+	 * @param op
+	 * @param left
+	 * @param right
+	 * @param dest
+	 * @return dest
+	 */
+	public static BufferedImage binaryImageImageOp(OP op, BufferedImage left, BufferedImage right, BufferedImage dest) {
 		int lwidth = left.getWidth();
 		int rwidth = right.getWidth();
 		int lheight = left.getHeight();
@@ -179,32 +201,35 @@ public class ImageOps {
 		if (lwidth != rwidth || lheight != rheight) {
 			throw new PLCRuntimeException("Attempting binary operation on images with unequal sizes");
 		}
-		BufferedImage result = new BufferedImage(lwidth, lheight, BufferedImage.TYPE_INT_RGB);
+		checkSameSize(left, dest);
 		for (int x = 0; x < lwidth; x++) {
 			for (int y = 0; y < lheight; y++) {
 				int leftPixel = left.getRGB(x, y);
 				int rightPixel = right.getRGB(x, y);
 				int newPixel = binaryPackedPixelPixelOp(op, leftPixel, rightPixel);
-				result.setRGB(x, y, newPixel);
+				dest.setRGB(x, y, newPixel);
 			}
 		}
-		return result;
+		return dest;
 	}
 
 
 	public static BufferedImage binaryImagePixelOp(OP op, BufferedImage left, int right) {
+		return binaryImagePixelOp(op, left, right, makeImage(left.getWidth(), left.getHeight()));
+	}
+
+	public static BufferedImage binaryImagePixelOp(OP op, BufferedImage left, int right, BufferedImage dest) {
 		int lwidth = left.getWidth();
 		int lheight = left.getHeight();
-
-		BufferedImage result = new BufferedImage(lwidth, lheight, BufferedImage.TYPE_INT_RGB);
+		checkSameSize(left, dest);
 		for (int x = 0; x < lwidth; x++) {
 			for (int y = 0; y < lheight; y++) {
 				int leftPixel = left.getRGB(x, y);
 				int newPixel = binaryPackedPixelPixelOp(op, leftPixel, right);
-				result.setRGB(x, y, newPixel);
+				dest.setRGB(x, y, newPixel);
 			}
 		}
-		return result;
+		return dest;
 	}
 
 	/**
@@ -217,17 +242,27 @@ public class ImageOps {
 	 * @return
 	 */
 	public static BufferedImage binaryImageScalarOp(OP op, BufferedImage left, int right) {
+		return binaryImageScalarOp(op, left, right, makeImage(left.getWidth(), left.getHeight()));
+	}
+
+	public static BufferedImage binaryImageScalarOp(OP op, BufferedImage left, int right, BufferedImage dest) {
 		int lwidth = left.getWidth();
 		int lheight = left.getHeight();
-		BufferedImage result = new BufferedImage(lwidth, lheight, BufferedImage.TYPE_INT_RGB);
+		checkSameSize(left, dest);
 		for (int x = 0; x < lwidth; x++) {
 			for (int y = 0; y < lheight; y++) {
 				int leftPixel = left.getRGB(x, y);
 				int newPixel = binaryPackedPixelScalarOp(op,leftPixel, right);
-				result.setRGB(x, y, newPixel);
+				dest.setRGB(x, y, newPixel);
 			}
 		}
-		return result;
+		return dest;
+	}
+
+	private static void checkSameSize(BufferedImage source, BufferedImage dest) {
+		if (source.getWidth() != dest.getWidth() || source.getHeight() != dest.getHeight()) {
+			throw new PLCRuntimeException("Destination image does not have the same size as the source");
+		}
 	}
 
 
@@ -295,6 +330,17 @@ public class ImageOps {
 
 	}
 
+	/**
+	 * Copies one image into another of the same size.  Used by generated code when the compiler
+	 * has proved that the shapes match, so no resize is needed.
+	 *
+	 * @param sourceImage
+	 * @param destImage
+	 */
+	public static final void copyIntoSameSize(BufferedImage sourceImage, BufferedImage destImage) {
+		copyIntoNoResize(sourceImage, destImage);
+	}
+
 	/*Copies the pixels of the soureImage into the pixels of the destImage
 	 *
 	 * Precondition:  sourceImage and destImage are the same size
@@ -324,14 +370,7 @@ public class ImageOps {
 	 */
 	public static BufferedImage copyAndResize(BufferedImage image, int maxX,
 											  int maxY) {
-		int w = image.getWidth();
-		int h = image.getHeight();
-		AffineTransform at = new AffineTransform();
-		at.scale(((float) maxX) / w, ((float) maxY) / h);
-		AffineTransformOp scaleOp = new AffineTransformOp(at, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
-		BufferedImage newResizedImage = null;
-		newResizedImage = scaleOp.filter(image, newResizedImage);
-		return newResizedImage;
+		return toBufferedImage(copyAndResize(toPlcImage(image), maxX, maxY));
 	}
 
 
@@ -395,4 +434,411 @@ public class ImageOps {
 				};
 	}
 
+
+	/**
+	 * Returns base raised to exponent, computed by repeated squaring, with the result (int)
+	 * Math.pow(base, exponent) gives: exact when it fits an int, and otherwise Integer.MAX_VALUE, or
+	 * Integer.MIN_VALUE if it is negative.  With a negative exponent, whose result is a fraction
+	 * unless base is 1 or -1, it is the truncation Math.pow gives.
+	 */
+	public static int pow(int base, int exponent) {
+		if (exponent < 0) {
+			return (int) Math.pow(base, exponent);
+		}
+		int saturated = base < 0 && (exponent & 1) != 0 ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+		long result = 1;
+		long square = base;
+		while (true) {
+			if ((exponent & 1) != 0) {
+				result *= square;
+				if (result != (int) result) {
+					return saturated;
+				}
+			}
+			exponent >>>= 1;
+			if (exponent == 0) {
+				return (int) result;
+			}
+			square *= square;
+			if (square != (int) square) {
+				// a factor of the result that is 0 only if base is
+				return saturated;
+			}
+		}
+	}
+
+
+	/* ===================== PlcImage versions, used by generated code ===================== */
+
+	/**
+	 * Converts a BufferedImage to a PlcImage.  The alpha values are kept only if the image has an
+	 * alpha channel.  Large images are converted a row at a time into off-heap storage.
+	 */
+	public static PlcImage toPlcImage(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		boolean hasAlpha = image.getColorModel().hasAlpha();
+		if ((long) width * height < PlcImage.OFF_HEAP_PIXELS) {
+			int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+			return new PlcImage(width, height, pixels, hasAlpha);
+		}
+		PlcImage result = new PlcImage(width, height, PlcImage.allocate(width, height, true), hasAlpha);
+		IntBuffer dest = result.getBuffer().duplicate();
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			image.getRGB(0, y, width, 1, row, 0, width);
+			dest.put(row);
+		}
+		return result;
+	}
+
+	/**
+	 * Converts a PlcImage to a new TYPE_INT_RGB, or TYPE_INT_ARGB if it has alpha, BufferedImage.
+	 */
+	public static BufferedImage toBufferedImage(PlcImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		BufferedImage result = new BufferedImage(width, height,
+				image.hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		if (image.hasArray()) {
+			result.setRGB(0, 0, width, height, image.getPixels(), 0, width);
+			return result;
+		}
+		IntBuffer source = image.getBuffer().duplicate().clear();
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			source.get(row);
+			result.setRGB(0, y, width, 1, row, 0, width);
+		}
+		return result;
+	}
+
+	/**
+	 * Channel mask that keeps every channel, for an operand of a masked image operation that is not
+	 * a channel extraction.
+	 */
+	public static final int ALL_CHANNELS = 0xffffffff;
+
+	public static PlcImage extractRed(PlcImage image) {
+		return extractChannel(image, PixelOps.SELECT_RED);
+	}
+
+	public static PlcImage extractGrn(PlcImage image) {
+		return extractChannel(image, PixelOps.SELECT_GREEN);
+	}
+
+	public static PlcImage extractBlu(PlcImage image) {
+		return extractChannel(image, PixelOps.SELECT_BLUE);
+	}
+
+	private static PlcImage extractChannel(PlcImage image, int mask) {
+		return extractChannel(image, mask, ImagePool.acquireScratch(image.getWidth(), image.getHeight()));
+	}
+
+	/**
+	 * Writes the pixels of image with only the channels in mask into dest, which must have the same
+	 * shape as image and may be image itself.  This is the whole image form of getRGB(image, x, y,
+	 * mask); the generated code uses it to assign a channel of an image without an intermediate
+	 * image.
+	 */
+	public static PlcImage extractChannel(PlcImage image, int mask, PlcImage dest) {
+		checkSameSize(image, dest);
+		int size = dest.size();
+		for (int i = 0; i < size; i++) {
+			dest.setPixel(i, image.getPixel(i) & mask);
+		}
+		return dest;
+	}
+
+	public static PlcImage binaryImageImageOp(OP op, PlcImage left, PlcImage right) {
+		return binaryImageImageOp(op, left, ALL_CHANNELS, right, ALL_CHANNELS);
+	}
+
+	/**
+	 * Writes the result into dest, which must have the same shape as the operands and may be one
+	 * of them.
+	 */
+	public static PlcImage binaryImageImageOp(OP op, PlcImage left, PlcImage right, PlcImage dest) {
+		return binaryImageImageOp(op, left, ALL_CHANNELS, right, ALL_CHANNELS, dest);
+	}
+
+	/**
+	 * Operation on the images with only the channels in leftMask and rightMask, the same as the
+	 * operation on the images extractChannel would return, without computing them.
+	 */
+	public static PlcImage binaryImageImageOp(OP op, PlcImage left, int leftMask, PlcImage right, int rightMask) {
+		return binaryImageImageOp(op, left, leftMask, right, rightMask,
+				ImagePool.acquireScratch(left.getWidth(), left.getHeight()));
+	}
+
+	public static PlcImage binaryImageImageOp(OP op, PlcImage left, int leftMask, PlcImage right, int rightMask,
+			PlcImage dest) {
+		if (left.getWidth() != right.getWidth() || left.getHeight() != right.getHeight()) {
+			throw new PLCRuntimeException("Attempting binary operation on images with unequal sizes");
+		}
+		checkSameSize(left, dest);
+		int size = dest.size();
+		for (int i = 0; i < size; i++) {
+			dest.setPixel(i, binaryPackedPixelPixelOp(op, left.getPixel(i) & leftMask, right.getPixel(i) & rightMask));
+		}
+		return dest;
+	}
+
+	public static PlcImage binaryImagePixelOp(OP op, PlcImage left, int right) {
+		return binaryImagePixelOp(op, left, ALL_CHANNELS, right);
+	}
+
+	public static PlcImage binaryImagePixelOp(OP op, PlcImage left, int right, PlcImage dest) {
+		return binaryImagePixelOp(op, left, ALL_CHANNELS, right, dest);
+	}
+
+	public static PlcImage binaryImagePixelOp(OP op, PlcImage left, int leftMask, int right) {
+		return binaryImagePixelOp(op, left, leftMask, right, ImagePool.acquireScratch(left.getWidth(), left.getHeight()));
+	}
+
+	public static PlcImage binaryImagePixelOp(OP op, PlcImage left, int leftMask, int right, PlcImage dest) {
+		checkSameSize(left, dest);
+		int size = dest.size();
+		for (int i = 0; i < size; i++) {
+			dest.setPixel(i, binaryPackedPixelPixelOp(op, left.getPixel(i) & leftMask, right));
+		}
+		return dest;
+	}
+
+	public static PlcImage binaryImageScalarOp(OP op, PlcImage left, int right) {
+		return binaryImageScalarOp(op, left, ALL_CHANNELS, right);
+	}
+
+	public static PlcImage binaryImageScalarOp(OP op, PlcImage left, int right, PlcImage dest) {
+		return binaryImageScalarOp(op, left, ALL_CHANNELS, right, dest);
+	}
+
+	public static PlcImage binaryImageScalarOp(OP op, PlcImage left, int leftMask, int right) {
+		return binaryImageScalarOp(op, left, leftMask, right, ImagePool.acquireScratch(left.getWidth(), left.getHeight()));
+	}
+
+	public static PlcImage binaryImageScalarOp(OP op, PlcImage left, int leftMask, int right, PlcImage dest) {
+		checkSameSize(left, dest);
+		int size = dest.size();
+		if (op == OP.DIV && right > 0) {
+			// each channel divided by a multiply and shift instead of a division
+			int multiplier = PixelOps.channelMultiplier(right);
+			int shift = PixelOps.channelShift(right);
+			for (int i = 0; i < size; i++) {
+				int pixel = left.getPixel(i) & leftMask;
+				dest.setPixel(i, PixelOps.pack(PixelOps.red(pixel) * multiplier >> shift,
+						PixelOps.green(pixel) * multiplier >> shift, PixelOps.blue(pixel) * multiplier >> shift));
+			}
+			return dest;
+		}
+		for (int i = 0; i < size; i++) {
+			dest.setPixel(i, binaryPackedPixelScalarOp(op, left.getPixel(i) & leftMask, right));
+		}
+		return dest;
+	}
+
+	/**
+	 * Returns the convolution of image with kernel, divided by the default divisor of the kernel.
+	 * See ConvolutionKernel.
+	 */
+	public static PlcImage convolve(PlcImage image, ConvolutionKernel kernel) {
+		return convolve(image, kernel, kernel.getDefaultDivisor());
+	}
+
+	public static PlcImage convolve(PlcImage image, ConvolutionKernel kernel, int divisor) {
+		return convolve(image, kernel, divisor, ImagePool.acquireScratch(image.getWidth(), image.getHeight()));
+	}
+
+	/**
+	 * Writes the result into dest, which must have the same shape as image and may be image itself.
+	 */
+	public static PlcImage convolve(PlcImage image, ConvolutionKernel kernel, int divisor, PlcImage dest) {
+		checkSameSize(image, dest);
+		return kernel.apply(image, divisor, dest);
+	}
+
+	/**
+	 * Reductions of the channels of image in mask, ALL_CHANNELS for the whole image or the mask of
+	 * a channel extraction for only the channels it keeps.  See Reductions.
+	 *
+	 * @return the sum of the channel values, wrapped to an int
+	 */
+	public static int sum(PlcImage image, int mask) {
+		return Reductions.sum(image, mask);
+	}
+
+	/**
+	 * @return the smallest channel value, or 0 for an empty image
+	 */
+	public static int min(PlcImage image, int mask) {
+		return Reductions.min(image, mask);
+	}
+
+	/**
+	 * @return the largest channel value, or 0 for an empty image
+	 */
+	public static int max(PlcImage image, int mask) {
+		return Reductions.max(image, mask);
+	}
+
+	/**
+	 * @return the number of pixels of the channel extraction equal to pixel, alpha ignored
+	 */
+	public static int count(PlcImage image, int mask, int pixel) {
+		return Reductions.count(image, mask, pixel);
+	}
+
+	/**
+	 * @return the number of occurrences of each channel value from 0 to 255
+	 */
+	public static int[] histogram(PlcImage image, int mask) {
+		return Reductions.histogram(image, mask);
+	}
+
+	/**
+	 * @return the number of occurrences of the channel value, 0 if it is not in [0, 255]
+	 */
+	public static int histogram(PlcImage image, int mask, int value) {
+		return 0 <= value && value < 256 ? Reductions.histogram(image, mask)[value] : 0;
+	}
+
+	private static void checkSameSize(PlcImage source, PlcImage dest) {
+		if (source.getWidth() != dest.getWidth() || source.getHeight() != dest.getHeight()) {
+			throw new PLCRuntimeException("Destination image does not have the same size as the source");
+		}
+	}
+
+	public static PlcImage setAllPixels(PlcImage image, int packed) {
+		image.fill(packed);
+		return image;
+	}
+
+	/**
+	 * Returns a new image that is a copy of the given image.  The copy is off the heap if it is
+	 * large or, for an image with alpha, if the original is.
+	 */
+	public static PlcImage cloneImage(PlcImage image) {
+		if (!image.hasAlpha()) {
+			PlcImage clone = ImagePool.acquireScratch(image.getWidth(), image.getHeight());
+			clone.copyFrom(image);
+			return clone;
+		}
+		if (image.hasArray()) {
+			return new PlcImage(image.getWidth(), image.getHeight(), image.getPixels().clone(), image.hasAlpha());
+		}
+		PlcImage clone = new PlcImage(image.getWidth(), image.getHeight(),
+				PlcImage.allocate(image.getWidth(), image.getHeight(), true), image.hasAlpha());
+		clone.copyFrom(image);
+		return clone;
+	}
+
+	/**
+	 * Copies one image into the other, resizing to fit the size of the destination image
+	 */
+	public static void copyInto(PlcImage sourceImage, PlcImage destImage) {
+		if (destImage.getWidth() != sourceImage.getWidth() || destImage.getHeight() != sourceImage.getHeight()) {
+			sourceImage = copyAndResize(sourceImage, destImage.getWidth(), destImage.getHeight());
+		}
+		destImage.copyFrom(sourceImage);
+	}
+
+	public static void copyIntoSameSize(PlcImage sourceImage, PlcImage destImage) {
+		destImage.copyFrom(sourceImage);
+	}
+
+	/**
+	 * Same as the loops of dest[x,y] = source[x,y] with the channels in mask, ALL_CHANNELS for the
+	 * whole pixel.  The images may have different sizes.  See PixelCopies.
+	 *
+	 * @return dest
+	 */
+	public static PlcImage copyPixels(PlcImage source, int mask, PlcImage dest) {
+		return PixelCopies.copy(source, mask, dest);
+	}
+
+	/**
+	 * Same as the loops of dest[x,y] = source[y,x] with the channels in mask.  dest must not be
+	 * source.
+	 *
+	 * @return dest
+	 */
+	public static PlcImage transposePixels(PlcImage source, int mask, PlcImage dest) {
+		return PixelCopies.transpose(source, mask, dest);
+	}
+
+	/**
+	 * Returns a new image of size maxX x maxY, resized with the filter selected by RESIZE_FILTER.
+	 * See Resize for the kernels.
+	 */
+	public static PlcImage copyAndResize(PlcImage image, int maxX, int maxY) {
+		return RESIZE_BILINEAR ? copyAndResizeBilinear(image, maxX, maxY) : copyAndResizeNearest(image, maxX, maxY);
+	}
+
+	/**
+	 * Returns a new image of size maxX x maxY in which each pixel is the source pixel nearest to
+	 * its center.
+	 */
+	public static PlcImage copyAndResizeNearest(PlcImage image, int maxX, int maxY) {
+		return Resize.nearest(image, maxX, maxY);
+	}
+
+	/**
+	 * Returns a new image of size maxX x maxY in which each pixel is interpolated from the four
+	 * source pixels around its center.
+	 */
+	public static PlcImage copyAndResizeBilinear(PlcImage image, int maxX, int maxY) {
+		return Resize.bilinear(image, maxX, maxY);
+	}
+
+	public static int[] getRGBPixels(PlcImage image) {
+		return image.toArray();
+	}
+
+	public static boolean equals(PlcImage image0, PlcImage image1) {
+		return image0.getWidth() == image1.getWidth() && image0.getHeight() == image1.getHeight()
+				&& image0.getBuffer().duplicate().clear().equals(image1.getBuffer().duplicate().clear());
+	}
+
+	/**
+	 * If coordinates are out of bounds does nothing.
+	 */
+	public static void setRGB(PlcImage image, int x, int y, int pixel) {
+		if (0 <= x && x < image.getWidth() && 0 <= y && y < image.getHeight()) {
+			image.setRGB(x, y, pixel);
+		}
+	}
+
+	/**
+	 * If coordinates are out of bounds it returns a black pixel.
+	 */
+	public static int getRGB(PlcImage image, int x, int y) {
+		if (0 <= x && x < image.getWidth() && 0 <= y && y < image.getHeight()) {
+			return image.getRGB(x, y);
+		}
+		return PixelOps.pack(0, 0, 0);
+	}
+
+	/**
+	 * Pixel (x,y) of image with only the channels in mask, the same as pixel (x,y) of the image
+	 * extractChannel would return, without computing that image.  If coordinates are out of bounds
+	 * it returns a black pixel.
+	 */
+	public static int getRGB(PlcImage image, int x, int y, int mask) {
+		return getRGB(image, x, y) & mask | PixelOps.SELECT_ALPHA;
+	}
+
+	/**
+	 * If coordinates are out of bounds it returns a black pixel.
+	 */
+	public static int getRGB(StreamedImage image, int x, int y) {
+		if (0 <= x && x < image.getWidth() && 0 <= y && y < image.getHeight()) {
+			return image.getRGB(x, y);
+		}
+		return PixelOps.pack(0, 0, 0);
+	}
+
+	public static int getRGB(StreamedImage image, int x, int y, int mask) {
+		return getRGB(image, x, y) & mask | PixelOps.SELECT_ALPHA;
+	}
+
 }
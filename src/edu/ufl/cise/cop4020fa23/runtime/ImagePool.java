@@ -0,0 +1,93 @@
+package edu.ufl.cise.cop4020fa23.runtime;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Pool of image frames, bucketed by size, so that programs that compute images repeatedly, such
+ * as a do loop over image operations, reuse the same frames instead of allocating new ones.
+ *
+ * ImageOps takes the results of image operations from the pool, and generated code releases
+ * images when they are no longer live: temporaries after the statement that uses them, and
+ * variables after their last use in the block that declares them.  Only images created by the
+ * pool are kept when released; releasing any other image, such as one read from a file, does
+ * nothing.  Released images must not be used again.
+ *
+ * Images smaller than MIN_PIXELS are not pooled, since allocating them is cheaper than tracking
+ * them.  At most MAX_BYTES, set with the system property plc.imagePoolBytes (default 256MB), are
+ * held in the pool; frames released beyond that are left to the garbage collector.
+ */
+public final class ImagePool {
+
+	public static final int MIN_PIXELS = 1 << 14;
+	public static final long MAX_BYTES = Long.getLong("plc.imagePoolBytes", 256L << 20);
+
+	// free frames keyed by width << 32 | height
+	private static final Map<Long, ArrayDeque<PlcImage>> free = new HashMap<>();
+	// frames created by the pool; weak, so frames that are never released are still collected
+	private static final Set<PlcImage> owned = Collections.newSetFromMap(new WeakHashMap<>());
+	private static long freeBytes;
+
+	private ImagePool() {
+	}
+
+	/**
+	 * Returns a black image of the given size, the same as new PlcImage(width, height).
+	 */
+	public static PlcImage acquire(int width, int height) {
+		PlcImage image = acquireScratch(width, height);
+		image.fill(PixelOps.SELECT_ALPHA);
+		return image;
+	}
+
+	/**
+	 * Returns an image of the given size without an alpha channel, with unspecified pixels.  The
+	 * caller must write every pixel.
+	 */
+	static synchronized PlcImage acquireScratch(int width, int height) {
+		if ((long) width * height < MIN_PIXELS) {
+			return new PlcImage(width, height, PlcImage.allocate(width, height, false), false);
+		}
+		ArrayDeque<PlcImage> frames = free.get(key(width, height));
+		if (frames != null && !frames.isEmpty()) {
+			PlcImage image = frames.pop();
+			freeBytes -= bytes(image);
+			return image;
+		}
+		boolean direct = (long) width * height >= PlcImage.OFF_HEAP_PIXELS;
+		PlcImage image = new PlcImage(width, height, PlcImage.allocate(width, height, direct), false);
+		owned.add(image);
+		return image;
+	}
+
+	/**
+	 * Returns the image to the pool.  Does nothing if the image did not come from the pool, is
+	 * already in it, or the pool is full.
+	 */
+	public static synchronized void release(PlcImage image) {
+		if (image == null || !owned.contains(image) || freeBytes + bytes(image) > MAX_BYTES) {
+			return;
+		}
+		ArrayDeque<PlcImage> frames = free.computeIfAbsent(key(image.getWidth(), image.getHeight()),
+				k -> new ArrayDeque<>());
+		for (PlcImage frame : frames) {
+			if (frame == image) {
+				return;
+			}
+		}
+		frames.push(image);
+		freeBytes += bytes(image);
+	}
+
+	private static long key(int width, int height) {
+		return (long) width << 32 | height;
+	}
+
+	private static long bytes(PlcImage image) {
+		return (long) image.size() * Integer.BYTES;
+	}
+}
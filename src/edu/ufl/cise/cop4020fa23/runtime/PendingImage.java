@@ -0,0 +1,44 @@
+package edu.ufl.cise.cop4020fa23.runtime;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Image being read by FileURLIO.readImageAsync.  Generated code starts the reads of the images a
+ * program loads when it is entered and calls get at each declaration, so the decodes run at the
+ * same time as each other and as the code before the declarations.
+ */
+public final class PendingImage {
+
+	private final Future<PlcImage> image;
+
+	PendingImage(Future<PlcImage> image) {
+		this.image = image;
+	}
+
+	/**
+	 * Waits for the image; same as FileURLIO.readPlcImage(source).
+	 */
+	public PlcImage get() {
+		return get(null, null);
+	}
+
+	/**
+	 * Waits for the image; same as FileURLIO.readPlcImage(source, w, h).
+	 */
+	public PlcImage get(Integer w, Integer h) {
+		return FileURLIO.resize(join(image), w, h);
+	}
+
+	private static PlcImage join(Future<PlcImage> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PLCRuntimeException("Interrupted while waiting for an image");
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+					: new PLCRuntimeException(e.getCause().getMessage());
+		}
+	}
+}
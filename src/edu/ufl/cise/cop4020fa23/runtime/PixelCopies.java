@@ -0,0 +1,131 @@
+package edu.ufl.cise.cop4020fa23.runtime;
+
+import java.nio.IntBuffer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Whole image forms of the pixel assignments dest[x,y] = source[x,y] and dest[x,y] = source[y,x],
+ * used by ImageOps.copyPixels and ImageOps.transposePixels.  They write the same pixels as the
+ * loops would: a pixel of dest whose source pixel is out of bounds is black.
+ *
+ * With the mask ALL_CHANNELS the pixels are copied as they are; with any other mask only the
+ * channels in it are kept and alpha is set, as ImageOps.getRGB(image, x, y, mask) does.  A copy
+ * moves whole rows with bulk buffer copies, which are System.arraycopy for images on the heap.  A
+ * transpose reads the columns of the source, so it is done in TILE square tiles, each of which
+ * reads and writes few enough rows to stay in the cache.  Images with at least
+ * Resize.PARALLEL_PIXELS pixels are done a band of TILE rows per task on the common pool.
+ */
+final class PixelCopies {
+
+	static final int TILE = 64;
+
+	private static final int BLACK = PixelOps.pack(0, 0, 0);
+
+	private PixelCopies() {
+	}
+
+	static PlcImage copy(PlcImage source, int mask, PlcImage dest) {
+		int width = dest.getWidth();
+		int height = dest.getHeight();
+		// the part of dest that has a source pixel
+		int copyWidth = Math.min(width, source.getWidth());
+		int copyHeight = Math.min(height, source.getHeight());
+		boolean raw = mask == ImageOps.ALL_CHANNELS && (dest.hasAlpha() || !source.hasAlpha());
+		if (raw && source.getWidth() == width && source.getHeight() == height) {
+			dest.copyFrom(source);
+			return dest;
+		}
+		int alpha = alpha(mask, dest);
+		IntBuffer src = source.getBuffer();
+		IntBuffer dst = dest.getBuffer();
+		int srcWidth = source.getWidth();
+		forEachBand(dest, band -> {
+			for (int y = band; y < Math.min(band + TILE, height); y++) {
+				int dstRow = y * width;
+				int x = 0;
+				if (y < copyHeight) {
+					int srcRow = y * srcWidth;
+					if (raw) {
+						dst.put(dstRow, src, srcRow, copyWidth);
+						x = copyWidth;
+					} else {
+						for (; x < copyWidth; x++) {
+							dst.put(dstRow + x, src.get(srcRow + x) & mask | alpha);
+						}
+					}
+				}
+				for (; x < width; x++) {
+					dst.put(dstRow + x, BLACK);
+				}
+			}
+		});
+		return dest;
+	}
+
+	/**
+	 * Precondition: dest is not source.
+	 */
+	static PlcImage transpose(PlcImage source, int mask, PlcImage dest) {
+		int width = dest.getWidth();
+		int height = dest.getHeight();
+		// pixel (x,y) of dest is pixel (y,x) of source
+		int copyWidth = Math.min(width, source.getHeight());
+		int copyHeight = Math.min(height, source.getWidth());
+		int alpha = alpha(mask, dest);
+		IntBuffer dst = dest.getBuffer();
+		forEachBand(dest, band -> {
+			int bandEnd = Math.min(band + TILE, height);
+			int transposedEnd = Math.min(bandEnd, copyHeight);
+			for (int tile = 0; tile < copyWidth; tile += TILE) {
+				transposeTile(source, mask, alpha, dest, band, transposedEnd, tile, Math.min(tile + TILE, copyWidth));
+			}
+			for (int y = band; y < bandEnd; y++) {
+				int dstRow = y * width;
+				for (int x = y < copyHeight ? copyWidth : 0; x < width; x++) {
+					dst.put(dstRow + x, BLACK);
+				}
+			}
+		});
+		return dest;
+	}
+
+	// the rows y0 to y1 and columns x0 to x1 of dest, all of which have a source pixel; images on
+	// the heap are accessed through their arrays, which is faster than through their buffers
+	private static void transposeTile(PlcImage source, int mask, int alpha, PlcImage dest, int y0, int y1, int x0, int x1) {
+		int width = dest.getWidth();
+		int srcWidth = source.getWidth();
+		if (source.hasArray() && dest.hasArray()) {
+			int[] src = source.getPixels();
+			int[] dst = dest.getPixels();
+			for (int y = y0; y < y1; y++) {
+				int dstRow = y * width;
+				for (int x = x0; x < x1; x++) {
+					dst[dstRow + x] = src[x * srcWidth + y] & mask | alpha;
+				}
+			}
+			return;
+		}
+		IntBuffer src = source.getBuffer();
+		IntBuffer dst = dest.getBuffer();
+		for (int y = y0; y < y1; y++) {
+			int dstRow = y * width;
+			for (int x = x0; x < x1; x++) {
+				dst.put(dstRow + x, src.get(x * srcWidth + y) & mask | alpha);
+			}
+		}
+	}
+
+	// bits set in every pixel written, so it is the pixel setRGB would store
+	private static int alpha(int mask, PlcImage dest) {
+		return mask == ImageOps.ALL_CHANNELS && dest.hasAlpha() ? 0 : PixelOps.SELECT_ALPHA;
+	}
+
+	private static void forEachBand(PlcImage dest, IntConsumer band) {
+		IntStream bands = IntStream.range(0, (dest.getHeight() + TILE - 1) / TILE).map(i -> i * TILE);
+		if (dest.size() >= Resize.PARALLEL_PIXELS) {
+			bands = bands.parallel();
+		}
+		bands.forEach(band);
+	}
+}
@@ -78,6 +78,40 @@ public class PixelOps {
 	private static int truncate(int z) {
 		return z < 0 ? 0 : (z > 255 ? 255 : z);
 	}
+
+	/**
+	 * Shift of the multiply and shift that divide a channel value by divisor: for 0 <= c < 256
+	 * and divisor > 0, c / divisor == (c * channelMultiplier(divisor)) >> channelShift(divisor).
+	 * A divisor above 256 gives the same quotients, all 0, as 256.
+	 */
+	public static int channelShift(int divisor) {
+		// 8 bits of numerator plus ceil(log2(divisor))
+		return 8 + 32 - Integer.numberOfLeadingZeros(Math.min(divisor, 256) - 1);
+	}
+
+	/**
+	 * Multiplier of the multiply and shift that divide a channel value by divisor, which is
+	 * ceil(2^channelShift(divisor) / divisor) and less than 2^9, so the product fits an int.
+	 */
+	public static int channelMultiplier(int divisor) {
+		int d = Math.min(divisor, 256);
+		return ((1 << channelShift(d)) + d - 1) / d;
+	}
+
+	/**
+	 * The pixel with each color channel shifted right by shift, which divides it by 2^shift.
+	 */
+	public static int shiftChannels(int pixel, int shift) {
+		return pack(red(pixel) >> shift, green(pixel) >> shift, blue(pixel) >> shift);
+	}
+
+	/**
+	 * The pixel with each color channel c replaced by (c * multiplier) >> shift, which divides it
+	 * by divisor when multiplier and shift are channelMultiplier(divisor) and channelShift(divisor).
+	 */
+	public static int divideChannels(int pixel, int multiplier, int shift) {
+		return pack(red(pixel) * multiplier >> shift, green(pixel) * multiplier >> shift, blue(pixel) * multiplier >> shift);
+	}
 	
 	
 	/** Constants used in building and select color components from a packed int */
@@ -0,0 +1,236 @@
+package edu.ufl.cise.cop4020fa23.runtime;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Image representation used by generated code.  Pixels are packed ARGB ints (see PixelOps) stored
+ * row by row, so pixel (x,y) is at index y * width + x.
+ *
+ * The pixels live in an IntBuffer.  Ordinary images use a heap buffer backed by an int[].  Images
+ * with at least OFF_HEAP_PIXELS pixels, or created with allocateDirect, use a direct buffer
+ * outside the Java heap, so very large frames are not limited by the heap size and are never
+ * copied by the garbage collector.  An image can also wrap any other IntBuffer, for example one
+ * obtained from a memory-mapped file.  A single buffer holds at most Integer.MAX_VALUE bytes, so
+ * an off-heap image has at most 536,870,911 pixels (about 23170 x 23170).
+ *
+ * Unlike java.awt.image.BufferedImage there is no color model: getRGB and setRGB are plain buffer
+ * accesses.  An image without an alpha channel behaves like a TYPE_INT_RGB BufferedImage, so
+ * setRGB forces the alpha to 0xff.  Images converted from a BufferedImage with an alpha channel
+ * keep the alpha values, like TYPE_INT_ARGB.
+ *
+ * This class does not depend on AWT.  Conversion to and from BufferedImage is done by
+ * ImageOps.toPlcImage and ImageOps.toBufferedImage, at the boundary of a generated program and in
+ * FileURLIO and ConsoleIO.
+ */
+public final class PlcImage {
+
+	/**
+	 * Images with at least this many pixels are allocated off the heap.  Set with the system
+	 * property plc.offHeapPixels; the default is 16M pixels (a 64MB image).
+	 */
+	public static final long OFF_HEAP_PIXELS = Long.getLong("plc.offHeapPixels", 16L << 20);
+
+	private static final int MAX_DIRECT_PIXELS = Integer.MAX_VALUE / Integer.BYTES;
+
+	private final int width;
+	private final int height;
+	private final IntBuffer pixels;
+	private final boolean hasAlpha;
+
+	/**
+	 * Creates a black image of the given size, off the heap if it has at least OFF_HEAP_PIXELS
+	 * pixels.
+	 */
+	public PlcImage(int width, int height) {
+		this(width, height, allocate(width, height, (long) width * height >= OFF_HEAP_PIXELS), false);
+		fill(PixelOps.SELECT_ALPHA);
+	}
+
+	/**
+	 * Creates an image that uses the given array, which is not copied, for its pixels.
+	 *
+	 * @param width
+	 * @param height
+	 * @param pixels  packed pixels in row major order; length must be width * height
+	 * @param hasAlpha  whether the alpha values of pixels are significant
+	 */
+	public PlcImage(int width, int height, int[] pixels, boolean hasAlpha) {
+		this(width, height, IntBuffer.wrap(pixels), hasAlpha);
+	}
+
+	/**
+	 * Creates an image that uses the given buffer, which is not copied, for its pixels.  Pixel i
+	 * is at absolute index i of the buffer, whatever its position.
+	 *
+	 * @param width
+	 * @param height
+	 * @param pixels  packed pixels in row major order; capacity must be width * height
+	 * @param hasAlpha  whether the alpha values of pixels are significant
+	 */
+	public PlcImage(int width, int height, IntBuffer pixels, boolean hasAlpha) {
+		if (pixels.capacity() != checkedSize(width, height)) {
+			throw new PLCRuntimeException("Pixel buffer does not match image size " + width + "x" + height);
+		}
+		this.width = width;
+		this.height = height;
+		this.pixels = pixels;
+		this.hasAlpha = hasAlpha;
+	}
+
+	/**
+	 * Creates a black image of the given size outside the Java heap, regardless of its size.
+	 */
+	public static PlcImage allocateDirect(int width, int height) {
+		PlcImage image = new PlcImage(width, height, allocate(width, height, true), false);
+		image.fill(PixelOps.SELECT_ALPHA);
+		return image;
+	}
+
+	// buffer for an image of the given size, not yet filled
+	static IntBuffer allocate(int width, int height, boolean direct) {
+		int size = checkedSize(width, height);
+		if (!direct) {
+			return IntBuffer.allocate(size);
+		}
+		if (size > MAX_DIRECT_PIXELS) {
+			throw new PLCRuntimeException("Image too large for off-heap storage " + width + "x" + height);
+		}
+		return ByteBuffer.allocateDirect(size * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	private static int checkedSize(int width, int height) {
+		if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE) {
+			throw new PLCRuntimeException("Illegal image size " + width + "x" + height);
+		}
+		return width * height;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public boolean hasAlpha() {
+		return hasAlpha;
+	}
+
+	/**
+	 * @return true if the pixels are stored outside the Java heap
+	 */
+	public boolean isDirect() {
+		return pixels.isDirect();
+	}
+
+	/**
+	 * Number of pixels, width * height.
+	 */
+	public int size() {
+		return pixels.capacity();
+	}
+
+	/**
+	 * The buffer holding the pixels.  Changes to it are visible in the image.
+	 */
+	public IntBuffer getBuffer() {
+		return pixels;
+	}
+
+	/**
+	 * @return true if the pixels are in an int[] returned by getPixels
+	 */
+	public boolean hasArray() {
+		return pixels.hasArray() && pixels.arrayOffset() == 0;
+	}
+
+	/**
+	 * The backing array of a heap image.  Changes to it are visible in the image.
+	 *
+	 * Precondition: hasArray()
+	 */
+	public int[] getPixels() {
+		if (!hasArray()) {
+			throw new PLCRuntimeException("Image pixels are not stored in an array");
+		}
+		return pixels.array();
+	}
+
+	/**
+	 * Precondition: 0 <= x < width and 0 <= y < height.  Use ImageOps.getRGB for a checked access.
+	 */
+	public int getRGB(int x, int y) {
+		return pixels.get(y * width + x);
+	}
+
+	/**
+	 * Precondition: 0 <= x < width and 0 <= y < height.  Use ImageOps.setRGB for a checked access.
+	 */
+	public void setRGB(int x, int y, int pixel) {
+		pixels.put(y * width + x, hasAlpha ? pixel : pixel | PixelOps.SELECT_ALPHA);
+	}
+
+	/**
+	 * Pixel at the given row major index, 0 <= index < size().
+	 */
+	public int getPixel(int index) {
+		return pixels.get(index);
+	}
+
+	/**
+	 * Sets the pixel at the given row major index, 0 <= index < size().
+	 */
+	public void setPixel(int index, int pixel) {
+		pixels.put(index, hasAlpha ? pixel : pixel | PixelOps.SELECT_ALPHA);
+	}
+
+	/**
+	 * Sets every pixel to the given value.
+	 */
+	public void fill(int pixel) {
+		int value = hasAlpha ? pixel : pixel | PixelOps.SELECT_ALPHA;
+		if (hasArray()) {
+			Arrays.fill(pixels.array(), value);
+			return;
+		}
+		int size = size();
+		for (int i = 0; i < size; i++) {
+			pixels.put(i, value);
+		}
+	}
+
+	/**
+	 * Copies pixels into this image from another image of the same size.
+	 */
+	public void copyFrom(PlcImage source) {
+		if (source.width != width || source.height != height) {
+			throw new PLCRuntimeException("copyFrom source and destination image have different sizes");
+		}
+		if (hasAlpha || !source.hasAlpha) {
+			pixels.duplicate().clear().put(source.pixels.duplicate().clear());
+			return;
+		}
+		int size = size();
+		for (int i = 0; i < size; i++) {
+			pixels.put(i, source.pixels.get(i) | PixelOps.SELECT_ALPHA);
+		}
+	}
+
+	/**
+	 * Copies the pixels into a new array.
+	 */
+	public int[] toArray() {
+		int[] result = new int[size()];
+		pixels.duplicate().clear().get(result);
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "PlcImage [width=" + width + ", height=" + height + (isDirect() ? ", direct" : "") + "]";
+	}
+}
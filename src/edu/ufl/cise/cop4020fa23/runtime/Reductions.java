@@ -0,0 +1,149 @@
+package edu.ufl.cise.cop4020fa23.runtime;
+
+import java.nio.IntBuffer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Reduction kernels for PlcImage, used by the reduce expressions through ImageOps.  Each reduces
+ * the channels of the image selected by a channel mask, so a reduction of a channel extraction
+ * such as (im:red) reads im directly instead of computing the extraction.
+ *
+ * The pixels are split into chunks of CHUNK_PIXELS, which images with at least
+ * Resize.PARALLEL_PIXELS pixels reduce in parallel on the common ForkJoin pool.  Each chunk keeps
+ * its own partial result, a sum or a set of histogram counters, and the partials are combined in
+ * chunk order once all chunks are done, so the result does not depend on the scheduling of the
+ * chunks and no counter is shared between threads.
+ */
+final class Reductions {
+
+	static final int CHUNK_PIXELS = 1 << 16;
+
+	private Reductions() {
+	}
+
+	/**
+	 * @return the sum of the selected channel values of every pixel, wrapped to an int as PLC int
+	 *         arithmetic is
+	 */
+	static int sum(PlcImage image, int mask) {
+		IntBuffer pixels = image.getBuffer();
+		int rgbMask = mask & ~PixelOps.SELECT_ALPHA;
+		long[] partials = new long[chunks(image)];
+		forEachChunk(image, chunk -> {
+			long sum = 0;
+			for (int i = from(chunk); i < to(image, chunk); i++) {
+				int pixel = pixels.get(i) & rgbMask;
+				sum += (pixel >>> PixelOps.SHIFT_RED) + (pixel >>> PixelOps.SHIFT_GREEN & 0xff) + (pixel & 0xff);
+			}
+			partials[chunk] = sum;
+		});
+		long sum = 0;
+		for (long partial : partials) {
+			sum += partial;
+		}
+		return (int) sum;
+	}
+
+	/**
+	 * @return the smallest selected channel value of any pixel, or 0 if the image has no pixels or
+	 *         no channel is selected
+	 */
+	static int min(PlcImage image, int mask) {
+		int[] counts = histogram(image, mask);
+		for (int value = 0; value < counts.length; value++) {
+			if (counts[value] > 0) {
+				return value;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the largest selected channel value of any pixel, or 0 if the image has no pixels or
+	 *         no channel is selected
+	 */
+	static int max(PlcImage image, int mask) {
+		int[] counts = histogram(image, mask);
+		for (int value = counts.length - 1; value > 0; value--) {
+			if (counts[value] > 0) {
+				return value;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the number of pixels whose selected channels are those of pixel and whose other
+	 *         channels are 0, the pixels of the channel extraction equal to pixel
+	 */
+	static int count(PlcImage image, int mask, int pixel) {
+		IntBuffer pixels = image.getBuffer();
+		int rgbMask = mask & ~PixelOps.SELECT_ALPHA;
+		int rgb = pixel & ~PixelOps.SELECT_ALPHA;
+		int[] partials = new int[chunks(image)];
+		forEachChunk(image, chunk -> {
+			int count = 0;
+			for (int i = from(chunk); i < to(image, chunk); i++) {
+				count += (pixels.get(i) & rgbMask) == rgb ? 1 : 0;
+			}
+			partials[chunk] = count;
+		});
+		int count = 0;
+		for (int partial : partials) {
+			count += partial;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of times each value 0 to 255 occurs as a selected channel of a pixel
+	 */
+	static int[] histogram(PlcImage image, int mask) {
+		IntBuffer pixels = image.getBuffer();
+		boolean red = (mask & PixelOps.SELECT_RED) != 0;
+		boolean green = (mask & PixelOps.SELECT_GREEN) != 0;
+		boolean blue = (mask & PixelOps.SELECT_BLUE) != 0;
+		// counters striped by channel, so the three increments for a pixel never update the same
+		// counter, and by chunk, so no two threads do
+		int[][] partials = new int[chunks(image)][];
+		forEachChunk(image, chunk -> {
+			int[] counts = new int[3 * 256];
+			for (int i = from(chunk); i < to(image, chunk); i++) {
+				int pixel = pixels.get(i);
+				counts[pixel >>> PixelOps.SHIFT_RED & 0xff]++;
+				counts[256 + (pixel >>> PixelOps.SHIFT_GREEN & 0xff)]++;
+				counts[512 + (pixel & 0xff)]++;
+			}
+			partials[chunk] = counts;
+		});
+		int[] histogram = new int[256];
+		for (int[] counts : partials) {
+			for (int value = 0; value < 256; value++) {
+				histogram[value] += (red ? counts[value] : 0) + (green ? counts[256 + value] : 0)
+						+ (blue ? counts[512 + value] : 0);
+			}
+		}
+		return histogram;
+	}
+
+	private static int chunks(PlcImage image) {
+		return (image.size() + CHUNK_PIXELS - 1) / CHUNK_PIXELS;
+	}
+
+	private static int from(int chunk) {
+		return chunk * CHUNK_PIXELS;
+	}
+
+	private static int to(PlcImage image, int chunk) {
+		return Math.min((chunk + 1) * CHUNK_PIXELS, image.size());
+	}
+
+	private static void forEachChunk(PlcImage image, IntConsumer chunk) {
+		IntStream chunks = IntStream.range(0, chunks(image));
+		if (image.size() >= Resize.PARALLEL_PIXELS) {
+			chunks = chunks.parallel();
+		}
+		chunks.forEach(chunk);
+	}
+}
@@ -0,0 +1,183 @@
+package edu.ufl.cise.cop4020fa23.runtime;
+
+import java.nio.IntBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Resize kernels for PlcImage, used by ImageOps.copyAndResize.  They work on the packed pixels
+ * with integer arithmetic only.
+ *
+ * For each axis the source coordinate of every destination coordinate is computed once and kept
+ * in an index map, which is cached for the pair of sizes, so repeated resizes between the same
+ * sizes, as in a loop or a program run many times, do not recompute it.  Images with at least
+ * PARALLEL_PIXELS destination pixels are resized with one task per row on the common pool.
+ *
+ * Both kernels sample at pixel centers: destination pixel x covers source coordinates
+ * [x * srcWidth / dstWidth, (x + 1) * srcWidth / dstWidth).
+ */
+final class Resize {
+
+	static final int PARALLEL_PIXELS = 1 << 16;
+
+	private static final int MAX_CACHED_MAPS = 64;
+	// bilinear weights are fractions of 256
+	private static final int FRACTION_BITS = 8;
+	private static final int ONE = 1 << FRACTION_BITS;
+
+	// keyed by source size << 32 | destination size
+	private static final Map<Long, int[]> nearestMaps = new ConcurrentHashMap<>();
+	private static final Map<Long, int[]> bilinearMaps = new ConcurrentHashMap<>();
+
+	private Resize() {
+	}
+
+	static PlcImage nearest(PlcImage source, int width, int height) {
+		return gather(source, nearestMap(source.getWidth(), width), nearestMap(source.getHeight(), height));
+	}
+
+	/**
+	 * Returns the image whose pixel (x,y) is pixel (xMap[x], yMap[y]) of source.
+	 */
+	static PlcImage gather(PlcImage source, int[] xMap, int[] yMap) {
+		int width = xMap.length;
+		int height = yMap.length;
+		PlcImage result = newImage(source, width, height);
+		IntBuffer src = source.getBuffer();
+		IntBuffer dst = result.getBuffer();
+		int srcWidth = source.getWidth();
+		forEachRow(width, height, y -> {
+			int srcRow = yMap[y] * srcWidth;
+			int dstRow = y * width;
+			for (int x = 0; x < width; x++) {
+				dst.put(dstRow + x, src.get(srcRow + xMap[x]));
+			}
+		});
+		return result;
+	}
+
+	static PlcImage bilinear(PlcImage source, int width, int height) {
+		PlcImage result = newImage(source, width, height);
+		// pairs of (first source coordinate, weight of the next one)
+		int[] xMap = bilinearMap(source.getWidth(), width);
+		int[] yMap = bilinearMap(source.getHeight(), height);
+		IntBuffer src = source.getBuffer();
+		IntBuffer dst = result.getBuffer();
+		int srcWidth = source.getWidth();
+		int lastX = srcWidth - 1;
+		int lastY = source.getHeight() - 1;
+		forEachRow(width, height, y -> {
+			int y0 = yMap[2 * y];
+			int fy = yMap[2 * y + 1];
+			int row0 = y0 * srcWidth;
+			int row1 = Math.min(y0 + 1, lastY) * srcWidth;
+			int dstRow = y * width;
+			for (int x = 0; x < width; x++) {
+				int x0 = xMap[2 * x];
+				int fx = xMap[2 * x + 1];
+				int x1 = Math.min(x0 + 1, lastX);
+				dst.put(dstRow + x, blend(src.get(row0 + x0), src.get(row0 + x1), src.get(row1 + x0),
+						src.get(row1 + x1), fx, fy));
+			}
+		});
+		return result;
+	}
+
+	// destination with the same alpha handling as the source; every pixel is written by the kernel
+	private static PlcImage newImage(PlcImage source, int width, int height) {
+		if (!source.hasAlpha()) {
+			return ImagePool.acquireScratch(width, height);
+		}
+		boolean direct = (long) width * height >= PlcImage.OFF_HEAP_PIXELS;
+		return new PlcImage(width, height, PlcImage.allocate(width, height, direct), source.hasAlpha());
+	}
+
+	private static void forEachRow(int width, int height, IntConsumer row) {
+		IntStream rows = IntStream.range(0, height);
+		if ((long) width * height >= PARALLEL_PIXELS) {
+			rows = rows.parallel();
+		}
+		rows.forEach(row);
+	}
+
+	// bilinear interpolation of each channel, alpha included
+	private static int blend(int p00, int p10, int p01, int p11, int fx, int fy) {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			int top = ((p00 >>> shift) & 0xff) * (ONE - fx) + ((p10 >>> shift) & 0xff) * fx;
+			int bottom = ((p01 >>> shift) & 0xff) * (ONE - fx) + ((p11 >>> shift) & 0xff) * fx;
+			int value = (top * (ONE - fy) + bottom * fy + (1 << (2 * FRACTION_BITS - 1))) >>> (2 * FRACTION_BITS);
+			result |= value << shift;
+		}
+		return result;
+	}
+
+	// source coordinate whose pixel contains the center of each destination coordinate
+	static int[] nearestMap(int srcSize, int dstSize) {
+		return cached(nearestMaps, srcSize, dstSize, () -> {
+			int[] map = new int[dstSize];
+			for (int i = 0; i < dstSize; i++) {
+				map[i] = (int) ((2L * i + 1) * srcSize / (2L * dstSize));
+			}
+			return map;
+		});
+	}
+
+	// the center of destination coordinate i is at source coordinate map[2i] + map[2i + 1] / ONE
+	static int[] bilinearMap(int srcSize, int dstSize) {
+		return cached(bilinearMaps, srcSize, dstSize, () -> {
+			int[] map = new int[2 * dstSize];
+			for (int i = 0; i < dstSize; i++) {
+				long position = (2L * i + 1) * srcSize * ONE / (2L * dstSize) - ONE / 2;
+				position = Math.max(0, Math.min(position, (long) (srcSize - 1) * ONE));
+				map[2 * i] = (int) (position >> FRACTION_BITS);
+				map[2 * i + 1] = (int) (position & (ONE - 1));
+			}
+			return map;
+		});
+	}
+
+	/**
+	 * Largest period and its offset such that every entry of map is offset + k * period, so that a
+	 * decoder subsampling the source with this period and offset produces every pixel map selects.
+	 *
+	 * @return {period, offset}; the period is 1 if there is no such period greater than 1
+	 */
+	static int[] subsampling(int[] map, int srcSize) {
+		int period = 0;
+		for (int i = 1; i < map.length; i++) {
+			period = gcd(period, map[i] - map[0]);
+		}
+		if (period == 0) {
+			// a single coordinate, or the same one throughout
+			period = srcSize;
+		}
+		return new int[] { period, map[0] % period };
+	}
+
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return Math.abs(a);
+	}
+
+	private static int[] cached(Map<Long, int[]> maps, int srcSize, int dstSize,
+			Supplier<int[]> compute) {
+		long key = (long) srcSize << 32 | dstSize;
+		int[] map = maps.get(key);
+		if (map == null) {
+			if (maps.size() >= MAX_CACHED_MAPS) {
+				maps.clear();
+			}
+			map = compute.get();
+			maps.put(key, map);
+		}
+		return map;
+	}
+}
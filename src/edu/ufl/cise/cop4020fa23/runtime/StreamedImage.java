@@ -0,0 +1,216 @@
+package edu.ufl.cise.cop4020fa23.runtime;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Read-only image that is decoded a band of rows at a time.  Generated code uses it for images that
+ * are only read pixel by pixel, in row order, by assignments such as im[x,y] = i[x,y] / 2.  Only the
+ * band containing the row being read is in memory, so the size of the image is not limited by the
+ * heap.
+ *
+ * The image is decoded once, from top to bottom, by ImageDecoder.decodeBands on a thread of its
+ * own, which decodes the next band while the current one is read; bands are BAND_PIXELS pixels,
+ * set with the system property plc.streamBandPixels, default 256K pixels (1MB).  Reading a row
+ * above the current band starts the decode over.  An image of a single band, and an image that
+ * decodeBands cannot decode, such as an interlaced PNG image, is decoded whole when it is first
+ * read.
+ *
+ * Images in the raw format (see FileURLIO.readRawImage) are mapped into memory instead.
+ *
+ * The decoder holds the source open and, for an image of more than one band, a thread, until the
+ * last band has been read or close is called; generated code closes the image at the end of the
+ * block that declares it.
+ */
+public final class StreamedImage implements AutoCloseable {
+
+	public static final long BAND_PIXELS = Long.getLong("plc.streamBandPixels", 1L << 18);
+
+	private final String source;
+	private final int width;
+	private final int height;
+	private final int bandRows;
+	private final boolean sequential;
+
+	// opened and not yet decoding, or null
+	private ImageDecoder decoder;
+	// thread of the running decode, or null; the bands it has decoded and arrays for it to reuse
+	private Thread thread;
+	private BlockingQueue<Object> decoded;
+	private Queue<int[]> free;
+	private int nextStart;
+	// rows bandStart ... bandStart + bandRows - 1, packed ARGB; or the whole image for raw files
+	private int[] band;
+	private int bandStart;
+	private PlcImage mapped;
+
+	StreamedImage(String source) {
+		this.source = source;
+		if (FileURLIO.isRawImage(source)) {
+			mapped = FileURLIO.readRawImage(source);
+			width = mapped.getWidth();
+			height = mapped.getHeight();
+			bandRows = height;
+			sequential = false;
+			return;
+		}
+		decoder = ImageDecoder.open(source);
+		try {
+			width = decoder.getWidth();
+			height = decoder.getHeight();
+			sequential = decoder.isSequential();
+		} catch (RuntimeException e) {
+			close();
+			throw e;
+		}
+		bandRows = sequential ? (int) Math.max(1, Math.min(height, BAND_PIXELS / width)) : height;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Precondition: 0 <= x < width and 0 <= y < height.  Use ImageOps.getRGB for a checked access.
+	 */
+	public int getRGB(int x, int y) {
+		if (mapped != null) {
+			return mapped.getRGB(x, y);
+		}
+		if (band == null || y < bandStart || y >= bandStart + bandRows) {
+			readBand(y);
+		}
+		return band[(y - bandStart) * width + x];
+	}
+
+	private void readBand(int y) {
+		if (band != null && y < bandStart) {
+			// rows above the current band were asked for again; start over
+			close();
+			band = null;
+		}
+		if (decoder == null && thread == null) {
+			decoder = ImageDecoder.open(source);
+		}
+		if (bandRows == height) {
+			try (ImageDecoder whole = decoder) {
+				decoder = null;
+				band = sequential ? decodeWhole(whole) : whole.read().getRGB(0, 0, width, height, null, 0, width);
+			}
+			bandStart = 0;
+			return;
+		}
+		if (thread == null) {
+			start();
+		}
+		do {
+			nextBand();
+		} while (y >= bandStart + bandRows);
+	}
+
+	private int[] decodeWhole(ImageDecoder whole) {
+		int[][] result = new int[1][];
+		whole.decodeBands(height, (pixels, firstRow, rows) -> {
+			result[0] = pixels;
+			return null;
+		});
+		return result[0];
+	}
+
+	// starts decoding the bands on a thread of their own
+	private void start() {
+		ImageDecoder running = decoder;
+		BlockingQueue<Object> bands = new ArrayBlockingQueue<>(1);
+		Queue<int[]> arrays = new ConcurrentLinkedQueue<>();
+		decoder = null;
+		decoded = bands;
+		free = arrays;
+		nextStart = 0;
+		thread = new Thread(() -> {
+			try (running) {
+				running.decodeBands(bandRows, (pixels, firstRow, rows) -> {
+					put(bands, pixels);
+					int[] next = arrays.poll();
+					return next != null ? next : new int[pixels.length];
+				});
+			} catch (CancellationException e) {
+				// closed
+			} catch (RuntimeException | Error e) {
+				try {
+					put(bands, e);
+				} catch (CancellationException closed) {
+					// nobody is waiting for the band any more
+				}
+			}
+		}, "plc-streamed-image");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// hands a band or a failure to the reader of the image; throws CancellationException if closed
+	private static void put(BlockingQueue<Object> bands, Object band) {
+		try {
+			bands.put(band);
+		} catch (InterruptedException e) {
+			throw new CancellationException();
+		}
+	}
+
+	// waits for the band after the current one
+	private void nextBand() {
+		Object next;
+		try {
+			next = decoded.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PLCRuntimeException("Interrupted while reading " + source);
+		}
+		if (next instanceof RuntimeException e) {
+			close();
+			throw e;
+		}
+		if (next instanceof Error e) {
+			close();
+			throw e;
+		}
+		if (band != null) {
+			free.offer(band);
+		}
+		band = (int[]) next;
+		bandStart = nextStart;
+		nextStart += bandRows;
+		if (nextStart >= height) {
+			// last band, the decode is done
+			thread = null;
+		}
+	}
+
+	/**
+	 * Stops the decode and closes the source.  The image can still be read, which opens the source
+	 * again unless the row is in the band last read.
+	 */
+	@Override
+	public void close() {
+		if (thread != null) {
+			// the decode stops when it hands over its next band
+			thread.interrupt();
+			thread = null;
+		}
+		if (decoder != null) {
+			decoder.close();
+			decoder = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "StreamedImage [source=" + source + ", width=" + width + ", height=" + height + "]";
+	}
+}